@@ -1,8 +1,18 @@
 package cmm.compiler;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cmm.compiler.optimizer.PassManager;
 
 /**
  * @author Leslie Marxen
@@ -11,16 +21,40 @@ import java.nio.file.Path;
 
 public class App{
 
-    private Compiler comp;
+    private final Path workingDirectory;
+    private List<Compiler> units;
+    private boolean batch;
+    private BuildCache cache;
 
     public static final String HELP_MSG = "Use following format:\n" + 
                                           "\t- cmmcomp <sourcefile> to compile\n" + 
-                                          "\t- cmmcomp -j <sourcefile> to output Jasmin code" +
+                                          "\t- cmmcomp -j <sourcefile> to output Jasmin code\n" +
+                                          "\t- cmmcomp <sourcefile|directory>... to compile many files in parallel, directories are searched for .cmm files\n" +
+                                          "\t- cmmcomp --instance-calls <sourcefile> to compile functions as instance methods\n" +
+                                          "\t- cmmcomp --buffered-output <sourcefile> to buffer the output of println until flush or the end of the program\n" +
+                                          "\t- cmmcomp -O0|-O1|-O2 <sourcefile> to select the optimization level, -O2 by default\n" +
+                                          "\t- cmmcomp --report <sourcefile> to print which optimizations were applied\n" +
+                                          "\t- cmmcomp --cache=<directory> [--cache-size=<MiB>] <sourcefile>... to reuse the output of unchanged programs, limited to 64 MiB by default\n" +
+                                          "\t- cmmcomp --server[=port] to keep a compiler running in the background, listening on the loopback interface\n" +
+                                          "\t- cmmcomp --client[=port] <arguments>... to compile on a running server\n" +
+                                          "\t- cmmcomp --client[=port] --shutdown to stop a running server\n" +
                                           "\t- cmmcomp --help to display this message";
 
 
     public App(){
-        comp = null;
+        this(Paths.get(""));
+    }
+
+    /**
+     * Creates an instance for arguments given relative to a directory.
+     * @param workingDirectory Relative sourcefiles are resolved against this directory 
+     *          and compiled programs are written into it.
+     */
+    public App(Path workingDirectory){
+        this.workingDirectory = workingDirectory;
+        units = new ArrayList<>();
+        batch = false;
+        cache = null;
     }
 
     /**
@@ -37,13 +71,59 @@ public class App{
      * @param args contains command line arguments just like in a main method
      */
     public void start(String[] args){
+        int status;
+        if(args.length > 0 && args[0].matches("--server(=[0-9]+)?")){
+            status = serve(port(args[0]));
+        } else if(args.length > 0 && args[0].matches("--client(=[0-9]+)?")){
+            status = CompileClient.forward(port(args[0]), Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            status = run(args);
+        }
+        if(status != 0){
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Compiles the programs given by the arguments.
+     * @param args contains command line arguments just like in a main method
+     * @return the exit status, 0 if every program was compiled.
+     */
+    public int run(String[] args){
+        if(Arrays.asList(args).contains("--help")){
+            System.out.println(HELP_MSG);
+            return 0;
+        }
         if(!evaluateArguments(args)){
-            System.exit(1);
+            return 1;
+        }
+        if(!batch){
+            return units.get(0).compile() ? 0 : 1;
         }
-        comp.compile();
+
+        long start = System.nanoTime();
+        List<BatchCompiler.Result> results = new BatchCompiler(units).compile();
+        BatchCompiler.printReport(results, (System.nanoTime() - start) / 1_000_000, System.out);
+        if(cache != null){
+            cache.printReport(System.out);
+        }
+        return results.stream().allMatch(BatchCompiler.Result::isSuccess) ? 0 : 1;
     }
 
+    private static int serve(int port){
+        try (CompileServer server = new CompileServer(port)) {
+            server.serve();
+            return 0;
+        } catch (IOException e){
+            System.err.println("Could not run the compile server on port " + port + ": " + e.getMessage());
+            return 1;
+        }
+    }
 
+    private static int port(String arg){
+        int pos = arg.indexOf('=');
+        return (pos < 0) ? CompileServer.DEFAULT_PORT : Integer.parseInt(arg.substring(pos + 1));
+    }
 
     /**
      * Sets the compilers state to fit the inputted parameters
@@ -51,35 +131,100 @@ public class App{
      * @return true if the arguments are valid, false if otherwise.
      */
     boolean evaluateArguments(String[] args){
-        if(args.length > 2 || args.length == 0){
+        boolean generateJasmin = false;
+        boolean staticCalls = true;
+        boolean bufferedOutput = false;
+        boolean printReport = false;
+        int optimizationLevel = PassManager.DEFAULT_LEVEL;
+        Path cacheDirectory = null;
+        long cacheSize = BuildCache.DEFAULT_MAX_SIZE;
+        List<Path> paths = new ArrayList<>();
+
+        for (String arg : args) {
+            if(arg.equals("-j")){
+                generateJasmin = true;
+            } else if(arg.equals("--instance-calls")){
+                staticCalls = false;
+            } else if(arg.equals("--buffered-output")){
+                bufferedOutput = true;
+            } else if(arg.equals("--report")){
+                printReport = true;
+            } else if(arg.matches("-O[0-9]")){
+                optimizationLevel = arg.charAt(2) - '0';
+                if(optimizationLevel > PassManager.MAX_LEVEL){
+                    System.out.println(HELP_MSG);
+                    return false;
+                }
+            } else if(arg.startsWith("--cache=")){
+                cacheDirectory = workingDirectory.resolve(arg.substring("--cache=".length()));
+            } else if(arg.matches("--cache-size=[0-9]+")){
+                cacheSize = Long.parseLong(arg.substring("--cache-size=".length())) << 20;
+            } else {
+                paths.add(workingDirectory.resolve(arg));
+            }
+        }
+
+        if(paths.isEmpty()){
             System.out.println(HELP_MSG);
             return false;
-        } else if (args[0].equals("-j")){
-
-            
-            Path p = Paths.get(args[1]);
+        }
 
-            if(Files.isReadable(p)){
-                comp = new Compiler(p, true);
-                return true;
+        List<Path> sources = new ArrayList<>();
+        for (Path p : paths) {
+            if(Files.isDirectory(p)){
+                batch = true;
+                try (Stream<Path> files = Files.walk(p)) {
+                    sources.addAll(files
+                        .filter(x -> Files.isRegularFile(x) && x.toString().endsWith(".cmm"))
+                        .sorted()
+                        .collect(Collectors.toList()));
+                } catch (IOException e){
+                    System.err.println("Directory not accessible: " + p);
+                    return false;
+                }
+            } else if(Files.isReadable(p)){
+                sources.add(p);
             } else {
-                System.err.println("File not accessible");
+                System.err.println("File not accessible: " + p);
                 return false;
             }
-        } else if(args[0].equals("--help")){
-            System.out.println(HELP_MSG);
-            System.exit(0);
-            return true;
-        } else {
-            Path p = Paths.get(args[0]);
-            if(Files.isReadable(p)){
-                comp = new Compiler(p, false);
-                return true;
-            } else {
-                System.err.println("File not accessible");
+        }
+        batch |= sources.size() > 1;
+
+        // Every program is written to the working directory, named after its file
+        Map<String, Path> outputs = new HashMap<>();
+        for (Path p : sources) {
+            Path other = outputs.put(Compiler.resolveProgramName(p), p);
+            if(other != null){
+                System.err.println("Programs with the same name: " + other + " and " + p);
+                return false;
+            }
+        }
+
+        if(cacheDirectory != null){
+            try {
+                cache = new BuildCache(cacheDirectory, cacheSize);
+            } catch (IOException e){
+                System.err.println("Build cache not accessible: " + e.getMessage());
                 return false;
             }
         }
+
+        for (Path p : sources) {
+            Compiler comp = new Compiler(p, generateJasmin);
+            comp.setStaticCalls(staticCalls);
+            comp.setBufferedOutput(bufferedOutput);
+            comp.setPrintReport(printReport);
+            comp.setOptimizationLevel(optimizationLevel);
+            comp.setOutputDirectory(workingDirectory);
+            comp.setBuildCache(cache);
+            units.add(comp);
+        }
+        if(units.isEmpty()){
+            System.err.println("No .cmm files found");
+            return false;
+        }
+        return true;
     }
 
 }
\ No newline at end of file
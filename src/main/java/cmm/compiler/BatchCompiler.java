@@ -0,0 +1,129 @@
+package cmm.compiler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compiles many programs concurrently within one JVM.<br>
+ * Every program is compiled by its own {@link Compiler} on a work-stealing pool,
+ * so units of different size are spread evenly across the threads. The parsers
+ * of all units share the DFA cache of the generated ANTLR parser, which is safe
+ * for concurrent use and lets later units parse faster. A unit that fails does
+ * not stop the others.
+ *
+ * @author Leslie Marxen
+ */
+public class BatchCompiler{
+
+    /**
+     * The outcome of compiling one program.
+     */
+    public static class Result{
+
+        private final Compiler unit;
+        private final boolean success;
+        private final long millis;
+
+        private Result(Compiler unit, boolean success, long millis){
+            this.unit = unit;
+            this.success = success;
+            this.millis = millis;
+        }
+
+        /**
+         * @return the compiler of the program
+         */
+        public Compiler getUnit(){
+            return unit;
+        }
+
+        /**
+         * @return true if the program was compiled and written
+         */
+        public boolean isSuccess(){
+            return success;
+        }
+
+        /**
+         * @return how long the compilation took in milliseconds
+         */
+        public long getMillis(){
+            return millis;
+        }
+    }
+
+    private final List<Compiler> units;
+    private final int parallelism;
+
+    /**
+     * Creates a batch using one thread per available processor.
+     * @param units The compilers of the programs.
+     */
+    public BatchCompiler(List<Compiler> units){
+        this(units, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a batch.
+     * @param units The compilers of the programs.
+     * @param parallelism How many programs are compiled at the same time.
+     */
+    public BatchCompiler(List<Compiler> units, int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+        }
+        this.units = new ArrayList<>(units);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Compiles every program and waits until all of them are done.
+     * @return The results in the order of the units.
+     */
+    public List<Result> compile(){
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (Compiler unit : units) {
+                tasks.add(pool.submit(() -> compile(unit)));
+            }
+            List<Result> results = new ArrayList<>();
+            tasks.forEach(x -> results.add(x.join()));
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Result compile(Compiler unit){
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = unit.compile();
+        } catch (RuntimeException e){
+            System.err.println(unit.getInfile() + ": " + e);
+            success = false;
+        }
+        return new Result(unit, success, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Prints the status of every program and the throughput of the whole batch.
+     * @param results The results of {@link #compile()}.
+     * @param millis How long the batch took in milliseconds.
+     * @param out The stream to print to.
+     */
+    public static void printReport(List<Result> results, long millis, PrintStream out){
+        int compiled = 0;
+        for (Result r : results) {
+            compiled += r.isSuccess() ? 1 : 0;
+            out.println(String.format("  %-6s %s (%d ms)", r.isSuccess() ? "ok" : "failed", r.getUnit().getInfile(), r.getMillis()));
+        }
+        double seconds = Math.max(millis, 1) / 1000.0;
+        out.println(String.format("Compiled %d of %d files in %d ms, %.1f files/s",
+            compiled, results.size(), millis, results.size() / seconds));
+    }
+}
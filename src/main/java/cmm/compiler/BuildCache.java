@@ -0,0 +1,244 @@
+package cmm.compiler;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the output of compiled programs on disk, so unchanged programs are copied instead of compiled.<br>
+ * An entry is named after the SHA-256 hash of the compiler, the options and the source of
+ * a program. The compiler is identified by the hash of its own class files, so a changed
+ * compiler never reuses the output of an older one. Restoring an entry marks it as used,
+ * when the entries exceed the size limit the ones unused the longest are removed.
+ * Compilers of a batch may use the same cache at the same time.
+ *
+ * @author Leslie Marxen
+ */
+public class BuildCache{
+
+    /** The size limit used if none is given, 64 MiB. */
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    private static final String ENTRY = ".out";
+
+    private static String compilerHash;
+
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicLong size;
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+    private final AtomicInteger evictions;
+
+    /**
+     * Opens a cache, creating its directory if necessary, and shrinks it to the size limit.
+     * @param directory The directory holding the entries.
+     * @param maxSize The size limit of all entries in bytes.
+     * @throws IOException if the directory or the compiler can not be read.
+     */
+    public BuildCache(Path directory, long maxSize) throws IOException{
+        if(maxSize < 0){
+            throw new IllegalArgumentException("Size limit has to be positive: " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        this.size = new AtomicLong(entries().stream().mapToLong(BuildCache::sizeOf).sum());
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+        this.evictions = new AtomicInteger();
+        compilerHash();
+        if(size.get() > maxSize){
+            evict();
+        }
+    }
+
+    /**
+     * Computes the name of the entry of a program.
+     * @param source The source code of the program.
+     * @param options Everything else the output depends on, f.e. the program name and the optimization level.
+     * @return the key of the entry
+     * @throws IOException if the compiler can not be read.
+     */
+    public String key(byte[] source, String options) throws IOException{
+        MessageDigest md = sha256();
+        md.update(compilerHash().getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(options.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(source);
+        return hex(md.digest());
+    }
+
+    /**
+     * Copies the output of an entry and marks the entry as used.
+     * @param key The key of the entry.
+     * @param out The output file.
+     * @return true if the entry existed, false if the program has to be compiled.
+     */
+    public boolean restore(String key, Path out){
+        Path entry = directory.resolve(key + ENTRY);
+        try {
+            Files.copy(entry, out, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e){
+            // Missing, or removed by another compiler in the meantime
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds the output of a compiled program and removes the least recently used entries above the size limit.
+     * @param key The key of the entry.
+     * @param out The output file.
+     * @throws IOException if the entry can not be written.
+     */
+    public void store(String key, Path out) throws IOException{
+        Path entry = directory.resolve(key + ENTRY);
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.copy(out, tmp, StandardCopyOption.REPLACE_EXISTING);
+            long added = Files.size(tmp) - (Files.exists(entry) ? sizeOf(entry) : 0);
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e){
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if(size.addAndGet(added) > maxSize){
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Removes the entries unused the longest until the cache fits its size limit.
+     */
+    private synchronized void evict() throws IOException{
+        List<Path> entries = entries();
+        long total = entries.stream().mapToLong(BuildCache::sizeOf).sum();
+        entries.sort(Comparator.comparingLong(BuildCache::lastModified));
+        for (Path entry : entries) {
+            if(total <= maxSize){
+                break;
+            }
+            long entrySize = sizeOf(entry);
+            if(Files.deleteIfExists(entry)){
+                total -= entrySize;
+                evictions.incrementAndGet();
+            }
+        }
+        size.set(total);
+    }
+
+    private List<Path> entries() throws IOException{
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(x -> x.toString().endsWith(ENTRY)).collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static long sizeOf(Path p){
+        try {
+            return Files.size(p);
+        } catch (IOException e){
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path p){
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e){
+            return 0;
+        }
+    }
+
+    /**
+     * Hashes the class files of the compiler once per JVM,
+     * read from the jar or the directory the compiler was loaded from.
+     */
+    private static synchronized String compilerHash() throws IOException{
+        if(compilerHash != null){
+            return compilerHash;
+        }
+        Path location;
+        try {
+            location = Paths.get(BuildCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | SecurityException | NullPointerException e){
+            throw new IOException("Location of the compiler unknown", e);
+        }
+
+        MessageDigest md = sha256();
+        if(Files.isDirectory(location)){
+            List<Path> classes;
+            try (Stream<Path> files = Files.walk(location)) {
+                classes = files.filter(x -> x.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+            }
+            for (Path p : classes) {
+                md.update(location.relativize(p).toString().getBytes(StandardCharsets.UTF_8));
+                md.update(Files.readAllBytes(p));
+            }
+        } else {
+            md.update(Files.readAllBytes(location));
+        }
+        compilerHash = hex(md.digest());
+        return compilerHash;
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("Every JVM provides SHA-256", e);
+        }
+    }
+
+    private static String hex(byte[] bytes){
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return how many programs were restored, compiled and removed, in this order
+     */
+    public Map<String, Integer> getReport(){
+        Map<String, Integer> report = new LinkedHashMap<>();
+        report.put("hit", hits.get());
+        report.put("miss", misses.get());
+        report.put("evicted", evictions.get());
+        return report;
+    }
+
+    /**
+     * Prints how many programs were restored, compiled and removed.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Build cache:");
+        getReport().forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
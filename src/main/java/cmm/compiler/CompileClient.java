@@ -0,0 +1,90 @@
+package cmm.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * Forwards the arguments of the command line to a running {@link CompileServer}.
+ * Relative paths are resolved against the working directory of the client,
+ * the output of the server is printed as it arrives. Every request carries the
+ * token the server wrote to the home directory of its user.
+ *
+ * @author Leslie Marxen
+ */
+public class CompileClient{
+
+    private CompileClient(){
+    }
+
+    /**
+     * Compiles on the server, printing its output to {@link System#out} and {@link System#err}.
+     * @param port The port of the server.
+     * @param args The command line arguments, {@code --shutdown} to stop the server.
+     * @return the exit status of the compiler, 1 if the server can not be reached.
+     */
+    public static int forward(int port, String[] args){
+        return forward(port, args, System.out, System.err);
+    }
+
+    /**
+     * Compiles on the server.
+     * @param port The port of the server.
+     * @param args The command line arguments, {@code --shutdown} to stop the server.
+     * @param sysout Receives what the compiler prints to {@link System#out}.
+     * @param syserr Receives what the compiler prints to {@link System#err}.
+     * @return the exit status of the compiler, 1 if the server can not be reached.
+     */
+    public static int forward(int port, String[] args, PrintStream sysout, PrintStream syserr){
+        String token;
+        try {
+            token = new String(Files.readAllBytes(CompileServer.tokenFile(port)), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e){
+            syserr.println("No compile server running on port " + port);
+            return 1;
+        } catch (IOException e){
+            syserr.println("Could not read the token of the compile server: " + e.getMessage());
+            return 1;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while(true){
+                int channel = in.readByte();
+                if(channel == CompileServer.EXIT){
+                    return in.readInt();
+                }
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                PrintStream target = (channel == CompileServer.OUT) ? sysout : syserr;
+                target.write(data, 0, data.length);
+                target.flush();
+            }
+        } catch (ConnectException e){
+            syserr.println("No compile server running on port " + port);
+            return 1;
+        } catch (IOException e){
+            syserr.println("Connection to the compile server failed: " + e.getMessage());
+            return 1;
+        }
+    }
+}
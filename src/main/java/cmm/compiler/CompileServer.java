@@ -0,0 +1,299 @@
+package cmm.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Keeps a compiler running, so compiling does not pay for starting the JVM,
+ * loading the compiler and deserializing the ANTLR lexer and parser every time.<br>
+ * The server listens on the loopback interface and handles one request after the
+ * other, a request compiles every program given to it in parallel like the command
+ * line. A request consists of the token of the server, the working directory of the
+ * client, the number of arguments and the arguments, each string written by
+ * {@link DataOutputStream#writeUTF(String)}. A client that does not send a complete
+ * request in time, sends a malformed one or a wrong token is dropped.
+ * While it runs, everything printed to {@link System#out} and {@link System#err}
+ * is sent back in frames of a channel byte, a length and the bytes. The exit
+ * status is sent last, in a frame of its own.<br>
+ * Programs are written to the working directory of the client with the rights of
+ * the server. The random token is written to a file only the user running the server
+ * can read, so only processes of this user can send requests. The server is meant
+ * for a single user, it does not keep the users of a shared account apart.
+ *
+ * @author Leslie Marxen
+ */
+public class CompileServer implements Closeable{
+
+    /** The port used if none is given. */
+    public static final int DEFAULT_PORT = 47110;
+
+    /** Frame with the exit status, the last frame of a response. */
+    static final int EXIT = 0;
+    /** Frame with output to {@link System#out}. */
+    static final int OUT = 1;
+    /** Frame with output to {@link System#err}. */
+    static final int ERR = 2;
+
+    /** The only argument of a request stopping the server. */
+    static final String SHUTDOWN = "--shutdown";
+
+    /** Milliseconds a client may take to send its request if nothing else is set. */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 10_000;
+    /** The most arguments a request may consist of. */
+    static final int MAX_ARGUMENTS = 1 << 16;
+
+    private static final String WARM_UP = "num a; num f(num b){ if(b > 0){ return b * 2; } return 0; } "
+        + "void main(){ a = f(get()); loop(a < 10){ println(a); a = a + 1; } }";
+
+    private final ServerSocket socket;
+    private final String token;
+    private int requestTimeout;
+
+    /**
+     * Binds the server to a port of the loopback interface and writes its token.
+     * @param port The port, 0 for any free port.
+     * @throws IOException if the port can not be used or the token can not be written.
+     */
+    public CompileServer(int port) throws IOException{
+        socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        token = sb.toString();
+        try {
+            writeToken(tokenFile(getPort()), token);
+        } catch (IOException e){
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param port The port of a server.
+     * @return the file holding the token of the server, within the home directory of the user
+     */
+    static Path tokenFile(int port){
+        return Paths.get(System.getProperty("user.home"), ".cmmcomp", "server-" + port + ".token");
+    }
+
+    /**
+     * Writes the token to a new file that only the owner can read.
+     * A token file left behind by a crashed server is replaced.
+     */
+    private static void writeToken(Path file, String token) throws IOException{
+        Path directory = file.getParent();
+        boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if(posix){
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(directory);
+        }
+        Files.deleteIfExists(file);
+        try {
+            if(posix){
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(file);
+                file.toFile().setReadable(false, false);
+                file.toFile().setReadable(true, true);
+            }
+        } catch (FileAlreadyExistsException e){
+            throw new IOException("Token file " + file + " created by another process", e);
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sets how long a client may take to send its request. Requests are handled one
+     * after the other, so a client sending nothing would block every other client.
+     * @param requestTimeout The timeout in milliseconds, greater than 0.
+     */
+    public void setRequestTimeout(int requestTimeout){
+        if(requestTimeout <= 0){
+            throw new IllegalArgumentException("Timeout has to be positive: " + requestTimeout);
+        }
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort(){
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Handles requests until a client requests a shutdown or the server is closed.
+     * @throws IOException if the server can not accept requests anymore.
+     */
+    public void serve() throws IOException{
+        warmUp();
+        System.out.println("Compile server listening on port " + getPort());
+        boolean running = true;
+        while(running){
+            try (Socket client = socket.accept()) {
+                client.setSoTimeout(requestTimeout);
+                running = handle(client);
+            } catch (IOException e){
+                if(socket.isClosed()){
+                    return;
+                }
+                System.err.println("Compile request failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compiles a small program, so the first request finds the compiler loaded
+     * and the caches of the lexer and parser filled.
+     */
+    private static void warmUp() throws IOException{
+        Path directory = Files.createTempDirectory("cmmcomp");
+        Path source = directory.resolve("WarmUp.cmm");
+        Files.write(source, WARM_UP.getBytes(StandardCharsets.UTF_8));
+        try {
+            Compiler compiler = new Compiler(source, false);
+            compiler.setOutputDirectory(directory);
+            compiler.compile();
+        } finally {
+            Files.deleteIfExists(directory.resolve("WarmUp.class"));
+            Files.delete(source);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Handles a single request.
+     * @return false if the client requested a shutdown.
+     * @throws IOException if the request is not complete within the timeout or malformed, the client is dropped then.
+     */
+    private boolean handle(Socket client) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+        byte[] received = in.readUTF().getBytes(StandardCharsets.UTF_8);
+        if(!MessageDigest.isEqual(received, token.getBytes(StandardCharsets.UTF_8))){
+            throw new IOException("Invalid token");
+        }
+        Path workingDirectory;
+        try {
+            workingDirectory = Paths.get(in.readUTF());
+        } catch (InvalidPathException e){
+            throw new IOException("Invalid working directory", e);
+        }
+        if(!workingDirectory.isAbsolute() || !Files.isDirectory(workingDirectory)){
+            throw new IOException("Invalid working directory " + workingDirectory);
+        }
+        int count = in.readInt();
+        if(count < 0 || count > MAX_ARGUMENTS){
+            throw new IOException("Invalid request, " + count + " arguments");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        // Compiling may take longer than sending the request
+        client.setSoTimeout(0);
+        if(args.length == 1 && args[0].equals(SHUTDOWN)){
+            writeExit(out, 0);
+            return false;
+        }
+
+        PrintStream sysout = System.out;
+        PrintStream syserr = System.err;
+        PrintStream requestOut = new PrintStream(new FrameOutputStream(out, OUT), true);
+        PrintStream requestErr = new PrintStream(new FrameOutputStream(out, ERR), true);
+        int status;
+        System.setOut(requestOut);
+        System.setErr(requestErr);
+        try {
+            status = new App(workingDirectory).run(args);
+        } catch (RuntimeException e){
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            requestOut.flush();
+            requestErr.flush();
+            System.setOut(sysout);
+            System.setErr(syserr);
+        }
+        writeExit(out, status);
+        return true;
+    }
+
+    private static void writeExit(DataOutputStream out, int status) throws IOException{
+        synchronized(out){
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /**
+     * Stops accepting requests and removes the token.
+     */
+    @Override
+    public void close() throws IOException{
+        int port = getPort();
+        socket.close();
+        Files.deleteIfExists(tokenFile(port));
+    }
+
+    /**
+     * Sends everything written to it as frames of a channel,
+     * threads of a batch may write at the same time.
+     */
+    private static class FrameOutputStream extends OutputStream{
+
+        private final DataOutputStream out;
+        private final int channel;
+
+        FrameOutputStream(DataOutputStream out, int channel){
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException{
+            synchronized(out){
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException{
+            synchronized(out){
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package cmm.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import cmm.compiler.backend.Opcodes;
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+
+/**
+ * A program compiled in memory by {@link Compiler#compileProgram()}, run without touching the filesystem.<br>
+ * The program reads and prints through the static fields {@code $stdin} and {@code $stdout}
+ * instead of {@link System#in} and {@link System#out}. Every run defines the class in a class
+ * loader of its own, so runs do not share globals and may run at the same time.
+ *
+ * @author Leslie Marxen
+ */
+public class CompiledProgram{
+
+    /** Replaces {@link System#in} within the program. */
+    static final String STDIN = "$stdin";
+    /** Replaces {@link System#out} within the program. */
+    static final String STDOUT = "$stdout";
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Result{
+
+        private final String output;
+        private final Throwable error;
+
+        private Result(String output, Throwable error){
+            this.output = output;
+            this.error = error;
+        }
+
+        /**
+         * @return everything the program printed
+         */
+        public String getOutput(){
+            return output;
+        }
+
+        /**
+         * @return the exception that ended the program, null if it returned normally
+         */
+        public Throwable getError(){
+            return error;
+        }
+
+        /**
+         * @return true if the program returned normally
+         */
+        public boolean isSuccess(){
+            return error == null;
+        }
+    }
+
+    /**
+     * Defines a single class from bytes held in memory.
+     */
+    private static class ProgramClassLoader extends ClassLoader{
+
+        ProgramClassLoader(){
+            super(CompiledProgram.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] classFile){
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+
+    private final String name;
+    private final byte[] classFile;
+
+    /**
+     * @param name The name of the class.
+     * @param classFile The classfile, with its standard streams redirected.
+     */
+    CompiledProgram(String name, byte[] classFile){
+        this.name = name;
+        this.classFile = classFile;
+    }
+
+    /**
+     * Lets a program read and print through static fields of its own class.
+     * @param cls The compiled program.
+     */
+    static void redirectStandardStreams(ClassModel cls){
+        for (MethodModel m : cls.getMethods()) {
+            redirectStandardStreams(cls, m.getCode());
+            redirectStandardStreams(cls, m.getExitHandler());
+        }
+        cls.addField(new FieldModel(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, STDIN, "Ljava/io/InputStream;"));
+        cls.addField(new FieldModel(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, STDOUT, "Ljava/io/PrintStream;"));
+    }
+
+    private static void redirectStandardStreams(ClassModel cls, List<Instruction> code){
+        for (int i = 0; i < code.size(); i++) {
+            Instruction insn = code.get(i);
+            if(insn.getOpcode() == Opcode.GETSTATIC && insn.getOwner().equals("java/lang/System")){
+                String field = insn.getName().equals("in") ? STDIN : STDOUT;
+                code.set(i, Instruction.field(Opcode.GETSTATIC, cls.getName(), field, insn.getDescriptor()));
+            }
+        }
+    }
+
+    /**
+     * @return the name of the class
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the classfile
+     */
+    public byte[] getClassFile(){
+        return classFile.clone();
+    }
+
+    /**
+     * Runs the program in a class loader of its own.
+     * @param input Everything the program can read with get.
+     * @return The output of the program and how it ended.
+     */
+    public Result run(String input){
+        return run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Runs the program in a class loader of its own.
+     * @param in The stream the program reads from with get.
+     * @return The output of the program and how it ended.
+     */
+    public Result run(InputStream in){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out;
+        try {
+            out = new PrintStream(bytes, false, "UTF-8");
+        } catch (UnsupportedEncodingException e){
+            throw new IllegalStateException("Every JVM supports UTF-8", e);
+        }
+
+        Throwable error = null;
+        try {
+            Class<?> cls = new ProgramClassLoader().define(name, classFile);
+            cls.getField(STDIN).set(null, in);
+            cls.getField(STDOUT).set(null, out);
+            cls.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e){
+            error = e.getCause();
+        } catch (ReflectiveOperationException | LinkageError e){
+            error = e;
+        }
+        out.flush();
+        return new Result(new String(bytes.toByteArray(), StandardCharsets.UTF_8), error);
+    }
+}
@@ -1,17 +1,23 @@
 package cmm.compiler;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import jasmin.ClassFile;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 
 import java.util.*;
 
+import cmm.compiler.backend.ClassAssembler;
+import cmm.compiler.backend.JasminPrinter;
+import cmm.compiler.backend.Opcodes;
 import cmm.compiler.exception.CompileRuntimeException;
 import cmm.compiler.generated.*;
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.optimizer.PassManager;
+import cmm.compiler.utillity.Function;
 import cmm.compiler.utillity.FunctionCallValidator;
 import cmm.compiler.utillity.ScopeManager.Type;
 
@@ -24,8 +30,15 @@ public class Compiler{
 
     
     private boolean generateJasmin;
+    private boolean staticCalls;
+    private boolean bufferedOutput;
+    private boolean printReport;
+    private int optimizationLevel;
     private String programname;
     private Path infile;
+    private CharSequence source;
+    private Path outputDirectory;
+    private BuildCache cache;
 
     /**
      * Constructor for the Compiler class.
@@ -36,6 +49,23 @@ public class Compiler{
         this.infile = infile; 
         programname = resolveProgramName(infile);
         this.generateJasmin = generateJasmin;
+        this.staticCalls = true;
+        this.bufferedOutput = false;
+        this.printReport = false;
+        this.optimizationLevel = PassManager.DEFAULT_LEVEL;
+        this.outputDirectory = Paths.get("");
+    }
+
+    /**
+     * Creates a compiler for source code held in memory, f.e. to compile it with
+     * {@link #compileToClass()} without touching the filesystem.
+     * @param programname The name of the compiled class.
+     * @param source The C-- source code.
+     */
+    public Compiler(String programname, CharSequence source){
+        this(Paths.get(programname + ".cmm"), false);
+        this.infile = null;
+        this.source = source;
     }
 
     /**
@@ -60,55 +90,274 @@ public class Compiler{
 
     /**
      * Actually compiles the program and outputs it as a File.
+     * Compilers of different programs may run concurrently.
+     * @return true if the program was compiled and written, false if an error was printed.
+     */
+    public boolean compile(){
+        String key = null;
+        if(cache != null && !printReport){
+            try {
+                key = cache.key(readSource(), String.join(",", programname,
+                    String.valueOf(generateJasmin), String.valueOf(staticCalls),
+                    String.valueOf(bufferedOutput), String.valueOf(optimizationLevel)));
+            } catch (IOException e){
+                System.err.println("Could not read " + infile);
+                return false;
+            }
+            if(cache.restore(key, outputFile())){
+                return true;
+            }
+        }
+
+        ClassModel cls = compileModel();
+        if(cls == null){
+            return false;
+        }
+
+        boolean written = generateJasmin ? writeJasmin(new JasminPrinter().print(cls)) : writeClass(cls);
+        if(written && key != null){
+            try {
+                cache.store(key, outputFile());
+            } catch (IOException e){
+                System.err.println("Could not add " + getSourceName() + " to the build cache: " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Compiles the program into a classfile held in memory.
+     * @return the classfile, null if an error was printed.
+     */
+    public byte[] compileToClass(){
+        ClassModel cls = compileModel();
+        return (cls == null) ? null : new ClassAssembler().assemble(cls);
+    }
+
+    /**
+     * Compiles the program into Jasmin assembly held in memory.
+     * @return the lines of the assembly, null if an error was printed.
+     */
+    public List<String> compileToJasmin(){
+        ClassModel cls = compileModel();
+        return (cls == null) ? null : new JasminPrinter().print(cls);
+    }
+
+    /**
+     * Compiles the program into a classfile that reads and prints through streams
+     * given to {@link CompiledProgram#run(String)} instead of the standard streams.
+     * @return the program, null if an error was printed.
      */
-    public void compile(){
-        ParseTree pt = createParser(infile).program();
+    public CompiledProgram compileProgram(){
+        ClassModel cls = compileModel();
+        if(cls == null){
+            return null;
+        }
+        CompiledProgram.redirectStandardStreams(cls);
+        return new CompiledProgram(programname, new ClassAssembler().assemble(cls));
+    }
+
+    /**
+     * Parses, checks and optimizes the program.
+     * @return the compiled program, null if an error was printed.
+     */
+    private ClassModel compileModel(){
+        ParseTree pt;
+        try {
+            pt = (source == null) ? openParser(infile).program() : openParser(source, programname).program();
+        } catch (IOException e){
+            System.err.println("Could not read " + infile);
+            return null;
+        }
         ProgramVisitor v = new ProgramVisitor(programname);
+        v.setStaticCalls(staticCalls);
+        v.setBufferedOutput(bufferedOutput);
+        v.setLoopOptimizations(optimizationLevel > 0);
 
-        final List<String> asm = new ArrayList<>();
-        
         try {
-            asm.addAll(v.visit(pt));
+            v.visit(pt);
         } catch (CompileRuntimeException e){
-            System.err.println(e.getPreparedMessage());
-            return;
+            System.err.println(getSourceName() + ": " + e.getPreparedMessage());
+            return null;
         }
         
+        final ClassModel cls = v.getClassModel();
 
         //inserting public fields
+        final int fieldAccess = staticCalls ? Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC : Opcodes.ACC_PUBLIC;
         v.getGlobalVariables().stream()
             .filter(x -> x.getType() == Type.VARIABLE)
-            .forEach(x -> asm.add(2, ".field public " + x.getValue() + " I"));
+            .forEach(x -> cls.addField(new FieldModel(fieldAccess, x.getValue(), "I")));
 
         // Validating
         FunctionCallValidator fcv = new FunctionCallValidator(
-            asm, 
-            ((ProgramVisitor) v).getDefinedFunctions()
+            cls, 
+            v.getDefinedFunctions()
         );
         
         List<String> errors = fcv.validate();
         if(!errors.isEmpty()){
-            errors.forEach(System.err::println);
-            return;
+            errors.forEach(x -> System.err.println(getSourceName() + ": " + x));
+            return null;
+        }
+
+        optimize(cls, v.getDefinedFunctions());
+        return cls;
+    }
+
+    /**
+     * @return the bytes of the source code
+     */
+    private byte[] readSource() throws IOException{
+        return (source == null) ? Files.readAllBytes(infile) : source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the compiled file, or the program name for source code held in memory
+     */
+    private String getSourceName(){
+        return (source == null) ? infile.toString() : programname;
+    }
+
+    /**
+     * @return the compiled C-- file, null for source code held in memory
+     */
+    public Path getInfile(){
+        return infile;
+    }
+
+    /**
+     * @return the name of the compiled class, the output file is named after it
+     */
+    public String getProgramName(){
+        return programname;
+    }
+
+    /**
+     * @return the directory the output file is written to
+     */
+    public Path getOutputDirectory(){
+        return outputDirectory;
+    }
+
+    /**
+     * @param outputDirectory The directory the output file is written to, the working directory by default.
+     */
+    public void setOutputDirectory(Path outputDirectory){
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * @return the file the compiled program is written to
+     */
+    private Path outputFile(){
+        return outputDirectory.resolve(programname + (generateJasmin ? ".j" : ".class"));
+    }
+
+    /**
+     * @return the cache of compiled programs, null if every program is compiled
+     */
+    public BuildCache getBuildCache(){
+        return cache;
+    }
+
+    /**
+     * @param cache Restores the program instead of compiling it if its source and options
+     *          did not change, null (default) to always compile. Not used while a report is printed.
+     */
+    public void setBuildCache(BuildCache cache){
+        this.cache = cache;
+    }
+
+    /**
+     * @return true if functions are compiled to static methods
+     */
+    public boolean isStaticCalls(){
+        return staticCalls;
+    }
+
+    /**
+     * Selects the calling convention of the compiled program.
+     * @param staticCalls true (default) for static methods and fields, 
+     *          false for instance methods and fields
+     */
+    public void setStaticCalls(boolean staticCalls){
+        this.staticCalls = staticCalls;
+    }
+
+    /**
+     * @return true if the compiled program buffers its output
+     */
+    public boolean isBufferedOutput(){
+        return bufferedOutput;
+    }
+
+    /**
+     * Selects how the compiled program prints.
+     * @param bufferedOutput true to collect the output of println in a buffer that is
+     *          written when it is full, on flush, before get and at the end of the program,
+     *          false (default) to print every line directly
+     */
+    public void setBufferedOutput(boolean bufferedOutput){
+        this.bufferedOutput = bufferedOutput;
+    }
+
+    /**
+     * Optimizes the compiled program with the pipeline of the optimization level.
+     * @param cls The compiled program.
+     * @param functions The functions defined within the program.
+     */
+    private void optimize(ClassModel cls, List<Function> functions){
+        PassManager passes = PassManager.forLevel(optimizationLevel, functions);
+        passes.run(cls);
+        if(printReport){
+            passes.printReport(System.out);
         }
+    }
+
+    /**
+     * @return the optimization level, see {@link PassManager#forLevel(int, List)}
+     */
+    public int getOptimizationLevel(){
+        return optimizationLevel;
+    }
 
-        if(generateJasmin){
-            writeJasmin(asm);
-        } else {
-            writeClass(asm);
+    /**
+     * @param optimizationLevel The optimization level from 0 to {@link PassManager#MAX_LEVEL},
+     *          {@link PassManager#DEFAULT_LEVEL} by default. Level 0 also leaves loops as they are.
+     */
+    public void setOptimizationLevel(int optimizationLevel){
+        if(optimizationLevel < 0 || optimizationLevel > PassManager.MAX_LEVEL){
+            throw new IllegalArgumentException("Unknown optimization level: " + optimizationLevel);
         }
+        this.optimizationLevel = optimizationLevel;
+    }
+
+    /**
+     * @return true if a report of the applied optimizations is printed
+     */
+    public boolean isPrintReport(){
+        return printReport;
+    }
+
+    /**
+     * @param printReport print a report of the applied optimizations to stdout
+     */
+    public void setPrintReport(boolean printReport){
+        this.printReport = printReport;
     }
 
     /**
      * Writes Jasmin asembly into a file.
      * @param asm The compiled sourcecode.
-     * @return true if successfull, false if otherwise
+     * @return true if successfull, false if an error was printed
      */
     private boolean writeJasmin(List<String> asm){
-        Path out = Paths.get(programname + ".j");
+        Path out = outputFile();
         try{
             Files.write(out, asm);
         } catch (IOException e){
+            System.err.println("Could not write the output of " + getSourceName() + ": " + e.getMessage());
             return false;
         }
 
@@ -116,23 +365,32 @@ public class Compiler{
     }
 
     /**
-     * Assembles the copmpiled jasmin file into a .class file
-     * @param asm The compiled Jasmin assembly code
-     * @return true if successfull, false if otherwise
+     * Assembles the compiled program directly into a .class file.
+     * The code is translated into its binary form in a single pass, 
+     * without printing and reparsing it as Jasmin assembly.
+     * @param cls The compiled program
+     * @return true if successfull, false if an error was printed
      */
-    private boolean writeClass(List<String> asm){
-        ClassFile cf = new ClassFile();
-        String joined = String.join(System.lineSeparator(), asm);
-        Path out = Paths.get(programname + ".class");
+    private boolean writeClass(ClassModel cls){
+        Path out = outputFile();
+        byte[] classFile;
+        try{
+            classFile = new ClassAssembler().assemble(cls);
+        } catch (IllegalStateException e){
+            // F.e. a method exceeding the 64 KiB limit of the JVM
+            System.err.println("Could not assemble " + getSourceName() + ": " + e.getMessage());
+            return false;
+        }
         try{
-            cf.readJasmin( new StringReader(joined), programname, false);
-            cf.write(Files.newOutputStream(
+            Files.write(
                 out, 
+                classFile,
                 StandardOpenOption.WRITE, 
                 StandardOpenOption.TRUNCATE_EXISTING, 
                 StandardOpenOption.CREATE
-            ));
-        } catch (Exception e){
+            );
+        } catch (IOException e){
+            System.err.println("Could not write the output of " + getSourceName() + ": " + e.getMessage());
             return false;
         }
         return true;
@@ -145,9 +403,7 @@ public class Compiler{
      */
     public static CmmParser createParser(Path input){
         try{
-            CmmLexer tmpLex = new CmmLexer(CharStreams.fromPath(input));
-            CommonTokenStream tmpTkStream = new CommonTokenStream(tmpLex);
-            return new CmmParser(tmpTkStream);
+            return openParser(input);
         } catch (IOException e) {
         	System.err.println("Could not create parser from inputfile. Terminating...");
         	System.exit(2);
@@ -155,4 +411,29 @@ public class Compiler{
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Creates a parser for a file without terminating if it can not be read,
+     * the compile server has to keep running.
+     * @param input The C-- file.
+     * @return The parser.
+     * @throws IOException if the file can not be read.
+     */
+    private static CmmParser openParser(Path input) throws IOException{
+        CmmLexer tmpLex = new CmmLexer(CharStreams.fromPath(input));
+        CommonTokenStream tmpTkStream = new CommonTokenStream(tmpLex);
+        return new CmmParser(tmpTkStream);
+    }
+
+    /**
+     * Creates a parser for source code held in memory.
+     * @param input The C-- source code.
+     * @param name The name used in diagnostics.
+     * @return The parser.
+     */
+    private static CmmParser openParser(CharSequence input, String name){
+        CmmLexer tmpLex = new CmmLexer(CharStreams.fromString(input.toString(), name));
+        CommonTokenStream tmpTkStream = new CommonTokenStream(tmpLex);
+        return new CmmParser(tmpTkStream);
+    }
+
+}
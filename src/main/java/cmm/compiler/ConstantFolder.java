@@ -0,0 +1,217 @@
+package cmm.compiler;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import cmm.compiler.generated.CmmBaseVisitor;
+import cmm.compiler.generated.CmmParser.*;
+import cmm.compiler.utillity.ScopeManager;
+import cmm.compiler.utillity.ScopeManager.Identifier;
+import cmm.compiler.utillity.ScopeManager.Scope;
+import cmm.compiler.utillity.ScopeManager.Type;
+
+/**
+ * Evaluates expressions at compile time.<br>
+ * An expression is constant if it only consists of number literals, constants
+ * and local variables whose current value is known. The result is computed
+ * exactly like the code the {@link ProgramVisitor} would emit for it,
+ * including int overflow of arithmetic. Divisions by zero are left to the runtime.<br>
+ * <br>
+ * The values of local variables are tracked by the {@link ProgramVisitor}
+ * while it walks through a function, see {@link #setLocal(int, Integer)}.
+ *
+ * @author Leslie Marxen
+ */
+public class ConstantFolder extends CmmBaseVisitor<Integer>{
+
+    private final ScopeManager scopes;
+
+    /** Known values of local variables by slot. */
+    private Map<Integer, Integer> locals;
+
+    /** Already evaluated expressions, null if not constant. */
+    private final Map<ParseTree, Integer> results;
+
+    /**
+     * Constructor
+     * @param scopes The scopes used to resolve identifiers, shared with the code generator.
+     */
+    public ConstantFolder(ScopeManager scopes){
+        this.scopes = scopes;
+        this.locals = new HashMap<>();
+        this.results = new IdentityHashMap<>();
+    }
+
+    /**
+     * Evaluates an expression. Every expression is evaluated only once,
+     * the values of local variables must not change while an expression is compiled.
+     * @param tree An expression.
+     * @return The value of the expression or null if it is not constant.
+     */
+    @Override
+    public Integer visit(ParseTree tree){
+        if(results.containsKey(tree)){
+            return results.get(tree);
+        }
+        Integer value = tree.accept(this);
+        results.put(tree, value);
+        return value;
+    }
+
+    /**
+     * Forgets every known local variable, called at the start of a function.
+     */
+    public void reset(){
+        locals = new HashMap<>();
+        results.clear();
+    }
+
+    /**
+     * Sets the value of a local variable after an assignment.
+     * @param slot The local variable.
+     * @param value The assigned value or null if it is unknown.
+     */
+    public void setLocal(int slot, Integer value){
+        if(value == null){
+            locals.remove(slot);
+        } else {
+            locals.put(slot, value);
+        }
+    }
+
+    /**
+     * @return a copy of the currently known local variables
+     */
+    public Map<Integer, Integer> getLocals(){
+        return new HashMap<>(locals);
+    }
+
+    /**
+     * Replaces the known local variables, f.e. when the code generator
+     * continues with another path of a branch.
+     * @param locals The known local variables.
+     */
+    public void setLocals(Map<Integer, Integer> locals){
+        this.locals = new HashMap<>(locals);
+    }
+
+    /**
+     * Joins two paths of execution. Only values that are the same on both paths stay known.
+     * @param other The known local variables at the end of the other path.
+     */
+    public void retainLocals(Map<Integer, Integer> other){
+        locals.entrySet().removeIf(e -> !e.getValue().equals(other.get(e.getKey())));
+    }
+
+    @Override
+    public Integer visitNumber(NumberContext ctx){
+        return Integer.parseInt(ctx.number.getText());
+    }
+
+    @Override
+    public Integer visitVariable(VariableContext ctx){
+        Identifier id = scopes.get(ctx.getText());
+        if(id == null){
+            return null;
+        }
+        if(id.getType() == Type.CONSTANT){
+            return Integer.parseInt(id.getValue());
+        }
+        if(id.getScope() == Scope.GLOBAL){
+            return null;
+        }
+        return locals.get(Integer.parseInt(id.getValue()));
+    }
+
+    @Override
+    public Integer visitParenthesis(ParenthesisContext ctx){
+        return visit(ctx.expr);
+    }
+
+    @Override
+    public Integer visitFunctionCallExpression(FunctionCallExpressionContext ctx){
+        return null;
+    }
+
+    @Override
+    public Integer visitPlus(PlusContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        return (l == null || r == null) ? null : l + r;
+    }
+
+    @Override
+    public Integer visitMinus(MinusContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        return (l == null || r == null) ? null : l - r;
+    }
+
+    @Override
+    public Integer visitMultiplication(MultiplicationContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        return (l == null || r == null) ? null : l * r;
+    }
+
+    @Override
+    public Integer visitDivision(DivisionContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        return (l == null || r == null || r == 0) ? null : l / r;
+    }
+
+    @Override
+    public Integer visitRelational(RelationalContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        if(l == null || r == null){
+            return null;
+        }
+        switch(ctx.operator.getText()){
+            case "<" : return toInt(l < r);
+            case ">" : return toInt(l > r);
+            case "<=": return toInt(l <= r);
+            case ">=": return toInt(l >= r);
+            default  : return null;
+        }
+    }
+
+    @Override
+    public Integer visitEquality(EqualityContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        if(l == null || r == null){
+            return null;
+        }
+        switch(ctx.operator.getText()){
+            case "==": return toInt(l.intValue() == r.intValue());
+            case "!=": return toInt(l.intValue() != r.intValue());
+            default  : return null;
+        }
+    }
+
+    @Override
+    public Integer visitNot(NotContext ctx){
+        Integer v = visit(ctx.expr);
+        return (v == null) ? null : toInt(v == 0);
+    }
+
+    /**
+     * Treats both operands as boolean values. Only folded if both are constant, 
+     * a right operand skipped at runtime still has to be compiled and checked.
+     */
+    @Override
+    public Integer visitConjunction(ConjunctionContext ctx){
+        Integer l = visit(ctx.left), r = visit(ctx.right);
+        if(l == null || r == null){
+            return null;
+        }
+        switch(ctx.operator.getText()){
+            case "&&": return toInt(l != 0 && r != 0);
+            case "||": return toInt(l != 0 || r != 0);
+            default  : return null;
+        }
+    }
+
+    private static Integer toInt(boolean b){
+        return b ? 1 : 0;
+    }
+}
@@ -10,23 +10,55 @@ import org.antlr.v4.runtime.tree.ParseTree;
 import cmm.compiler.generated.CmmParser.*;
 import cmm.compiler.generated.*;
 import cmm.compiler.exception.*;
+import cmm.compiler.ir.*;
 import cmm.compiler.utillity.*;
 import cmm.compiler.utillity.ScopeManager.Identifier;
 import cmm.compiler.utillity.ScopeManager.Scope;
 import cmm.compiler.utillity.ScopeManager.Type;
 
+import static cmm.compiler.backend.Opcodes.ACC_PUBLIC;
+import static cmm.compiler.backend.Opcodes.ACC_STATIC;
+import static cmm.compiler.backend.Opcodes.T_BYTE;
+import static cmm.compiler.ir.Opcode.*;
+
 /**
  * @author Lukas Raubuch
  * @author Leslie Marxen
  */
-public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
+public class ProgramVisitor extends CmmBaseVisitor<Void>{
 
     private final String programName;
+    private final ClassModel classModel;
     private boolean allreadyAddedClassDef;
     private long branchCounter = 0;
     private long loopCounter = 0;
 
     private ScopeManager scopes;
+    private ConstantFolder folder;
+
+    /** Compile functions to static methods and globals to static fields. */
+    private boolean staticCalls;
+
+    /** Collect the output of println in a buffer, written on flush and at program exit. */
+    private boolean bufferedOutput;
+
+    /** Hoist loop invariant expressions and reduce induction products in front of loops. */
+    private boolean loopOptimizations;
+
+    /** The emission buffer of the function that is currently compiled. */
+    private InstructionList code;
+
+    /** The function that is currently compiled and the start of its body, target of self tail calls. */
+    private Function currentFunction;
+    private Label functionEntry;
+    private boolean hasTailCall;
+
+    /** Loop invariant expressions computed in front of their loop, mapped to the local holding their value. */
+    private Map<ExpressionContext, Integer> hoisted;
+    private long hoistCounter = 0;
+
+    /** Accumulators to advance after the assignment of their induction variable. */
+    private Map<Assign_operationContext, List<Induction>> inductions;
 
     // functionIdentifiers
     private List<Function> definedFunctions;
@@ -35,76 +67,756 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
     public ProgramVisitor(String programName){
         super();
         scopes = new ScopeManager();
+        folder = new ConstantFolder(scopes);
+        hoisted = new IdentityHashMap<>();
+        inductions = new IdentityHashMap<>();
         definedFunctions = new ArrayList<>();
         this.programName = programName;
+        classModel = new ClassModel(programName, "java/lang/Object");
         allreadyAddedClassDef = false;
+        staticCalls = true;
+        loopOptimizations = true;
         definedFunctions.add(SYSOUT);
         definedFunctions.add(SYSIN);
     }
 
     /**
      * Starts the code synthesis. Traverses the AST of the input code and generates context based Assembly.
+     * Every compiled function is added to the {@link #getClassModel() class model}.
      * @param tree The AST
-     * @return A list containing the compiled assembly one instruction per element
+     * @return nothing, the compiled instructions are appended to the current method
      */
     @Override
-    public List<String> visit(ParseTree tree) {
-        List<String> asm = new ArrayList<>();
-
+    public Void visit(ParseTree tree) {
         if(!allreadyAddedClassDef){
-            // Inheritance and def
-            asm.add(".class public " + programName);
-            asm.add(".super java/lang/Object");
+            InstructionList asm;
+            int access = functionAccess();
+            int firstSlot = staticCalls ? 0 : 1;
 
             // Default ctor
-            asm.add(".method public <init>()V");
-            asm.add("aload_0");
-            asm.add("invokespecial java/lang/Object/<init>()V");
-            asm.add("return");
-            asm.add(".end method");
+            asm = new InstructionList();
+            asm.addLocal(ALOAD, 0);
+            asm.add(Instruction.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V"));
+            asm.add(RETURN);
+            addMethod(ACC_PUBLIC, "<init>", "()V", asm, 1);
 
             // Program entry
-            asm.add(".method public static main([Ljava/lang/String;)V");
-            asm.add(".limit stack 20");
-            asm.add(".limit locals 1");
-            asm.add("new " + programName);
-            asm.add("dup");
-            asm.add(String.format("invokespecial %s/<init>()V", programName));
-            asm.add(String.format("invokevirtual %s/%s",programName ,PROGRAM_ENTRY.toSignature()));
-            asm.add("return");
-            asm.add(".end method");
-
-            // get Method
-            asm.add(".method public get()I");
-            asm.add(".limit stack 3");
-            asm.add(".limit locals 2");
-            asm.add("new java/util/Scanner");
-            asm.add("dup");
-            asm.add("getstatic java/lang/System/in Ljava/io/InputStream;");
-            asm.add("invokespecial java/util/Scanner/<init>(Ljava/io/InputStream;)V");
-            asm.add("astore_1");
-            asm.add("aload_1");
-            asm.add("invokevirtual java/util/Scanner/nextInt()I");
-            asm.add("ireturn");
-            asm.add(".end method");
+            asm = new InstructionList();
+            if(bufferedOutput){
+                asm.addConstant(OUTPUT_BUFFER_SIZE);
+                asm.add(Instruction.newArray(T_BYTE));
+                asm.add(Instruction.field(PUTSTATIC, programName, OUTPUT_BUFFER, "[B"));
+                asm.add(Instruction.invoke(INVOKESTATIC, "java/lang/System", "lineSeparator", "()Ljava/lang/String;"));
+                asm.add(Instruction.invoke(INVOKEVIRTUAL, "java/lang/String", "getBytes", "()[B"));
+                asm.add(Instruction.field(PUTSTATIC, programName, LINE_SEPARATOR, "[B"));
+            }
+            if(!staticCalls){
+                asm.add(Instruction.type(NEW, programName));
+                asm.add(DUP);
+                asm.add(Instruction.invoke(INVOKESPECIAL, programName, "<init>", "()V"));
+                if(bufferedOutput){
+                    asm.add(DUP);
+                }
+            }
+            asm.add(Instruction.invoke(invokeOpcode(), programName, PROGRAM_ENTRY.getIdentifier(), PROGRAM_ENTRY.toDescriptor()));
+            if(bufferedOutput){
+                asm.add(Instruction.invoke(invokeOpcode(), programName, FLUSH.getIdentifier(), FLUSH.toDescriptor()));
+            }
+            asm.add(RETURN);
+            addMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", asm, 1);
+            if(bufferedOutput){
+                // Output printed before an exception must not get lost
+                InstructionList handler = new InstructionList();
+                addFlush(handler);
+                handler.add(ATHROW);
+                classModel.getMethod("main([Ljava/lang/String;)V").setExitHandler(handler);
+            }
+
+            // get Method, a prompt printed before has to be visible
+            asm = new InstructionList();
+            if(bufferedOutput){
+                addFlushCall(asm);
+            }
+            addGet(asm, firstSlot);
+            addMethod(access, SYSIN.getIdentifier(), SYSIN.toDescriptor(), asm, firstSlot + 3);
+            addMethod(ACC_STATIC, READ_BYTE, "()I", readByte(), 0);
+            classModel.addField(new FieldModel(ACC_STATIC, INPUT_BUFFER, "[B"));
+            classModel.addField(new FieldModel(ACC_STATIC, INPUT_POSITION, "I"));
+            classModel.addField(new FieldModel(ACC_STATIC, INPUT_LENGTH, "I"));
 
             // println Method
-            asm.add(".method public println(I)V");
-            asm.add(".limit stack 2");
-            asm.add(".limit locals 2");
-            asm.add("getstatic java/lang/System/out Ljava/io/PrintStream;");
-            asm.add("iload 1");
-            asm.add("invokevirtual java/io/PrintStream/println(I)V");
-            asm.add("return");
-            asm.add(".end method");
+            asm = new InstructionList();
+            if(bufferedOutput){
+                addBufferedPrintln(asm, firstSlot);
+            } else {
+                asm.add(Instruction.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"));
+                asm.addLocal(ILOAD, firstSlot);
+                asm.add(Instruction.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(I)V"));
+                asm.add(RETURN);
+            }
+            addMethod(access, SYSOUT.getIdentifier(), SYSOUT.toDescriptor(), asm, firstSlot + (bufferedOutput ? 5 : 1));
+
+            if(bufferedOutput){
+                // flush Method, predefined only with buffering so programs may define their own
+                asm = new InstructionList();
+                addFlush(asm);
+                asm.add(RETURN);
+                addMethod(access, FLUSH.getIdentifier(), FLUSH.toDescriptor(), asm, firstSlot);
+                definedFunctions.add(FLUSH);
+
+                classModel.addField(new FieldModel(ACC_STATIC, OUTPUT_BUFFER, "[B"));
+                classModel.addField(new FieldModel(ACC_STATIC, OUTPUT_LENGTH, "I"));
+                classModel.addField(new FieldModel(ACC_STATIC, LINE_SEPARATOR, "[B"));
+            }
 
             allreadyAddedClassDef = true;
         }
 
-        asm.addAll(super.visit(tree));
+        return super.visit(tree);
+    }
+
+    /**
+     * Appends a get that parses the next whitespace separated integer byte by byte.
+     * Like {@code Scanner.nextInt()} it throws a NoSuchElementException at the end of 
+     * the input and an InputMismatchException if the token is no integer or out of range.
+     * The value is accumulated negated, so Integer.MIN_VALUE can be read as well.
+     * @param asm The code of the method.
+     * @param firstSlot The first free slot, followed by two more temporaries.
+     */
+    private void addGet(InstructionList asm, int firstSlot){
+        int c = firstSlot, minus = firstSlot + 1, value = firstSlot + 2;
+        Label skip = new Label("Skip");
+        Label first = new Label("FirstDigit");
+        Label accumulate = new Label("Accumulate");
+        Label end = new Label("End");
+        Label positive = new Label("Positive");
+        Label mismatch = new Label("Mismatch");
+        Label noInput = new Label("NoInput");
+
+        // Whitespace and control characters separate the tokens
+        asm.addLabel(skip);
+        asm.add(Instruction.invoke(INVOKESTATIC, programName, READ_BYTE, "()I"));
+        asm.add(DUP);
+        asm.addLocal(ISTORE, c);
+        asm.addJump(IFLT, noInput);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant(' ');
+        asm.addJump(IF_ICMPLE, skip);
+
+        // minus is zero if the token starts with a minus
+        Label sign = new Label("Sign");
+        asm.addLocal(ILOAD, c);
+        asm.addConstant('-');
+        asm.add(ISUB);
+        asm.add(DUP);
+        asm.addLocal(ISTORE, minus);
+        asm.addJump(IFEQ, sign);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant('+');
+        asm.addJump(IF_ICMPNE, first);
+        asm.addLabel(sign);
+        asm.add(Instruction.invoke(INVOKESTATIC, programName, READ_BYTE, "()I"));
+        asm.addLocal(ISTORE, c);
+
+        // From here on c holds the value of the current digit
+        asm.addLabel(first);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant('0');
+        asm.add(ISUB);
+        asm.addLocal(ISTORE, c);
+        asm.addLocal(ILOAD, c);
+        asm.addJump(IFLT, mismatch);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant(9);
+        asm.addJump(IF_ICMPGT, mismatch);
+        asm.add(ICONST_0);
+        asm.addLocal(ISTORE, value);
+
+        // value = 10 * value - c, a positive result overflowed
+        asm.addLabel(accumulate);
+        asm.addLocal(ILOAD, value);
+        asm.addConstant(Integer.MIN_VALUE / 10);
+        asm.addJump(IF_ICMPLT, mismatch);
+        asm.addLocal(ILOAD, value);
+        StrengthReducer.emitMultiplication(asm, 10);
+        asm.addLocal(ILOAD, c);
+        asm.add(ISUB);
+        asm.add(DUP);
+        asm.addLocal(ISTORE, value);
+        asm.addJump(IFGT, mismatch);
+        asm.add(Instruction.invoke(INVOKESTATIC, programName, READ_BYTE, "()I"));
+        asm.addConstant('0');
+        asm.add(ISUB);
+        asm.addLocal(ISTORE, c);
+        asm.addLocal(ILOAD, c);
+        asm.addJump(IFLT, end);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant(9);
+        asm.addJump(IF_ICMPLE, accumulate);
+        asm.addJump(GOTO, mismatch);
+
+        // The token has to end with whitespace or the end of the input
+        asm.addLabel(end);
+        asm.addLocal(ILOAD, c);
+        asm.addConstant(' ' - '0');
+        asm.addJump(IF_ICMPGT, mismatch);
+        asm.addLocal(ILOAD, minus);
+        asm.addJump(IFNE, positive);
+        asm.addLocal(ILOAD, value);
+        asm.add(IRETURN);
+        asm.addLabel(positive);
+        asm.addLocal(ILOAD, value);
+        asm.add(INEG);
+        asm.addLocal(ISTORE, value);
+        asm.addLocal(ILOAD, value);
+        asm.addJump(IFLT, mismatch);
+        asm.addLocal(ILOAD, value);
+        asm.add(IRETURN);
+
+        addThrow(asm, mismatch, "java/util/InputMismatchException");
+        addThrow(asm, noInput, "java/util/NoSuchElementException");
+    }
+
+    private static void addThrow(InstructionList asm, Label label, String exception){
+        asm.addLabel(label);
+        asm.add(Instruction.type(NEW, exception));
+        asm.add(DUP);
+        asm.add(Instruction.invoke(INVOKESPECIAL, exception, "<init>", "()V"));
+        asm.add(ATHROW);
+    }
+
+    /**
+     * Creates the method returning the next byte of stdin or -1 at its end.
+     * The input buffer is allocated by the first call and refilled whenever it is used up.
+     */
+    private InstructionList readByte(){
+        InstructionList asm = new InstructionList();
+        Label ready = new Label("Ready");
+        Label allocated = new Label("Allocated");
+        Label filled = new Label("Filled");
+
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_POSITION, "I"));
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_LENGTH, "I"));
+        asm.addJump(IF_ICMPLT, ready);
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_BUFFER, "[B"));
+        asm.addJump(IFNONNULL, allocated);
+        asm.addConstant(INPUT_BUFFER_SIZE);
+        asm.add(Instruction.newArray(T_BYTE));
+        asm.add(Instruction.field(PUTSTATIC, programName, INPUT_BUFFER, "[B"));
+        asm.addLabel(allocated);
+        asm.add(Instruction.field(GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;"));
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_BUFFER, "[B"));
+        asm.add(ICONST_0);
+        asm.addConstant(INPUT_BUFFER_SIZE);
+        asm.add(Instruction.invoke(INVOKEVIRTUAL, "java/io/InputStream", "read", "([BII)I"));
+        asm.add(DUP);
+        asm.addJump(IFGT, filled);
+        asm.add(POP);
+        asm.add(ICONST_M1);
+        asm.add(IRETURN);
+        asm.addLabel(filled);
+        asm.add(Instruction.field(PUTSTATIC, programName, INPUT_LENGTH, "I"));
+        asm.add(ICONST_0);
+        asm.add(Instruction.field(PUTSTATIC, programName, INPUT_POSITION, "I"));
+
+        asm.addLabel(ready);
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_BUFFER, "[B"));
+        asm.add(Instruction.field(GETSTATIC, programName, INPUT_POSITION, "I"));
+        asm.add(DUP);
+        asm.add(ICONST_1);
+        asm.add(IADD);
+        asm.add(Instruction.field(PUTSTATIC, programName, INPUT_POSITION, "I"));
+        asm.add(BALOAD);
+        asm.addConstant(0xFF);
+        asm.add(IAND);
+        asm.add(IRETURN);
         return asm;
     }
 
+    /**
+     * Appends a println that formats its argument into the output buffer and 
+     * flushes the buffer only if the line would not fit anymore.
+     * The digits are computed from the negated value, so Integer.MIN_VALUE needs no special case.
+     * @param asm The code of the method.
+     * @param firstSlot The slot of the argument, followed by four temporaries.
+     */
+    private void addBufferedPrintln(InstructionList asm, int firstSlot){
+        int n = firstSlot, buffer = firstSlot + 1, pos = firstSlot + 2, end = firstSlot + 3, q = firstSlot + 4;
+        Label room = new Label("Room");
+        Label count = new Label("Count");
+        Label countLoop = new Label("CountLoop");
+        Label digits = new Label("Digits");
+
+        // Sign, ten digits and the line separator
+        asm.add(Instruction.field(GETSTATIC, programName, OUTPUT_LENGTH, "I"));
+        asm.add(Instruction.field(GETSTATIC, programName, LINE_SEPARATOR, "[B"));
+        asm.add(ARRAYLENGTH);
+        asm.add(IADD);
+        asm.addConstant(OUTPUT_BUFFER_SIZE - 11);
+        asm.addJump(IF_ICMPLE, room);
+        addFlushCall(asm);
+        asm.addLabel(room);
+        asm.add(Instruction.field(GETSTATIC, programName, OUTPUT_BUFFER, "[B"));
+        asm.addLocal(ASTORE, buffer);
+        asm.add(Instruction.field(GETSTATIC, programName, OUTPUT_LENGTH, "I"));
+        asm.addLocal(ISTORE, pos);
+
+        Label negative = new Label("Negative");
+        asm.addLocal(ILOAD, n);
+        asm.addJump(IFLT, negative);
+        asm.addLocal(ILOAD, n);
+        asm.add(INEG);
+        asm.addLocal(ISTORE, n);
+        asm.addJump(GOTO, count);
+        asm.addLabel(negative);
+        asm.addLocal(ALOAD, buffer);
+        asm.addLocal(ILOAD, pos);
+        asm.addConstant('-');
+        asm.add(BASTORE);
+        asm.add(Instruction.iinc(pos, 1));
+
+        // The amount of digits decides where the last one goes
+        asm.addLabel(count);
+        asm.addLocal(ILOAD, pos);
+        asm.addLocal(ISTORE, end);
+        asm.addLocal(ILOAD, n);
+        asm.addLocal(ISTORE, q);
+        asm.addLabel(countLoop);
+        asm.add(Instruction.iinc(end, 1));
+        asm.addLocal(ILOAD, q);
+        StrengthReducer.emitDivision(asm, 10);
+        asm.add(DUP);
+        asm.addLocal(ISTORE, q);
+        asm.addJump(IFNE, countLoop);
+
+        // The line separator of the platform the program runs on, like PrintStream.println
+        asm.add(Instruction.field(GETSTATIC, programName, LINE_SEPARATOR, "[B"));
+        asm.add(ICONST_0);
+        asm.addLocal(ALOAD, buffer);
+        asm.addLocal(ILOAD, end);
+        asm.add(Instruction.field(GETSTATIC, programName, LINE_SEPARATOR, "[B"));
+        asm.add(ARRAYLENGTH);
+        asm.add(Instruction.invoke(INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V"));
+        asm.addLocal(ILOAD, end);
+        asm.add(Instruction.field(GETSTATIC, programName, LINE_SEPARATOR, "[B"));
+        asm.add(ARRAYLENGTH);
+        asm.add(IADD);
+        asm.add(Instruction.field(PUTSTATIC, programName, OUTPUT_LENGTH, "I"));
+
+        // Digits from the last to the first, n = 10 * q + r with -9 <= r <= 0
+        asm.addLabel(digits);
+        asm.add(Instruction.iinc(end, -1));
+        asm.addLocal(ALOAD, buffer);
+        asm.addLocal(ILOAD, end);
+        asm.addLocal(ILOAD, n);
+        StrengthReducer.emitDivision(asm, 10);
+        asm.add(DUP);
+        asm.addLocal(ISTORE, q);
+        StrengthReducer.emitMultiplication(asm, 10);
+        asm.addLocal(ILOAD, n);
+        asm.add(ISUB);
+        asm.addConstant('0');
+        asm.add(IADD);
+        asm.add(BASTORE);
+        asm.addLocal(ILOAD, q);
+        asm.add(DUP);
+        asm.addLocal(ISTORE, n);
+        asm.addJump(IFNE, digits);
+        asm.add(RETURN);
+    }
+
+    /**
+     * Appends the body of the predefined flush function, which uses static fields only.
+     * It is used as the exit handler of main as well, where no instance is at hand.
+     */
+    private void addFlush(InstructionList asm){
+        asm.add(Instruction.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"));
+        asm.add(DUP);
+        asm.add(Instruction.field(GETSTATIC, programName, OUTPUT_BUFFER, "[B"));
+        asm.add(ICONST_0);
+        asm.add(Instruction.field(GETSTATIC, programName, OUTPUT_LENGTH, "I"));
+        asm.add(Instruction.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "write", "([BII)V"));
+        asm.add(ICONST_0);
+        asm.add(Instruction.field(PUTSTATIC, programName, OUTPUT_LENGTH, "I"));
+        asm.add(Instruction.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "flush", "()V"));
+    }
+
+    /**
+     * Appends a call of the predefined flush function from within a predefined function.
+     */
+    private void addFlushCall(InstructionList asm){
+        if(!staticCalls){
+            asm.addLocal(ALOAD, 0);
+        }
+        asm.add(Instruction.invoke(invokeOpcode(), programName, FLUSH.getIdentifier(), FLUSH.toDescriptor()));
+    }
+
+    /**
+     * Adds a compiled method to the class model.
+     * The maximum stack depth is computed from the code.
+     */
+    private void addMethod(int access, String name, String descriptor, InstructionList code, int maxLocals){
+        MethodModel m = new MethodModel(access, name, descriptor, code);
+        m.setMaxStack(new StackDepthAnalyzer(code).analyze());
+        m.setMaxLocals(maxLocals);
+        classModel.addMethod(m);
+    }
+
+    /**
+     * @return the access flags of a compiled function.
+     */
+    private int functionAccess(){
+        return staticCalls ? ACC_PUBLIC | ACC_STATIC : ACC_PUBLIC;
+    }
+
+    /**
+     * @return the instruction used to call a compiled function.
+     */
+    private Opcode invokeOpcode(){
+        return staticCalls ? INVOKESTATIC : INVOKEVIRTUAL;
+    }
+
+    /**
+     * Evaluates an expression at compile time and loads its value if it is constant.
+     * The value of a loop invariant expression is loaded from the local it was computed into.
+     * @param ctx An expression.
+     * @return true if the value was loaded, false if the expression has to be compiled.
+     */
+    private boolean emitConstant(ExpressionContext ctx){
+        Integer value = folder.visit(ctx);
+        if(value != null){
+            code.addConstant(value);
+            return true;
+        }
+        Integer slot = hoisted.get(ctx);
+        if(slot != null){
+            code.addLocal(ILOAD, slot);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collects every local variable that is assigned somewhere within a subtree.
+     * @param tree A statement or block.
+     * @param slots Receives the slots of the assigned variables.
+     */
+    private void collectAssignedLocals(ParseTree tree, Set<Integer> slots){
+        if(tree instanceof Assign_operationContext){
+            Identifier var = scopes.get(((Assign_operationContext) tree).variableName.getText());
+            if(var != null && var.getScope() != Scope.GLOBAL && var.getType() == Type.VARIABLE){
+                slots.add(Integer.parseInt(var.getValue()));
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectAssignedLocals(tree.getChild(i), slots);
+        }
+    }
+
+    /**
+     * Computes the loop invariant expressions of a loop into new locals, these are
+     * loaded instead of evaluating the expressions within the loop.
+     * @param ctx The loop.
+     * @param assigned The slots of the locals assigned within the loop.
+     */
+    private void hoistInvariants(LoopContext ctx, Set<Integer> assigned){
+        Set<String> assignedGlobals = new HashSet<>();
+        boolean calls = collectLoopEffects(ctx, assignedGlobals);
+
+        List<ExpressionContext> invariants = new ArrayList<>();
+        collectInvariants(ctx, assigned, assignedGlobals, calls, invariants);
+        for (ExpressionContext x : invariants) {
+            visit(x);
+            int slot = newTemporary();
+            code.addLocal(ISTORE, slot);
+            hoisted.put(x, slot);
+        }
+    }
+
+    /**
+     * @return the slot of a new local variable that can not collide with a named one
+     */
+    private int newTemporary(){
+        String name = "$temporary" + hoistCounter++;
+        scopes.putVar(name);
+        return Integer.parseInt(scopes.get(name).getValue());
+    }
+
+    /**
+     * A product of an induction variable and a loop invariant factor. The product is
+     * kept in an accumulator that is advanced by a step whenever the variable is.
+     */
+    private static class Induction{
+        private final int accumulator;
+        private final Integer step;
+        private final int stepSlot;
+
+        /**
+         * @param accumulator The local holding the product.
+         * @param step The constant step or null if it is held by a local.
+         * @param stepSlot The local holding the step if it is not constant.
+         */
+        Induction(int accumulator, Integer step, int stepSlot){
+            this.accumulator = accumulator;
+            this.step = step;
+            this.stepSlot = stepSlot;
+        }
+    }
+
+    /**
+     * Replaces products of an induction variable and a loop invariant factor by accumulators.
+     * An induction variable is a local assigned exactly once within the loop, by a statement
+     * {@code i = i + c} or {@code i = i - c} directly within the loop body, so it is advanced
+     * by the same constant in every iteration.
+     * @param ctx The loop.
+     * @param assigned The slots of the locals assigned within the loop.
+     */
+    private void reduceInductions(LoopContext ctx, Set<Integer> assigned){
+        Map<Integer, Integer> assignments = new HashMap<>();
+        countAssignedLocals(ctx, assignments);
+
+        Map<Integer, Assign_operationContext> updates = new HashMap<>();
+        Map<Integer, Integer> steps = new HashMap<>();
+        for (StatementContext x : ctx.onTrue.statements.statement()) {
+            Assign_operationContext assign = x.assign_operation();
+            if(assign == null || !isLocal(assign.variableName.getText())){
+                continue;
+            }
+            int slot = Integer.parseInt(scopes.get(assign.variableName.getText()).getValue());
+            Integer step = inductionStep(assign.expr, assign.variableName.getText());
+            if(step != null && assignments.get(slot) == 1){
+                updates.put(slot, assign);
+                steps.put(slot, step);
+            }
+        }
+        if(updates.isEmpty()){
+            return;
+        }
+
+        Set<String> assignedGlobals = new HashSet<>();
+        boolean calls = collectLoopEffects(ctx, assignedGlobals);
+        List<MultiplicationContext> products = new ArrayList<>();
+        collectProducts(ctx, updates.keySet(), assigned, assignedGlobals, calls, products);
+
+        for (MultiplicationContext x : products) {
+            boolean leftInduction = isInductionVariable(x.left, updates.keySet());
+            int slot = Integer.parseInt(scopes.get((leftInduction ? x.left : x.right).getText()).getValue());
+            ExpressionContext factor = leftInduction ? x.right : x.left;
+
+            visit(x);
+            int accumulator = newTemporary();
+            code.addLocal(ISTORE, accumulator);
+
+            Integer constant = folder.visit(factor);
+            Induction induction;
+            if(constant != null){
+                induction = new Induction(accumulator, steps.get(slot) * constant, -1);
+            } else {
+                visit(factor);
+                StrengthReducer.emitMultiplication(code, steps.get(slot));
+                int stepSlot = newTemporary();
+                code.addLocal(ISTORE, stepSlot);
+                induction = new Induction(accumulator, null, stepSlot);
+            }
+            hoisted.put(x, accumulator);
+            inductions.computeIfAbsent(updates.get(slot), y -> new ArrayList<>()).add(induction);
+        }
+    }
+
+    /**
+     * @return the constant c of an assignment {@code i = i + c}, {@code i = c + i} or {@code i = i - c}, null if it is none of these
+     */
+    private Integer inductionStep(ExpressionContext expr, String name){
+        if(expr instanceof PlusContext){
+            PlusContext plus = (PlusContext) expr;
+            if(plus.left.getText().equals(name) && literal(plus.right) != null){
+                return literal(plus.right);
+            }
+            if(plus.right.getText().equals(name) && literal(plus.left) != null){
+                return literal(plus.left);
+            }
+        }
+        if(expr instanceof MinusContext){
+            MinusContext minus = (MinusContext) expr;
+            if(minus.left.getText().equals(name) && literal(minus.right) != null){
+                return -literal(minus.right);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recognizes {@code x = x + c}, {@code x = c + x} and {@code x = x - c} with a constant
+     * that fits into the 16 bit operand of {@code iinc}.
+     * @return the increment or null if the expression is no such increment
+     */
+    private Integer increment(ExpressionContext expr, String name){
+        Integer c = null;
+        if(expr instanceof PlusContext){
+            PlusContext plus = (PlusContext) expr;
+            if(isVariable(plus.left, name)){
+                c = folder.visit(plus.right);
+            } else if(isVariable(plus.right, name)){
+                c = folder.visit(plus.left);
+            }
+        } else if(expr instanceof MinusContext){
+            MinusContext minus = (MinusContext) expr;
+            if(isVariable(minus.left, name) && folder.visit(minus.right) != null){
+                c = -folder.visit(minus.right);
+            }
+        }
+        return (c != null && c >= Short.MIN_VALUE && c <= Short.MAX_VALUE) ? c : null;
+    }
+
+    private static boolean isVariable(ExpressionContext ctx, String name){
+        return ctx instanceof VariableContext && ctx.getText().equals(name);
+    }
+
+    /**
+     * @return the value of a number literal or constant, null for any other expression
+     */
+    private Integer literal(ExpressionContext ctx){
+        if(ctx instanceof NumberContext){
+            return folder.visit(ctx);
+        }
+        if(ctx instanceof VariableContext){
+            Identifier id = scopes.get(ctx.getText());
+            if(id != null && id.getType() == Type.CONSTANT){
+                return folder.visit(ctx);
+            }
+        }
+        return null;
+    }
+
+    private boolean isInductionVariable(ExpressionContext ctx, Set<Integer> slots){
+        return ctx instanceof VariableContext && isLocal(ctx.getText())
+            && slots.contains(Integer.parseInt(scopes.get(ctx.getText()).getValue()));
+    }
+
+    /**
+     * Collects the products of an induction variable and a loop invariant factor within a subtree.
+     */
+    private void collectProducts(ParseTree tree, Set<Integer> slots, Set<Integer> assigned, Set<String> assignedGlobals,
+            boolean calls, List<MultiplicationContext> products){
+        if(tree instanceof ExpressionContext && hoisted.containsKey(tree)){
+            return;
+        }
+        if(tree instanceof MultiplicationContext){
+            MultiplicationContext x = (MultiplicationContext) tree;
+            if((isInductionVariable(x.left, slots) && isInvariant(x.right, assigned, assignedGlobals, calls))
+                    || (isInductionVariable(x.right, slots) && isInvariant(x.left, assigned, assignedGlobals, calls))){
+                products.add(x);
+                return;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectProducts(tree.getChild(i), slots, assigned, assignedGlobals, calls, products);
+        }
+    }
+
+    /**
+     * Counts how often every local variable is assigned within a subtree.
+     */
+    private void countAssignedLocals(ParseTree tree, Map<Integer, Integer> assignments){
+        if(tree instanceof Assign_operationContext){
+            Identifier var = scopes.get(((Assign_operationContext) tree).variableName.getText());
+            if(var != null && var.getScope() != Scope.GLOBAL && var.getType() == Type.VARIABLE){
+                assignments.merge(Integer.parseInt(var.getValue()), 1, Integer::sum);
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            countAssignedLocals(tree.getChild(i), assignments);
+        }
+    }
+
+    /**
+     * Collects the globals assigned within a subtree.
+     * @return true if the subtree calls a function other than the predefined ones, which may assign any global
+     */
+    private boolean collectLoopEffects(ParseTree tree, Set<String> globals){
+        boolean calls = false;
+        if(tree instanceof Assign_operationContext){
+            Identifier var = scopes.get(((Assign_operationContext) tree).variableName.getText());
+            if(var != null && var.getScope() == Scope.GLOBAL){
+                globals.add(var.getValue());
+            }
+        }
+        if(tree instanceof Function_callContext){
+            String name = ((Function_callContext) tree).IDENTIFIER().getText();
+            calls = !name.equals(SYSOUT.getIdentifier()) && !name.equals(SYSIN.getIdentifier())
+                && !(bufferedOutput && name.equals(FLUSH.getIdentifier()));
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            calls |= collectLoopEffects(tree.getChild(i), globals);
+        }
+        return calls;
+    }
+
+    /**
+     * Collects the largest expressions of a subtree that are worth computing in front of the loop.
+     */
+    private void collectInvariants(ParseTree tree, Set<Integer> assigned, Set<String> assignedGlobals, boolean calls,
+            List<ExpressionContext> invariants){
+        if(tree instanceof ExpressionContext && !(tree instanceof ParenthesisContext) && !hoisted.containsKey(tree)){
+            // The folder remembers its results, only invariant expressions have the same value within the whole loop
+            ExpressionContext ctx = (ExpressionContext) tree;
+            boolean worthIt = !(ctx instanceof NumberContext) && !isLocal(ctx);
+            if(worthIt && isInvariant(ctx, assigned, assignedGlobals, calls) && folder.visit(ctx) == null){
+                invariants.add(ctx);
+                return;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectInvariants(tree.getChild(i), assigned, assignedGlobals, calls, invariants);
+        }
+    }
+
+    private boolean isLocal(ExpressionContext ctx){
+        return ctx instanceof VariableContext && isLocal(ctx.getText());
+    }
+
+    private boolean isLocal(String name){
+        Identifier id = scopes.get(name);
+        return id != null && id.getScope() != Scope.GLOBAL && id.getType() == Type.VARIABLE;
+    }
+
+    /**
+     * Determines wether an expression has the same value in every iteration of a loop.
+     * Only arithmetic that can not fail is considered, a division only by a constant other than zero.
+     */
+    private boolean isInvariant(ExpressionContext ctx, Set<Integer> assigned, Set<String> assignedGlobals, boolean calls){
+        if(ctx instanceof NumberContext){
+            return true;
+        }
+        if(ctx instanceof VariableContext){
+            Identifier id = scopes.get(ctx.getText());
+            if(id == null || id.getType() == Type.CONSTANT){
+                return id != null;
+            }
+            if(id.getScope() == Scope.GLOBAL){
+                return !calls && !assignedGlobals.contains(id.getValue());
+            }
+            return !assigned.contains(Integer.parseInt(id.getValue()));
+        }
+        if(ctx instanceof ParenthesisContext){
+            return isInvariant(((ParenthesisContext) ctx).expr, assigned, assignedGlobals, calls);
+        }
+        if(ctx instanceof DivisionContext){
+            DivisionContext div = (DivisionContext) ctx;
+            if(!isInvariant(div.left, assigned, assignedGlobals, calls) || !isInvariant(div.right, assigned, assignedGlobals, calls)){
+                return false;
+            }
+            Integer divisor = folder.visit(div.right);
+            return divisor != null && divisor != 0;
+        }
+        if(ctx instanceof PlusContext || ctx instanceof MinusContext || ctx instanceof MultiplicationContext){
+            ExpressionContext left = ctx.getChild(ExpressionContext.class, 0);
+            ExpressionContext right = ctx.getChild(ExpressionContext.class, 1);
+            return isInvariant(left, assigned, assignedGlobals, calls) && isInvariant(right, assigned, assignedGlobals, calls);
+        }
+        return false;
+    }
+
     /**
      * Transforms a string into an enum type
      * @param in the string either {@code void} or {@code num}
@@ -122,40 +834,15 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
     }
 
 
-    /**
-     * Basically every not implemented visit method returns a call to this method.
-     */
-    @Override
-    protected List<String> defaultResult() {
-        return new ArrayList<>();
-    }
-
     /**
      * When multiple children are visited in a default 
      * implemented method, they get aggregated using this function.<br>
-     * Basically appending {@code aggregate} to a new List and then 
-     * appending {@code nextResult} to that new List.
+     * Every visit method appends its instructions to the emission buffer 
+     * of the current method, so there is nothing left to aggregate.
      */
     @Override
-    protected List<String> aggregateResult(List<String> aggregate, List<String> nextResult) {
-        if(aggregate == null && nextResult == null){
-            return new ArrayList<>();
-        }
-
-        if(aggregate == null){
-            return nextResult;
-        }
-
-        if(nextResult == null){
-            return aggregate;
-        }
-
-        List<String> tmp = new ArrayList<>();
-
-        tmp.addAll(aggregate);
-        tmp.addAll(nextResult);
-
-        return tmp;
+    protected Void aggregateResult(Void aggregate, Void nextResult) {
+        return null;
     }
 
     // Context subroutines
@@ -169,7 +856,7 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      *          accessible in the current scope this exception will be thrown.
      */
     @Override
-    public List<String> visitConstdec(ConstdecContext ctx) {
+    public Void visitConstdec(ConstdecContext ctx) {
         Token tk = ctx.dec.variableName;
         String name = ctx.dec.variableName.getText();
         String value = ctx.val.getText();
@@ -195,25 +882,24 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * @throws AllreadyDefinedException if the identifier was already used.
      */
     @Override
-    public List<String> visitVardec(VardecContext ctx) {
-        ArrayList<String> asm = new ArrayList<>();
+    public Void visitVardec(VardecContext ctx) {
         String name = ctx.dec.variableName.getText();
         if(!scopes.putVar(name)) {
             throw new AllreadyDefinedException(ctx.dec.variableName, "Redefinition of constant");
         }
 
-    	return asm;
+    	return null;
     }
     
     /**
      * Assigns a value to a variable. 
-     * {@code a = 12}
+     * {@code a = 12}<br>
+     * Local variables incremented by a small constant, {@code i = i + 1}, use {@code iinc}.
      * @throws UndefinedSymbolException if the lvalue identifier was not registered before
      * @throws AllreadyDefinedException if the lvalue identifier was registered as constant
      */
     @Override
-    public List<String> visitAssign_operation(Assign_operationContext ctx) {
-    	List<String> asm = new ArrayList<>();
+    public Void visitAssign_operation(Assign_operationContext ctx) {
         Identifier var = scopes.get(ctx.variableName.getText());
         if(var == null){
             throw new UndefinedSymbolException(ctx.variableName, "Unknown Identifier");
@@ -221,16 +907,42 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
     	if (var.getType() == Type.CONSTANT) {
     		throw new AllreadyDefinedException(ctx.variableName, "Redefinition of constant");
     	}
-        List<String> visited = visit(ctx.expr);
-        if (var.getScope() == Scope.GLOBAL){
-            asm.add("aload_0");
-            asm.addAll(visited);
-            asm.add("putfield " + programName + "/" + var.getValue() + " I");
+        if (var.getScope() == Scope.GLOBAL && staticCalls){
+            visit(ctx.expr);
+            code.add(Instruction.field(PUTSTATIC, programName, var.getValue(), "I"));
+        } else if (var.getScope() == Scope.GLOBAL){
+            code.addLocal(ALOAD, 0);
+            visit(ctx.expr);
+            code.add(Instruction.field(PUTFIELD, programName, var.getValue(), "I"));
         } else {
-            asm.addAll(visited);
-            asm.add("istore " + var.getValue());
+            int slot = Integer.parseInt(var.getValue());
+            Integer increment = (folder.visit(ctx.expr) == null) ? increment(ctx.expr, ctx.variableName.getText()) : null;
+            if(increment == null){
+                visit(ctx.expr);
+                code.addLocal(ISTORE, slot);
+            } else if(increment != 0){
+                code.add(Instruction.iinc(slot, increment));
+            }
+            folder.setLocal(slot, folder.visit(ctx.expr));
+
+            // Products of an induction variable advance with it
+            for (Induction x : inductions.getOrDefault(ctx, Collections.emptyList())) {
+                if(x.step == null){
+                    code.addLocal(ILOAD, x.accumulator);
+                    code.addLocal(ILOAD, x.stepSlot);
+                    code.add(IADD);
+                    code.addLocal(ISTORE, x.accumulator);
+                } else if(x.step >= Short.MIN_VALUE && x.step <= Short.MAX_VALUE){
+                    code.add(Instruction.iinc(x.accumulator, x.step));
+                } else {
+                    code.addLocal(ILOAD, x.accumulator);
+                    code.addConstant(x.step);
+                    code.add(IADD);
+                    code.addLocal(ISTORE, x.accumulator);
+                }
+            }
         }
-    	return asm;
+    	return null;
     }
     
    
@@ -269,11 +981,10 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * is considered as programentry and will be compiled as such.
      * 
      * @throws AllreadyDefinedException If the function was allready defined.
+     * @throws NoReturnException If a num function may end without returning a value.
      */
     @Override
-    public List<String> visitFunction_definition(Function_definitionContext ctx) {
-        List<String> asm = new ArrayList<>();
-
+    public Void visitFunction_definition(Function_definitionContext ctx) {
 
         // Determine returntype and name
         String name = ctx.function_header().functionName.getText();
@@ -292,35 +1003,49 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
         scopes.switchContext(f);
 
         // Add parameters as local variables.
-        scopes.putVar("this_ptr"); // create this ptr
+        if(!staticCalls){
+            scopes.putVar("this_ptr"); // create this ptr
+        }
         params.forEach(x -> scopes.putVar(x.getLeft()));
 
         // Compile body
-        List<String> functionBody = visit(ctx.function_body());
+        folder.reset();
+        code = new InstructionList();
+        currentFunction = f;
+        functionEntry = new Label("FunctionEntry");
+        hasTailCall = false;
+        visit(ctx.function_body());
+        InstructionList functionBody = code;
+        code = null;
+        currentFunction = null;
+
+        // Self tail calls jump back to the start of the body
+        if(hasTailCall){
+            functionBody.add(0, Instruction.label(functionEntry));
+        }
 
         // Resolve local variable count
-        int localsCount = scopes.getLocals(f).size();
-
-        // Generate Jasmin            
-
-        StringBuilder methodHead = new StringBuilder()
-            .append(".method ")
-            .append("public ")
-            .append(f.toSignature());
-
-
-        asm.add(methodHead.toString());
-        asm.add(".limit stack " + (functionBody.size()));
-        asm.add(".limit locals " + localsCount);
-        asm.add("");
-
-        asm.addAll(functionBody);
-        asm.add((f.getReturnType() == NativeTypes.NUM) ? "ireturn" : "return");
+        int localsCount = scopes.getSlotCount(f);
+
+        // Assemble method, a num function must not reach its end
+        functionBody.add(RETURN);
+        StackDepthAnalyzer analyzer = new StackDepthAnalyzer(functionBody);
+        try {
+            analyzer.analyze();
+        } catch (IllegalStateException e){
+            throw new IllegalStateException("Internal error, invalid code generated for function " + f.getIdentifier(), e);
+        }
+        if(f.getReturnType() == NativeTypes.NUM){
+            if(analyzer.getHeight(functionBody.size() - 1) >= 0){
+                throw new NoReturnException(ctx.function_header().functionName, "Function may end without returning a value");
+            }
+            functionBody.set(functionBody.size() - 1, Instruction.of(IRETURN));
+        }
+        addMethod(functionAccess(), f.getIdentifier(), f.toDescriptor(), functionBody, localsCount);
 
-        asm.add(".end method");
         scopes.switchToGlobalContext();
 
-        return asm;
+        return null;
     }
 
     /**
@@ -384,13 +1109,30 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      */
     public static final Function SYSOUT = new Function(NativeTypes.VOID, "println", Arrays.asList(new Pair<>("n", NativeTypes.NUM)));
     public static final Function SYSIN  = new Function(NativeTypes.NUM, "get", new ArrayList<>());
+    /**
+     * Predefined function writing buffered output to stdout, only with buffered output.
+     */
+    public static final Function FLUSH  = new Function(NativeTypes.VOID, "flush", new ArrayList<>());
+
+    /** Static fields of the output buffer, not accessible from C-- */
+    private static final String OUTPUT_BUFFER = "$out";
+    private static final String OUTPUT_LENGTH = "$outLength";
+    private static final String LINE_SEPARATOR = "$lineSeparator";
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /** Static fields and helper of the input buffer shared by every call of get */
+    private static final String INPUT_BUFFER = "$in";
+    private static final String INPUT_POSITION = "$inPosition";
+    private static final String INPUT_LENGTH = "$inLength";
+    private static final String READ_BYTE = "$read";
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
     /**
      * If a function call was found this function determines what function was called based on the context. 
      * It differs between returning/non-returning functions and the parametercount if any
      */
     @Override
-    public List<String> visitFunction_call(Function_callContext ctx) {
-        List<String> asm = new ArrayList<>();
+    public Void visitFunction_call(Function_callContext ctx) {
 
         List<Pair<ExpressionContext, NativeTypes>> args = determineArguments(ctx);
         List<Pair<String, NativeTypes>> rawArgs = args.stream()
@@ -405,82 +1147,150 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
 
         Function f = new Function(returnValue, ctx.IDENTIFIER().getText(), rawArgs);
 
-        StringBuilder functionCall = new StringBuilder("invokevirtual ");
-            
-
-        functionCall
-            .append(programName + "/")
-            .append(f.toSignature());
-        asm.add("aload_0"); // push this ptr
-        
-        
-
+        if(!staticCalls){
+            code.addLocal(ALOAD, 0); // push this ptr
+        }
 
-        asm.addAll(
-            args.stream()
-                .map(Pair::getLeft)
-                .map(this::visit)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList())
-        );
-        asm.add(functionCall.toString());
-        
+        for (Pair<ExpressionContext, NativeTypes> x : args) {
+            visit(x.getLeft());
+        }
+        code.add(Instruction.invoke(invokeOpcode(), programName, f.getIdentifier(), f.toDescriptor()));
 
-        return asm;
+        return null;
     }
 
     /**
      * Used to transform an equality operator to a JVM instruction. 
      * Can only transform ==, !=.
      * @param operator An equality operator mentiioned above.
-     * @return A corresponding JVM instruction.
+     * @return A corresponding JVM instruction comparing the two topmost operands.
      */
-    private String determineEqualityOperation(String operator){
+    private Opcode determineEqualityOperation(String operator){
         switch(operator){
-            case "==" : return "ifeq";
-            case "!=" : return "ifne";
+            case "==" : return IF_ICMPEQ;
+            case "!=" : return IF_ICMPNE;
             default  : return  null ;
         }
     }
 
+    /**
+     * Compiles an expression used as condition directly into jumps. 
+     * Comparisons become a single {@code if_icmp<cond>} against the target, 
+     * the 0 or 1 value of the condition is never materialized. 
+     * {@code &&} and {@code ||} are chains of jumps skipping the right operand 
+     * as soon as the left one decides the result.
+     * @param ctx The condition.
+     * @param jumpIf Jump if the condition evaluates to this, continue with the next instruction otherwise.
+     * @param target The jump target.
+     */
+    private void emitCondition(ExpressionContext ctx, boolean jumpIf, Label target){
+        Integer value = folder.visit(ctx);
+        if(value != null){
+            if((value != 0) == jumpIf){
+                code.addJump(GOTO, target);
+            }
+            return;
+        }
+
+        if(ctx instanceof ParenthesisContext){
+            emitCondition(((ParenthesisContext) ctx).expr, jumpIf, target);
+        } else if(ctx instanceof NotContext){
+            emitCondition(((NotContext) ctx).expr, !jumpIf, target);
+        } else if(ctx instanceof RelationalContext){
+            RelationalContext rel = (RelationalContext) ctx;
+            emitComparison(rel.left, rel.right, determineRelationalOperation(rel.operator.getText()), jumpIf, target);
+        } else if(ctx instanceof EqualityContext){
+            EqualityContext eq = (EqualityContext) ctx;
+            emitComparison(eq.left, eq.right, determineEqualityOperation(eq.operator.getText()), jumpIf, target);
+        } else if(ctx instanceof ConjunctionContext){
+            ConjunctionContext conj = (ConjunctionContext) ctx;
+            boolean and = conj.operator.getText().equals("&&");
+
+            // The left operand decides if it is false for && and true for ||
+            if(and == jumpIf){
+                Label skipL = new Label("ConjSkip" + conjunctionCounter++);
+                emitCondition(conj.left, !and, skipL);
+                emitCondition(conj.right, jumpIf, target);
+                code.addLabel(skipL);
+            } else {
+                emitCondition(conj.left, jumpIf, target);
+                emitCondition(conj.right, jumpIf, target);
+            }
+        } else {
+            visit(ctx);
+            code.addJump(jumpIf ? IFNE : IFEQ, target);
+        }
+    }
+
+    /**
+     * Compares two operands and jumps depending on the result. 
+     * Comparisons against a constant 0 use the single operand form f.e. {@code iflt}.
+     */
+    private void emitComparison(ExpressionContext left, ExpressionContext right, Opcode compare, boolean jumpIf, Label target){
+        Opcode op = jumpIf ? compare : compare.negate();
+        visit(left);
+        if(Integer.valueOf(0).equals(folder.visit(right))){
+            code.addJump(compareWithZero(op), target);
+        } else {
+            visit(right);
+            code.addJump(op, target);
+        }
+    }
+
+    /**
+     * @return the jump comparing a single operand with 0 instead of two operands.
+     */
+    private Opcode compareWithZero(Opcode compare){
+        switch(compare){
+            case IF_ICMPEQ: return IFEQ;
+            case IF_ICMPNE: return IFNE;
+            case IF_ICMPLT: return IFLT;
+            case IF_ICMPGE: return IFGE;
+            case IF_ICMPGT: return IFGT;
+            case IF_ICMPLE: return IFLE;
+            default: return null;
+        }
+    }
+
+    /**
+     * Materializes the value of a condition, pushes 1 if it is true and 0 otherwise.
+     * @param ctx The condition.
+     * @param trueL Label of the instruction pushing 1.
+     * @param doneL Label after the value has been pushed.
+     */
+    private void emitBoolean(ExpressionContext ctx, Label trueL, Label doneL){
+        emitCondition(ctx, true, trueL);
+        code.add(ICONST_0);
+        code.addJump(GOTO, doneL);
+        code.addLabel(trueL);
+        code.add(ICONST_1);
+        code.addLabel(doneL);
+    }
+
 
     /**
      * Used to identify jumplabels in the equality visitor.
      */
     private int eqCounter;
     /**
-     * Performs an equality operation. Pops 2 operands off the stack.
+     * Performs an equality operation. Compares 2 operands directly.
      * Allways results in either 1 or 0 depending on which operation. <br>
      * {@code ==}: push 1 if both are equal, 0 if both are different. <br>
      * {@code !=}: push 1 if both are different, 0 if both are equal. 
      * 
      */
     @Override
-    public List<String> visitEquality(EqualityContext ctx) {
-        // Load left side of operation to stack
-        List<String> asm = visit(ctx.left);
-
-        // Load right side of operation to stack
-        List<String> asmRight = visit(ctx.right);
-        asm.addAll(asmRight);    
-        asm.add("isub");    
-
-        String trueL, doneL;
-        trueL = "EqBranch" + eqCounter;
-        doneL = "EqualFinish" + eqCounter;
+    public Void visitEquality(EqualityContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        Label trueL, doneL;
+        trueL = new Label("EqBranch" + eqCounter);
+        doneL = new Label("EqualFinish" + eqCounter);
         eqCounter++;
 
-        String instruction = determineEqualityOperation(ctx.operator.getText());
-
-        asm.add(instruction + " " + trueL);
-        asm.add("iconst_0");
-        asm.add("goto " + doneL);
-        asm.add(trueL + ":");
-        asm.add("iconst_1");
-        asm.add(doneL + ":");
-
-
-        return asm;
+        emitBoolean(ctx, trueL, doneL);
+        return null;
     }
 
 
@@ -498,77 +1308,42 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * nonzero values will be transformed to 0.
      */
     @Override
-    public List<String> visitNot(NotContext ctx) {
-        // Load operand to stack
-        List<String> asm = visit(ctx.expr);
-
-        String notL, doneL;
-        notL = "NotBranch" + notCounter;
-        doneL = "NotDone" + notCounter;
+    public Void visitNot(NotContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        Label notL, doneL;
+        notL = new Label("NotBranch" + notCounter);
+        doneL = new Label("NotDone" + notCounter);
         notCounter++;
-        
-        asm.add("ifeq " + notL);
-        asm.add("iconst_0");
-        asm.add("goto " + doneL);
-        asm.add(notL + ":");
-        asm.add("iconst_1");
-        asm.add(doneL + ":");
 
-
-        return asm;
+        emitBoolean(ctx, notL, doneL);
+        return null;
     }
 
 
 
 
 
-     /**
-     * Used to transform a conjunction operator to a JVM instruction. 
-     * Can only transform && , ||.
-     * @param operator A conjunctio operator mentiioned above.
-     * @return A corresponding JVM instruction.
-     */
-    private String determineConjunctionOperation(String operator){
-        switch(operator){
-            case "&&" : return "iand";
-            case "||" : return "ior";
-            default  : return  null ;
-        }
-    }
-
     /** Used to identify jumplabels in the conjunction operation. */
     private int conjunctionCounter;
     /**
-     * Treats both operands as boolean values meaning 0 = false and non 0 = true
-     * performs a basic AND or OR operation pushing either a 0.0 or 1.0 double on the stack
+     * Treats both operands as boolean values meaning 0 = false and non 0 = true.
+     * Pushes 1 if the AND or OR operation is true, 0 otherwise.<br>
+     * The right operand is only evaluated if the left one does not decide the result.
      */
     @Override
-    public List<String> visitConjunction(ConjunctionContext ctx) {
-        String branchL, doneL;
-        branchL = "ConjBranch" + conjunctionCounter;
-        doneL   = "ConjDone"   + conjunctionCounter;
-
+    public Void visitConjunction(ConjunctionContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        Label branchL, doneL;
+        branchL = new Label("ConjBranch" + conjunctionCounter);
+        doneL   = new Label("ConjDone"   + conjunctionCounter);
         conjunctionCounter++;
 
-        String instruction = determineConjunctionOperation(ctx.operator.getText());
-
-        List<String> asm = visit(ctx.left);
-        asm.add("iconst_0");
-        asm.add("isub");   // compare left with 0
-
-        asm.addAll(visit(ctx.right));
-        asm.add("iconst_0");
-        asm.add("isub");   // compare right with 0
-
-        asm.add(instruction);
-        asm.add("ifne " + branchL);
-        asm.add("iconst_0");
-        asm.add("goto " + doneL);
-        asm.add(branchL + ":");
-        asm.add("iconst_1");
-        asm.add(doneL + ":");
-
-        return asm;
+        emitBoolean(ctx, branchL, doneL);
+        return null;
     }
 
 
@@ -576,14 +1351,14 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * Used to transform a relational operator to a JVM isntruction. 
      * Can only transform <, >, <=, >=.
      * @param operator A relational operator mentiioned above.
-     * @return A corresponding JVM instruction.
+     * @return A corresponding JVM instruction comparing the two topmost operands.
      */
-    private String determineRelationalOperation(String operator){
+    private Opcode determineRelationalOperation(String operator){
         switch(operator){
-            case "<" : return "iflt";
-            case ">" : return "ifgt";
-            case "<=": return "ifle";
-            case ">=": return "ifge";
+            case "<" : return IF_ICMPLT;
+            case ">" : return IF_ICMPGT;
+            case "<=": return IF_ICMPLE;
+            case ">=": return IF_ICMPGE;
             default  : return  null ;
         }
     }
@@ -596,31 +1371,21 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * Performs a relational operation resulting in either 1 or 0. 
      * Relational operations contain {@code <, >, <=, >=}. <br>
      * 
-     * Pops 2 integers off the stack.
+     * Compares 2 integers directly, without overflowing on their difference.
      * If the expression evaluates to true a 1 will be pushed to the stack, otherwise a 0.
      */
     @Override
-    public List<String> visitRelational(RelationalContext ctx) {
-        List<String> asm = visit(ctx.left);
-        asm.addAll(visit(ctx.right));
-
-        String relationalL, relationalDoneL;
-        relationalL = "relBranch" + relationalCounter;
-        relationalDoneL = "relDone" + relationalCounter;
-
+    public Void visitRelational(RelationalContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        Label relationalL, relationalDoneL;
+        relationalL = new Label("relBranch" + relationalCounter);
+        relationalDoneL = new Label("relDone" + relationalCounter);
         relationalCounter++;
 
-        String instruction = determineRelationalOperation(ctx.operator.getText());
-        
-        asm.add("isub");
-        asm.add(instruction + " " + relationalL);
-        asm.add("iconst_0");
-        asm.add("goto " + relationalDoneL);
-        asm.add(relationalL + ":");
-        asm.add("iconst_1");
-        asm.add(relationalDoneL + ":");
-
-        return asm;
+        emitBoolean(ctx, relationalL, relationalDoneL);
+        return null;
     }
 
 
@@ -629,8 +1394,10 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * Loads the fould identifier within an expression onto the opstack.
      */
     @Override
-    public List<String> visitVariable(VariableContext ctx) {
-        List<String> asm = new ArrayList<>();
+    public Void visitVariable(VariableContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
         
         Identifier id = scopes.get(ctx.getText());
         if(id == null){
@@ -638,17 +1405,19 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
         }
 
         if(id.getType() == Type.CONSTANT){
-            asm.add("ldc " + id.getValue());
+            code.addConstant(Integer.parseInt(id.getValue()));
         } else {
-            if(id.getScope() == Scope.GLOBAL){
-                asm.add("aload_0");
-                asm.add("getfield " + programName + "/" + id.getValue() + " I");
+            if(id.getScope() == Scope.GLOBAL && staticCalls){
+                code.add(Instruction.field(GETSTATIC, programName, id.getValue(), "I"));
+            } else if(id.getScope() == Scope.GLOBAL){
+                code.addLocal(ALOAD, 0);
+                code.add(Instruction.field(GETFIELD, programName, id.getValue(), "I"));
             } else {
-                asm.add("iload " + id.getValue());
+                code.addLocal(ILOAD, Integer.parseInt(id.getValue()));
             }
         }       
 
-        return asm;
+        return null;
     }
 
 
@@ -656,16 +1425,15 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * Loads a constant literal number onto the opstack.
      */
     @Override
-    public List<String> visitNumber(NumberContext ctx) {
-        List<String> asm = new ArrayList<>();
+    public Void visitNumber(NumberContext ctx) {
         String numTxt = ctx.number.getText();
 
         int value = Integer.parseInt(numTxt);
 
-        asm.add("ldc " + value);
+        code.addConstant(value);
 
 
-        return asm;
+        return null;
     }
 
     /**
@@ -673,12 +1441,14 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * First visits the lefthand side and pushes it onto the opstack and then the righthand side.
      */
     @Override
-    public List<String> visitPlus(PlusContext ctx) {
-    	List<String> asm = new ArrayList<>();
-    	asm.addAll(visit(ctx.left)); // evaluate left expression onto the stack
-    	asm.addAll(visit(ctx.right)); // evaluate right expression onto the stack
-    	asm.add("iadd"); // add left and right
-    	return asm;
+    public Void visitPlus(PlusContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+    	visit(ctx.left); // evaluate left expression onto the stack
+    	visit(ctx.right); // evaluate right expression onto the stack
+    	code.add(IADD); // add left and right
+    	return null;
     }
 
     /**
@@ -686,76 +1456,101 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * First evaluates the lefthand side then the righthand side, finally pushes both onto the stack.
      */
     @Override
-    public List<String> visitMinus(MinusContext ctx) {
-    	List<String> asm = new ArrayList<>();
-    	asm.addAll(visit(ctx.left)); // evaluate left expression onto the stack
-    	asm.addAll(visit(ctx.right)); // evaluate right expression onto the stack
-    	asm.add("isub"); // subtract right from left
-    	return asm;
+    public Void visitMinus(MinusContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+    	visit(ctx.left); // evaluate left expression onto the stack
+    	visit(ctx.right); // evaluate right expression onto the stack
+    	code.add(ISUB); // subtract right from left
+    	return null;
     }
     /**
      * Evaluates the {@code /} operation in an expression.
      * First evaluates the lefthand side then the righthand side, finally pushes both onto the stack.
+     * A constant divisor is reduced to shifts or a multiplication, see {@link StrengthReducer}.
      */
     @Override
-    public List<String> visitDivision(DivisionContext ctx) {
-    	List<String> asm = new ArrayList<>();
-    	asm.addAll(visit(ctx.left)); // evaluate left expression onto the stack
-    	asm.addAll(visit(ctx.right)); // evaluate right expression onto the stack
-    	asm.add("idiv"); // divide left by right
-    	return asm;
+    public Void visitDivision(DivisionContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        Integer divisor = folder.visit(ctx.right);
+        if(divisor != null){
+            visit(ctx.left);
+            StrengthReducer.emitDivision(code, divisor);
+            return null;
+        }
+    	visit(ctx.left); // evaluate left expression onto the stack
+    	visit(ctx.right); // evaluate right expression onto the stack
+    	code.add(IDIV); // divide left by right
+    	return null;
     }
     
     /**
      * Evaluates the {@code -} operation in an expression.
      * First evaluates the lefthand side then the righthand side, finally pushes both onto the stack.
+     * A multiplication by a power of two is reduced to a shift, see {@link StrengthReducer}.
      */
     @Override
-    public List<String> visitMultiplication(MultiplicationContext ctx) {
-    	List<String> asm = new ArrayList<>();
-    	asm.addAll(visit(ctx.left)); // evaluate left expression onto the stack
-    	asm.addAll(visit(ctx.right)); // evaluate right expression onto the stack
-    	asm.add("imul"); // divide left by right
-    	return asm;
+    public Void visitMultiplication(MultiplicationContext ctx) {
+        if(emitConstant(ctx)){
+            return null;
+        }
+        // The constant operand has no side effects, so the other one may be evaluated first
+        Integer left = folder.visit(ctx.left), right = folder.visit(ctx.right);
+        if(left != null || right != null){
+            visit((right != null) ? ctx.left : ctx.right);
+            StrengthReducer.emitMultiplication(code, (right != null) ? right : left);
+            return null;
+        }
+    	visit(ctx.left); // evaluate left expression onto the stack
+    	visit(ctx.right); // evaluate right expression onto the stack
+    	code.add(IMUL); // divide left by right
+    	return null;
     }
 
     /**
      * Generates the code as soon as an if statement combinated with else shows up.
      */
-    private List<String> generateIfElse(BranchContext ctx){
-        List<String> asm = new ArrayList<>();
+    private Void generateIfElse(BranchContext ctx){
         long branchNum = branchCounter++;
-        asm.addAll(visit(ctx.condition)); // evaluate the condition and put it onto the stack
-        asm.add("ifne ifTrue" + branchNum + System.lineSeparator());
-
-        if(ctx.onFalse != null) {
-        	asm.addAll(visit(ctx.onFalse));
-        }
-        asm.add("goto endIf" + branchNum + System.lineSeparator());
-        asm.add("ifTrue" + branchNum + ":" + System.lineSeparator());
-        asm.addAll(visit(ctx.onTrue));
-        asm.add("endIf" + branchNum + ":" + System.lineSeparator());
-        return asm;
+        Label elseL = new Label("ifElse" + branchNum);
+        Label endL = new Label("endIf" + branchNum);
+        emitCondition(ctx.condition, false, elseL); // jump to the else branch if the condition is false
+
+        Map<Integer, Integer> known = folder.getLocals();
+        visit(ctx.onTrue);
+        Map<Integer, Integer> knownOnTrue = folder.getLocals();
+        folder.setLocals(known);
+
+        code.addJump(GOTO, endL);
+        code.addLabel(elseL);
+        visit(ctx.onFalse);
+        code.addLabel(endL);
+        folder.retainLocals(knownOnTrue);
+        return null;
     }
 
     /**
      * Generates the code as soon as a single if statement occurs.
      */
-    private List<String> generateIfOnly(BranchContext ctx){
-        List<String> asm = new ArrayList<>();
+    private Void generateIfOnly(BranchContext ctx){
         long branchNum = branchCounter++;
-        asm.addAll(visit(ctx.condition));
-        asm.add("ifeq endIf" + branchNum);
-        asm.addAll(visit(ctx.onTrue));
-        asm.add("endIf" + branchNum + ":");
-        return asm;
+        Label endL = new Label("endIf" + branchNum);
+        emitCondition(ctx.condition, false, endL);
+        Map<Integer, Integer> known = folder.getLocals();
+        visit(ctx.onTrue);
+        code.addLabel(endL);
+        folder.retainLocals(known);
+        return null;
     }
 
     /**
      * Determines if an if statement has an elsebranch or not and generates the correct code.
      */
     @Override
-    public List<String> visitBranch(BranchContext ctx) {
+    public Void visitBranch(BranchContext ctx) {
         if(ctx.onFalse != null){    // if has else branch
             return generateIfElse(ctx);
         } else {
@@ -767,34 +1562,74 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
      * Evaluates the condition and body of a while loop. Loops then over the body until condition is false.
      */
     @Override
-    public List<String> visitLoop(LoopContext ctx) {
-    	List<String> asm = new ArrayList<>();
+    public Void visitLoop(LoopContext ctx) {
     	long loopNum = loopCounter++;
-    	asm.add("IfLoop" + loopNum + ":" + System.lineSeparator());
-    	asm.addAll(visit(ctx.condition));
-    	asm.add("ifeq EndLoop" + loopNum + System.lineSeparator());
-    	asm.addAll(visit(ctx.onTrue));
-    	asm.add("goto IfLoop" + loopNum + System.lineSeparator());
-    	asm.add("EndLoop" + loopNum + ":" + System.lineSeparator());
-    	return asm;
+    	Label loopL = new Label("IfLoop" + loopNum);
+    	Label endL = new Label("EndLoop" + loopNum);
+
+    	// Variables assigned within the loop are unknown at its head
+    	Set<Integer> assigned = new HashSet<>();
+    	collectAssignedLocals(ctx, assigned);
+    	assigned.forEach(x -> folder.setLocal(x, null));
+    	if(loopOptimizations){
+    	    hoistInvariants(ctx, assigned);
+    	    reduceInductions(ctx, assigned);
+    	}
+    	Map<Integer, Integer> known = folder.getLocals();
+
+    	code.addLabel(loopL);
+    	emitCondition(ctx.condition, false, endL);
+    	visit(ctx.onTrue);
+    	code.addJump(GOTO, loopL);
+    	code.addLabel(endL);
+    	folder.setLocals(known);
+    	return null;
     }
     /**
      * depending if the return statement has an expression the fitting code is generated.
+     * A function returning the result of a call to itself reassigns its parameters
+     * and jumps back to its start instead, so the recursion runs in constant stack space.
      */
     @Override
-    public List<String> visitReturnstatement(ReturnstatementContext ctx) {
-        List<String> asm = new ArrayList<>();
+    public Void visitReturnstatement(ReturnstatementContext ctx) {
         if(ctx.returnValue == null){
-            asm.add("return");
+            code.add(RETURN);
+        } else if(isSelfCall(ctx.returnValue)){
+            Function_callContext call = ((FunctionCallExpressionContext) ctx.returnValue).function_call();
+
+            // All arguments are evaluated before the first parameter is overwritten
+            List<Pair<ExpressionContext, NativeTypes>> args = determineArguments(call);
+            for (Pair<ExpressionContext, NativeTypes> x : args) {
+                visit(x.getLeft());
+            }
+            int firstSlot = staticCalls ? 0 : 1;
+            for (int i = args.size() - 1; i >= 0; i--) {
+                code.addLocal(ISTORE, firstSlot + i);
+            }
+            code.addJump(GOTO, functionEntry);
+            hasTailCall = true;
         } else {
-            asm.addAll(visit(ctx.returnValue));
-            asm.add("ireturn");
+            visit(ctx.returnValue);
+            code.add(IRETURN);
         }
-        return asm;
+        return null;
+    }
+
+
+    /**
+     * @param ctx A returned expression.
+     * @return true if the expression is a call of the current function with the same parameter count.
+     */
+    private boolean isSelfCall(ExpressionContext ctx){
+        if(!(ctx instanceof FunctionCallExpressionContext) || currentFunction == null){
+            return false;
+        }
+        Function_callContext call = ((FunctionCallExpressionContext) ctx).function_call();
+        return call.IDENTIFIER().getText().equals(currentFunction.getIdentifier())
+            && currentFunction.getReturnType() == NativeTypes.NUM
+            && determineArguments(call).size() == currentFunction.getParameterCount();
     }
 
-    
-    
     /**
      * @return the definedFunctions
      */
@@ -802,6 +1637,64 @@ public class ProgramVisitor extends CmmBaseVisitor<List<String>>{
         return definedFunctions;
     }
 
+    /**
+     * @return true if functions are compiled to static methods and globals to static fields
+     */
+    public boolean isStaticCalls() {
+        return staticCalls;
+    }
+
+    /**
+     * Selects the calling convention, has to be set before the tree is visited.
+     * Static calls are the default, with instance calls every function is a 
+     * method of a program instance created by {@code main}.
+     * @param staticCalls true for static methods and fields, false for instance methods and fields
+     */
+    public void setStaticCalls(boolean staticCalls) {
+        this.staticCalls = staticCalls;
+    }
+
+    /**
+     * @return true if println writes into a buffer instead of printing every line directly
+     */
+    public boolean isBufferedOutput() {
+        return bufferedOutput;
+    }
+
+    /**
+     * Selects how println writes its output, has to be set before the tree is visited.
+     * Buffered output is written when the buffer is full, on a call of flush, 
+     * before reading input with get and when the program ends.
+     * @param bufferedOutput true to buffer the output
+     */
+    public void setBufferedOutput(boolean bufferedOutput) {
+        this.bufferedOutput = bufferedOutput;
+    }
+
+    /**
+     * @return true if invariant expressions and induction products are computed in front of loops
+     */
+    public boolean isLoopOptimizations() {
+        return loopOptimizations;
+    }
+
+    /**
+     * Selects whether loops are optimized, has to be set before the tree is visited.
+     * Optimized loops compute their invariant expressions and the products of their
+     * induction variables with constants in front of the loop, enabled by default.
+     * @param loopOptimizations true to optimize loops
+     */
+    public void setLoopOptimizations(boolean loopOptimizations) {
+        this.loopOptimizations = loopOptimizations;
+    }
+
+    /**
+     * @return the compiled program, complete after the tree has been visited
+     */
+    public ClassModel getClassModel() {
+        return classModel;
+    }
+
     /**
      * @return all global variables defined in this unit
      */
@@ -0,0 +1,152 @@
+package cmm.compiler;
+
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.Opcode;
+
+/**
+ * Replaces multiplications and divisions by a constant with cheaper instructions.<br>
+ * Multiplications by a power of two become shifts. Divisions by a power of two
+ * become shifts that round towards zero like {@code idiv}, divisions by any other
+ * constant a multiplication with a precomputed reciprocal, see Hacker's Delight,
+ * chapter 10. Every sequence yields exactly the result of {@code imul} or {@code idiv}.
+ *
+ * @author Leslie Marxen
+ */
+public class StrengthReducer{
+
+    private StrengthReducer(){
+    }
+
+    /**
+     * Multiplies the value on top of the stack with a constant.
+     * @param code The code to append to.
+     * @param factor The constant.
+     */
+    public static void emitMultiplication(InstructionList code, int factor){
+        if(factor == 1){
+            return;
+        }
+        if(factor == -1){
+            code.add(Opcode.INEG);
+            return;
+        }
+        if(Integer.bitCount(factor) == 1){
+            // Includes Integer.MIN_VALUE, a shift by 31
+            code.addConstant(Integer.numberOfTrailingZeros(factor));
+            code.add(Opcode.ISHL);
+            return;
+        }
+        if(Integer.bitCount(-factor) == 1){
+            code.addConstant(Integer.numberOfTrailingZeros(-factor));
+            code.add(Opcode.ISHL);
+            code.add(Opcode.INEG);
+            return;
+        }
+        code.addConstant(factor);
+        code.add(Opcode.IMUL);
+    }
+
+    /**
+     * Divides the value on top of the stack by a constant.
+     * @param code The code to append to.
+     * @param divisor The constant, a division by zero is left to the runtime.
+     */
+    public static void emitDivision(InstructionList code, int divisor){
+        if(divisor == 0){
+            code.addConstant(divisor);
+            code.add(Opcode.IDIV);
+            return;
+        }
+        if(divisor == 1){
+            return;
+        }
+        if(divisor == -1){
+            code.add(Opcode.INEG);
+            return;
+        }
+
+        int shift = Integer.numberOfTrailingZeros(divisor);
+        if(Math.abs((long) divisor) == 1L << shift){
+            // Negative dividends are rounded up by adding divisor - 1 before shifting
+            code.add(Opcode.DUP);
+            code.addConstant(31);
+            code.add(Opcode.ISHR);
+            code.addConstant(32 - shift);
+            code.add(Opcode.IUSHR);
+            code.add(Opcode.IADD);
+            code.addConstant(shift);
+            code.add(Opcode.ISHR);
+            if(divisor < 0){
+                code.add(Opcode.INEG);
+            }
+            return;
+        }
+
+        int[] magic = magic(divisor);
+        boolean addDividend = divisor > 0 && magic[0] < 0;
+        boolean subDividend = divisor < 0 && magic[0] > 0;
+
+        // High word of the 64 bit product of dividend and multiplier
+        if(addDividend || subDividend){
+            code.add(Opcode.DUP);
+        }
+        code.add(Opcode.I2L);
+        code.addConstant(magic[0]);
+        code.add(Opcode.I2L);
+        code.add(Opcode.LMUL);
+        code.addConstant(32);
+        code.add(Opcode.LSHR);
+        code.add(Opcode.L2I);
+        if(addDividend){
+            code.add(Opcode.IADD);
+        } else if(subDividend){
+            code.add(Opcode.SWAP);
+            code.add(Opcode.ISUB);
+        }
+        if(magic[1] > 0){
+            code.addConstant(magic[1]);
+            code.add(Opcode.ISHR);
+        }
+
+        // Negative quotients are one too small
+        code.add(Opcode.DUP);
+        code.addConstant(31);
+        code.add(Opcode.IUSHR);
+        code.add(Opcode.IADD);
+    }
+
+    /**
+     * Computes the multiplier and shift for a signed division by a constant.
+     * @param divisor The constant, neither 0, 1, -1 nor a power of two.
+     * @return The multiplier and the shift.
+     */
+    static int[] magic(int divisor){
+        final long two31 = 0x80000000L;
+        long ad = Math.abs((long) divisor);
+        long t = two31 + (divisor >>> 31);
+        long anc = t - 1 - t % ad;
+        int p = 31;
+        long q1 = two31 / anc, r1 = two31 - q1 * anc;
+        long q2 = two31 / ad, r2 = two31 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 = 2 * q1;
+            r1 = 2 * r1;
+            if(r1 >= anc){
+                q1++;
+                r1 -= anc;
+            }
+            q2 = 2 * q2;
+            r2 = 2 * r2;
+            if(r2 >= ad){
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while(q1 < delta || (q1 == delta && r1 == 0));
+
+        int multiplier = (int) (q2 + 1);
+        return new int[]{(divisor < 0) ? -multiplier : multiplier, p - 32};
+    }
+}
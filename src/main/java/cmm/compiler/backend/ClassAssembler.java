@@ -0,0 +1,116 @@
+package cmm.compiler.backend;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.StackDepthAnalyzer;
+
+/**
+ * Assembles a compiled program into a binary classfile.
+ *
+ * @author Leslie Marxen
+ */
+public class ClassAssembler implements Opcodes{
+
+    /**
+     * Assembles the whole class.
+     * @param cls The compiled program.
+     * @return The classfile.
+     */
+    public byte[] assemble(ClassModel cls){
+        ClassFileWriter cw = new ClassFileWriter(cls.getName(), cls.getSuperName());
+
+        for (FieldModel f : cls.getFields()) {
+            cw.addField(f.getAccess(), f.getName(), f.getDescriptor());
+        }
+
+        for (MethodModel m : cls.getMethods()) {
+            MethodWriter mw = cw.addMethod(m.getAccess(), m.getName(), m.getDescriptor());
+            int maxStack = m.getMaxStack();
+            if(!m.getExitHandler().isEmpty()){
+                maxStack = Math.max(maxStack, new StackDepthAnalyzer(m.getExitHandler(), 1).analyze());
+            }
+            mw.setMaxStack(maxStack);
+            mw.setMaxLocals(m.getMaxLocals());
+            assemble(m, mw);
+            if(mw.hasBranchOverflow()){
+                // Some jump is too far for a 2 byte offset
+                mw.reset();
+                mw.setWideJumps(true);
+                assemble(m, mw);
+            }
+        }
+
+        return cw.toByteArray();
+    }
+
+    private void assemble(MethodModel m, MethodWriter mw){
+        Map<cmm.compiler.ir.Label, Label> labels = new IdentityHashMap<>();
+        Label start = new Label();
+        mw.placeLabel(start);
+
+        for (Instruction insn : m.getCode()) {
+            assemble(insn, mw, labels);
+        }
+
+        // Covers the code, but not the handler itself
+        if(!m.getExitHandler().isEmpty()){
+            Label handler = new Label();
+            mw.placeLabel(handler);
+            for (Instruction insn : m.getExitHandler()) {
+                assemble(insn, mw, labels);
+            }
+            mw.exceptionHandler(start, handler, handler);
+        }
+
+        for (Map.Entry<cmm.compiler.ir.Label, Label> e : labels.entrySet()) {
+            if(!e.getValue().isPlaced()){
+                throw new IllegalStateException("Undefined label " + e.getKey() + " in " + m.getSignature());
+            }
+        }
+    }
+
+    /**
+     * Emits a single instruction, labels are created on first use.
+     */
+    private void assemble(Instruction insn, MethodWriter mw, Map<cmm.compiler.ir.Label, Label> labels){
+        int code = insn.getOpcode().getCode();
+        switch(insn.getOpcode().getKind()){
+            case NONE:
+                mw.instruction(code);
+                break;
+            case INT:
+                if(code == LDC){
+                    mw.ldcInstruction(insn.getOperand());
+                } else {
+                    mw.intInstruction(code, insn.getOperand());
+                }
+                break;
+            case LOCAL:
+                mw.localInstruction(code, insn.getOperand());
+                break;
+            case IINC:
+                mw.iincInstruction(insn.getOperand(), insn.getIncrement());
+                break;
+            case JUMP:
+                mw.jumpInstruction(code, labels.computeIfAbsent(insn.getLabel(), x -> new Label()));
+                break;
+            case LABEL:
+                mw.placeLabel(labels.computeIfAbsent(insn.getLabel(), x -> new Label()));
+                break;
+            case FIELD:
+                mw.fieldInstruction(code, insn.getOwner(), insn.getName(), insn.getDescriptor());
+                break;
+            case METHOD:
+                mw.methodInstruction(code, insn.getOwner(), insn.getName(), insn.getDescriptor());
+                break;
+            case TYPE:
+                mw.typeInstruction(code, insn.getOwner());
+                break;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cmm.compiler.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a binary JVM classfile without going through any textual assembly.<br>
+ * The produced classfiles use version 45.3, the same version Jasmin emits,
+ * so no StackMapTable attributes are required.
+ *
+ * @author Leslie Marxen
+ */
+public class ClassFileWriter implements Opcodes{
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MINOR_VERSION = 3;
+    private static final int MAJOR_VERSION = 45;
+
+    private final ConstantPool pool;
+    private final int thisClass;
+    private final int superClass;
+    private final List<int[]> fields;
+    private final List<MethodWriter> methods;
+
+    /**
+     * Creates a new public class.
+     * @param className Internal name of the class.
+     * @param superName Internal name of the superclass.
+     */
+    public ClassFileWriter(String className, String superName){
+        pool = new ConstantPool();
+        thisClass = pool.addClass(className);
+        superClass = pool.addClass(superName);
+        fields = new ArrayList<>();
+        methods = new ArrayList<>();
+    }
+
+    /**
+     * Adds a field to the class.
+     * @param access Access flags.
+     * @param name Name of the field.
+     * @param descriptor Type descriptor f.e. {@code I}.
+     */
+    public void addField(int access, String name, String descriptor){
+        fields.add(new int[]{access, pool.addUtf8(name), pool.addUtf8(descriptor)});
+    }
+
+    /**
+     * Adds a method to the class. The returned writer is used to emit its code.
+     * @param access Access flags.
+     * @param name Name of the method.
+     * @param descriptor Method descriptor f.e. {@code (I)V}.
+     * @return A writer for the method body.
+     */
+    public MethodWriter addMethod(int access, String name, String descriptor){
+        MethodWriter mw = new MethodWriter(pool, access, name, descriptor);
+        methods.add(mw);
+        return mw;
+    }
+
+    /**
+     * Writes the classfile.
+     * @param out Destination.
+     * @throws IOException If out can not be written to.
+     */
+    public void write(OutputStream out) throws IOException{
+        int codeAttributeName = pool.addUtf8("Code");
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeShort(MINOR_VERSION);
+        dos.writeShort(MAJOR_VERSION);
+        pool.writeTo(dos);
+        dos.writeShort(ACC_PUBLIC | ACC_SUPER);
+        dos.writeShort(thisClass);
+        dos.writeShort(superClass);
+        dos.writeShort(0); // interfaces_count
+
+        dos.writeShort(fields.size());
+        for(int[] f : fields){
+            dos.writeShort(f[0]);
+            dos.writeShort(f[1]);
+            dos.writeShort(f[2]);
+            dos.writeShort(0); // attributes_count
+        }
+
+        dos.writeShort(methods.size());
+        for(MethodWriter m : methods){
+            m.writeTo(dos, codeAttributeName);
+        }
+
+        dos.writeShort(0); // attributes_count
+        dos.flush();
+    }
+
+    /**
+     * @return The complete classfile.
+     */
+    public byte[] toByteArray(){
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try{
+            write(baos);
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
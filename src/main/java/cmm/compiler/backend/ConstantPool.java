@@ -0,0 +1,207 @@
+package cmm.compiler.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The constant pool of a single classfile.<br>
+ * Every entry is serialized the moment it is requested for the first time,
+ * requesting the same entry again returns the index of the allready existing one.
+ * This way every constant is stored exactly once.
+ *
+ * @author Leslie Marxen
+ */
+public class ConstantPool{
+
+    private static final int UTF8         = 1;
+    private static final int INTEGER      = 3;
+    private static final int CLASS        = 7;
+    private static final int STRING       = 8;
+    private static final int FIELDREF     = 9;
+    private static final int METHODREF    = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final Map<String, Integer> entries;
+    private final ByteArrayOutputStream bytes;
+    private final DataOutputStream out;
+    private int nextIndex;
+
+    /**
+     * Creates an empty constant pool.
+     */
+    public ConstantPool(){
+        entries = new HashMap<>();
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        nextIndex = 1; // index 0 is reserved by the JVM
+    }
+
+    /**
+     * Adds a modified UTF-8 string.
+     * @param value The string.
+     * @return The index of the entry.
+     */
+    public int addUtf8(String value){
+        String key = UTF8 + ":" + value;
+        Integer index = entries.get(key);
+        if(index != null){
+            return index;
+        }
+
+        try{
+            out.writeByte(UTF8);
+            out.writeUTF(value);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key);
+    }
+
+    /**
+     * Adds an integer constant, as used by {@code ldc}.
+     * @param value The constant.
+     * @return The index of the entry.
+     */
+    public int addInteger(int value){
+        String key = INTEGER + ":" + value;
+        Integer index = entries.get(key);
+        if(index != null){
+            return index;
+        }
+
+        try{
+            out.writeByte(INTEGER);
+            out.writeInt(value);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key);
+    }
+
+    /**
+     * Adds a class reference.
+     * @param internalName The internal name of the class f.e. {@code java/lang/Object}.
+     * @return The index of the entry.
+     */
+    public int addClass(String internalName){
+        return addIndexed(CLASS, internalName, addUtf8(internalName));
+    }
+
+    /**
+     * Adds a string constant, as used by {@code ldc}.
+     * @param value The constant.
+     * @return The index of the entry.
+     */
+    public int addString(String value){
+        return addIndexed(STRING, value, addUtf8(value));
+    }
+
+    /**
+     * Adds a reference to a field.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the field.
+     * @param descriptor Type descriptor of the field f.e. {@code I}.
+     * @return The index of the entry.
+     */
+    public int addFieldref(String owner, String name, String descriptor){
+        return addMemberref(FIELDREF, owner, name, descriptor);
+    }
+
+    /**
+     * Adds a reference to a method.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the method.
+     * @param descriptor Method descriptor f.e. {@code (I)V}.
+     * @return The index of the entry.
+     */
+    public int addMethodref(String owner, String name, String descriptor){
+        return addMemberref(METHODREF, owner, name, descriptor);
+    }
+
+    /**
+     * Returns the amount of entries + 1, as expected by the {@code constant_pool_count} item.
+     * @return The constant pool count.
+     */
+    public int getCount(){
+        return nextIndex;
+    }
+
+    /**
+     * Writes all entries in order.
+     * @param dst Where to write the entries to.
+     * @throws IOException If dst can not be written to.
+     */
+    public void writeTo(DataOutputStream dst) throws IOException{
+        dst.writeShort(nextIndex);
+        bytes.writeTo(dst);
+    }
+
+    private int addMemberref(int tag, String owner, String name, String descriptor){
+        String key = tag + ":" + owner + "." + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if(index != null){
+            return index;
+        }
+
+        int classIndex = addClass(owner);
+        int natIndex = addNameAndType(name, descriptor);
+
+        try{
+            out.writeByte(tag);
+            out.writeShort(classIndex);
+            out.writeShort(natIndex);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key);
+    }
+
+    private int addNameAndType(String name, String descriptor){
+        String key = NAME_AND_TYPE + ":" + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if(index != null){
+            return index;
+        }
+
+        int nameIndex = addUtf8(name);
+        int descIndex = addUtf8(descriptor);
+
+        try{
+            out.writeByte(NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key);
+    }
+
+    private int addIndexed(int tag, String value, int utf8Index){
+        String key = tag + ":" + value;
+        Integer index = entries.get(key);
+        if(index != null){
+            return index;
+        }
+
+        try{
+            out.writeByte(tag);
+            out.writeShort(utf8Index);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key);
+    }
+
+    private int register(String key){
+        int index = nextIndex++;
+        if(index > 0xFFFF){
+            throw new IllegalStateException("Constant pool overflow");
+        }
+        entries.put(key, index);
+        return index;
+    }
+}
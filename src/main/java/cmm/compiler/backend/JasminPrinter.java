@@ -0,0 +1,76 @@
+package cmm.compiler.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.StackDepthAnalyzer;
+
+/**
+ * Prints a compiled program as Jasmin assembly.
+ *
+ * @author Leslie Marxen
+ */
+public class JasminPrinter implements Opcodes{
+
+    /**
+     * Prints the whole class.
+     * @param cls The compiled program.
+     * @return The Jasmin assembly, one directive or instruction per element.
+     */
+    public List<String> print(ClassModel cls){
+        List<String> asm = new ArrayList<>();
+
+        asm.add(".class public " + cls.getName());
+        asm.add(".super " + cls.getSuperName());
+
+        for (FieldModel f : cls.getFields()) {
+            asm.add(".field " + accessModifiers(f.getAccess()) + f.getName() + " " + f.getDescriptor());
+        }
+
+        for (MethodModel m : cls.getMethods()) {
+            asm.add(".method " + accessModifiers(m.getAccess()) + m.getSignature());
+            List<Instruction> exitHandler = m.getExitHandler();
+            int maxStack = m.getMaxStack();
+            if(!exitHandler.isEmpty()){
+                maxStack = Math.max(maxStack, new StackDepthAnalyzer(exitHandler, 1).analyze());
+            }
+            asm.add(".limit stack " + maxStack);
+            asm.add(".limit locals " + m.getMaxLocals());
+
+            Label start = new Label("ExitStart");
+            Label handler = new Label("ExitHandler");
+            if(!exitHandler.isEmpty()){
+                asm.add(".catch all from " + start + " to " + handler + " using " + handler);
+                asm.add(Instruction.label(start).toString());
+            }
+            for (Instruction insn : m.getCode()) {
+                asm.add(insn.toString());
+            }
+            if(!exitHandler.isEmpty()){
+                asm.add(Instruction.label(handler).toString());
+                for (Instruction insn : exitHandler) {
+                    asm.add(insn.toString());
+                }
+            }
+            asm.add(".end method");
+        }
+
+        return asm;
+    }
+
+    private static String accessModifiers(int access){
+        StringBuilder sb = new StringBuilder();
+        if((access & ACC_PUBLIC) != 0){
+            sb.append("public ");
+        }
+        if((access & ACC_STATIC) != 0){
+            sb.append("static ");
+        }
+        return sb.toString();
+    }
+}
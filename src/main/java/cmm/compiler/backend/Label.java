@@ -0,0 +1,43 @@
+package cmm.compiler.backend;
+
+/**
+ * A jump target inside the bytecode of a single method.<br>
+ * Jumps to a label that is not placed yet are remembered and get patched
+ * as soon as the label is placed, so branch offsets are resolved in one pass.
+ *
+ * @author Leslie Marxen
+ */
+public class Label{
+
+    /** Bytecode offset of the label, -1 as long as it is not placed. */
+    int position = -1;
+
+    /** Triples of (opcode offset, operand offset, operand size) of not yet patched jumps. */
+    int[] pending = new int[0];
+    int pendingCount = 0;
+
+    /**
+     * Remembers a jump that has to be patched once this label is placed.
+     * @param opcodeOffset Offset of the jump instruction.
+     * @param operandOffset Offset of the branch operand.
+     * @param operandSize Size of the branch operand, 2 or 4 bytes.
+     */
+    void addPending(int opcodeOffset, int operandOffset, int operandSize){
+        if(pendingCount * 3 == pending.length){
+            int[] tmp = new int[Math.max(6, pending.length * 2)];
+            System.arraycopy(pending, 0, tmp, 0, pending.length);
+            pending = tmp;
+        }
+        pending[pendingCount * 3] = opcodeOffset;
+        pending[pendingCount * 3 + 1] = operandOffset;
+        pending[pendingCount * 3 + 2] = operandSize;
+        pendingCount++;
+    }
+
+    /**
+     * @return true if the label was allready placed within the code.
+     */
+    public boolean isPlaced(){
+        return position >= 0;
+    }
+}
@@ -0,0 +1,379 @@
+package cmm.compiler.backend;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles the bytecode of a single method directly into a byte array.
+ * Every emitting method picks the shortest encoding of the given instruction.
+ * Jumps use 2 byte offsets unless wide jumps are enabled, if an offset does not
+ * fit, {@link #hasBranchOverflow()} tells to assemble the method again with wide jumps.
+ *
+ * @author Leslie Marxen
+ */
+public class MethodWriter implements Opcodes{
+
+    private final ConstantPool pool;
+    private final int access;
+    private final int nameIndex;
+    private final int descriptorIndex;
+
+    private byte[] code;
+    private int length;
+
+    private int maxStack;
+    private int maxLocals;
+
+    private boolean wideJumps;
+    private boolean branchOverflow;
+
+    /** Triples of (start, end, handler) of the exception table. */
+    private final List<Label> exceptionTable;
+
+    /**
+     * Created by {@link ClassFileWriter#addMethod}.
+     */
+    MethodWriter(ConstantPool pool, int access, String name, String descriptor){
+        this.pool = pool;
+        this.access = access;
+        this.nameIndex = pool.addUtf8(name);
+        this.descriptorIndex = pool.addUtf8(descriptor);
+        this.code = new byte[64];
+        this.length = 0;
+        this.exceptionTable = new ArrayList<>();
+    }
+
+    /**
+     * Sets the maximum operand stack depth of this method.
+     * @param maxStack The maximum depth.
+     */
+    public void setMaxStack(int maxStack){
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Sets the size of the local variable array of this method.
+     * @param maxLocals The amount of local slots.
+     */
+    public void setMaxLocals(int maxLocals){
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * Emits every jump with a 4 byte offset, a conditional jump as the inverted
+     * condition skipping a {@code goto_w}.
+     * @param wideJumps true for methods larger than the 2 byte offsets reach.
+     */
+    public void setWideJumps(boolean wideJumps){
+        this.wideJumps = wideJumps;
+    }
+
+    /**
+     * @return true if the offset of a jump did not fit into 2 bytes, the code is invalid then.
+     */
+    public boolean hasBranchOverflow(){
+        return branchOverflow;
+    }
+
+    /**
+     * Discards the code emitted so far, to assemble the method again.
+     * Labels of the discarded code must not be used anymore.
+     */
+    public void reset(){
+        length = 0;
+        branchOverflow = false;
+        exceptionTable.clear();
+    }
+
+    /**
+     * @return The current size of the bytecode in bytes.
+     */
+    public int getCodeLength(){
+        return length;
+    }
+
+    /**
+     * Emits an instruction without operands f.e. {@code iadd}.
+     * @param opcode The opcode.
+     */
+    public void instruction(int opcode){
+        putByte(opcode);
+    }
+
+    /**
+     * Emits an instruction with an immediate integer operand ({@code bipush, sipush}).
+     * @param opcode The opcode.
+     * @param operand The immediate value.
+     */
+    public void intInstruction(int opcode, int operand){
+        putByte(opcode);
+        if(opcode == SIPUSH){
+            putShort(operand);
+        } else {
+            putByte(operand);
+        }
+    }
+
+    /**
+     * Emits an instruction accessing the local variable array.
+     * Uses the one byte forms for the first four slots and {@code wide} for large indices.
+     * @param opcode One of {@code iload, aload, istore, astore}.
+     * @param index The local variable index.
+     */
+    public void localInstruction(int opcode, int index){
+        if(index < 4){
+            putByte(shortForm(opcode) + index);
+        } else if(index <= 0xFF){
+            putByte(opcode);
+            putByte(index);
+        } else {
+            putByte(WIDE);
+            putByte(opcode);
+            putShort(index);
+        }
+    }
+
+    /**
+     * Emits an {@code iinc} instruction, widened if necessary.
+     * @param index The local variable index.
+     * @param increment The signed increment.
+     */
+    public void iincInstruction(int index, int increment){
+        if(index <= 0xFF && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE){
+            putByte(IINC);
+            putByte(index);
+            putByte(increment);
+        } else {
+            putByte(WIDE);
+            putByte(IINC);
+            putShort(index);
+            putShort(increment);
+        }
+    }
+
+    /**
+     * Loads an integer constant from the constant pool.
+     * @param value The constant.
+     */
+    public void ldcInstruction(int value){
+        constantInstruction(pool.addInteger(value));
+    }
+
+    /**
+     * Loads a string constant from the constant pool.
+     * @param value The constant.
+     */
+    public void ldcInstruction(String value){
+        constantInstruction(pool.addString(value));
+    }
+
+    /**
+     * Emits an instruction referencing a class f.e. {@code new}.
+     * @param opcode The opcode.
+     * @param internalName Internal name of the class.
+     */
+    public void typeInstruction(int opcode, String internalName){
+        putByte(opcode);
+        putShort(pool.addClass(internalName));
+    }
+
+    /**
+     * Emits a field access instruction.
+     * @param opcode One of {@code getfield, putfield, getstatic, putstatic}.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the field.
+     * @param descriptor Type descriptor of the field.
+     */
+    public void fieldInstruction(int opcode, String owner, String name, String descriptor){
+        putByte(opcode);
+        putShort(pool.addFieldref(owner, name, descriptor));
+    }
+
+    /**
+     * Emits a method invocation.
+     * @param opcode One of {@code invokevirtual, invokespecial, invokestatic}.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the method.
+     * @param descriptor Method descriptor.
+     */
+    public void methodInstruction(int opcode, String owner, String name, String descriptor){
+        putByte(opcode);
+        putShort(pool.addMethodref(owner, name, descriptor));
+    }
+
+    /**
+     * Emits a conditional or unconditional jump. If the target is not placed yet
+     * the offset is patched as soon as it is.
+     * @param opcode The jump opcode.
+     * @param target The jump target.
+     */
+    public void jumpInstruction(int opcode, Label target){
+        if(wideJumps){
+            if(opcode != GOTO){
+                putByte(invertedCondition(opcode));
+                putShort(8);
+            }
+            int opcodeOffset = length;
+            putByte(GOTO_W);
+            if(target.isPlaced()){
+                putInt(target.position - opcodeOffset);
+            } else {
+                target.addPending(opcodeOffset, length, 4);
+                putInt(0);
+            }
+            return;
+        }
+
+        int opcodeOffset = length;
+        putByte(opcode);
+        if(target.isPlaced()){
+            putShort(checkedOffset(target.position - opcodeOffset));
+        } else {
+            target.addPending(opcodeOffset, length, 2);
+            putShort(0);
+        }
+    }
+
+    /**
+     * Places a label at the current position and patches all jumps waiting for it.
+     * @param label The label.
+     */
+    public void placeLabel(Label label){
+        if(label.isPlaced()){
+            throw new IllegalStateException("Label placed twice");
+        }
+        label.position = length;
+        for(int i = 0; i < label.pendingCount; i++){
+            int opcodeOffset = label.pending[i * 3];
+            int operandOffset = label.pending[i * 3 + 1];
+            int offset = length - opcodeOffset;
+            if(label.pending[i * 3 + 2] == 4){
+                code[operandOffset] = (byte) (offset >>> 24);
+                code[operandOffset + 1] = (byte) (offset >>> 16);
+                operandOffset += 2;
+            } else {
+                offset = checkedOffset(offset);
+            }
+            code[operandOffset] = (byte) (offset >>> 8);
+            code[operandOffset + 1] = (byte) offset;
+        }
+        label.pending = null;
+        label.pendingCount = 0;
+    }
+
+    /**
+     * Adds an exception handler catching every exception, like {@code finally} does.
+     * The labels have to be placed before the method is written.
+     * @param start The first instruction covered by the handler.
+     * @param end The instruction after the last one covered.
+     * @param handler The first instruction of the handler.
+     */
+    public void exceptionHandler(Label start, Label end, Label handler){
+        exceptionTable.add(start);
+        exceptionTable.add(end);
+        exceptionTable.add(handler);
+    }
+
+    /**
+     * Writes the complete method_info structure including the Code attribute.
+     * @param out Destination.
+     * @param codeAttributeName Constant pool index of the utf8 {@code Code}.
+     * @throws IOException If out can not be written to.
+     */
+    void writeTo(DataOutputStream out, int codeAttributeName) throws IOException{
+        if(length > 0xFFFF){
+            throw new IllegalStateException("Method too large");
+        }
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1); // attributes_count
+
+        out.writeShort(codeAttributeName);
+        out.writeInt(12 + length + exceptionTable.size() / 3 * 8);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(exceptionTable.size() / 3); // exception_table_length
+        for (int i = 0; i < exceptionTable.size(); i++) {
+            Label label = exceptionTable.get(i);
+            if(!label.isPlaced()){
+                throw new IllegalStateException("Exception handler label not placed");
+            }
+            out.writeShort(label.position);
+            if(i % 3 == 2){
+                out.writeShort(0); // catch_type, any exception
+            }
+        }
+        out.writeShort(0); // attributes_count
+    }
+
+    private void constantInstruction(int index){
+        if(index <= 0xFF){
+            putByte(LDC);
+            putByte(index);
+        } else {
+            putByte(LDC_W);
+            putShort(index);
+        }
+    }
+
+    private static int shortForm(int opcode){
+        switch(opcode){
+            case ILOAD:  return ILOAD_0;
+            case ALOAD:  return ALOAD_0;
+            case ISTORE: return ISTORE_0;
+            case ASTORE: return ASTORE_0;
+            default: throw new IllegalArgumentException("Not a local variable instruction: " + opcode);
+        }
+    }
+
+    private int checkedOffset(int offset){
+        if(offset < Short.MIN_VALUE || offset > Short.MAX_VALUE){
+            branchOverflow = true;
+        }
+        return offset;
+    }
+
+    /**
+     * @return the jump taken exactly when the given conditional jump is not taken.
+     */
+    private static int invertedCondition(int opcode){
+        if(opcode >= IFEQ && opcode <= IF_ICMPLE){
+            // Conditions come in pairs of opposites, ifeq and ifne, iflt and ifge...
+            return IFEQ + ((opcode - IFEQ) ^ 1);
+        }
+        switch(opcode){
+            case IFNULL:    return IFNONNULL;
+            case IFNONNULL: return IFNULL;
+            default: throw new IllegalArgumentException("Not a conditional jump: " + opcode);
+        }
+    }
+
+    private void putByte(int b){
+        ensureCapacity(1);
+        code[length++] = (byte) b;
+    }
+
+    private void putShort(int s){
+        ensureCapacity(2);
+        code[length++] = (byte) (s >>> 8);
+        code[length++] = (byte) s;
+    }
+
+    private void putInt(int i){
+        putShort(i >>> 16);
+        putShort(i);
+    }
+
+    private void ensureCapacity(int n){
+        if(length + n > code.length){
+            byte[] tmp = new byte[Math.max(code.length * 2, length + n)];
+            System.arraycopy(code, 0, tmp, 0, length);
+            code = tmp;
+        }
+    }
+}
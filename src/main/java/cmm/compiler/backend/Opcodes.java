@@ -0,0 +1,105 @@
+package cmm.compiler.backend;
+
+/**
+ * Numeric JVM opcodes and access flags used by the classfile backend.
+ * Only the instructions the compiler is able to emit are listed here.
+ *
+ * @author Leslie Marxen
+ */
+public interface Opcodes{
+
+    // Access flags
+    int ACC_PUBLIC = 0x0001;
+    int ACC_STATIC = 0x0008;
+    int ACC_SUPER  = 0x0020;
+
+    // Constants
+    int NOP       = 0;
+    int ICONST_M1 = 2;
+    int ICONST_0  = 3;
+    int ICONST_1  = 4;
+    int ICONST_2  = 5;
+    int ICONST_3  = 6;
+    int ICONST_4  = 7;
+    int ICONST_5  = 8;
+    int BIPUSH    = 16;
+    int SIPUSH    = 17;
+    int LDC       = 18;
+    int LDC_W     = 19;
+
+    // Locals
+    int ILOAD   = 21;
+    int ALOAD   = 25;
+    int ILOAD_0 = 26;
+    int ALOAD_0 = 42;
+    int ISTORE  = 54;
+    int ASTORE  = 58;
+    int ISTORE_0 = 59;
+    int ASTORE_0 = 75;
+
+    // Stack
+    int POP  = 87;
+    int DUP  = 89;
+    int SWAP = 95;
+
+    // Arrays
+    int BALOAD   = 51;
+    int BASTORE  = 84;
+    int NEWARRAY = 188;
+    int ARRAYLENGTH = 190;
+    int T_BYTE   = 8;
+
+    // Arithmetic
+    int IADD = 96;
+    int ISUB = 100;
+    int IMUL = 104;
+    int IDIV = 108;
+    int IREM = 112;
+    int LMUL = 105;
+    int INEG = 116;
+    int ISHL = 120;
+    int ISHR = 122;
+    int LSHR = 123;
+    int IUSHR = 124;
+    int IAND = 126;
+    int IOR  = 128;
+    int IXOR = 130;
+    int IINC = 132;
+    int I2L  = 133;
+    int L2I  = 136;
+
+    // Branches
+    int IFEQ      = 153;
+    int IFNE      = 154;
+    int IFLT      = 155;
+    int IFGE      = 156;
+    int IFGT      = 157;
+    int IFLE      = 158;
+    int IF_ICMPEQ = 159;
+    int IF_ICMPNE = 160;
+    int IF_ICMPLT = 161;
+    int IF_ICMPGE = 162;
+    int IF_ICMPGT = 163;
+    int IF_ICMPLE = 164;
+    int GOTO      = 167;
+    int IFNULL    = 198;
+    int IFNONNULL = 199;
+    int GOTO_W    = 200;
+
+    // Returns
+    int IRETURN = 172;
+    int RETURN  = 177;
+    int ATHROW  = 191;
+
+    // Members and objects
+    int GETSTATIC     = 178;
+    int PUTSTATIC     = 179;
+    int GETFIELD      = 180;
+    int PUTFIELD      = 181;
+    int INVOKEVIRTUAL = 182;
+    int INVOKESPECIAL = 183;
+    int INVOKESTATIC  = 184;
+    int NEW           = 187;
+
+    int WIDE = 196;
+}
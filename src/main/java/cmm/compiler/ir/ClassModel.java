@@ -0,0 +1,85 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The intermediate representation of a whole compiled C-- program.
+ * It is consumed by the Jasmin printer as well as the classfile writer.
+ *
+ * @author Leslie Marxen
+ */
+public class ClassModel{
+    private final String name;
+    private final String superName;
+    private final List<FieldModel> fields;
+    private final List<MethodModel> methods;
+
+    /**
+     * Constructor
+     * @param name Internal name of the class.
+     * @param superName Internal name of the superclass.
+     */
+    public ClassModel(String name, String superName){
+        this.name = name;
+        this.superName = superName;
+        this.fields = new ArrayList<>();
+        this.methods = new ArrayList<>();
+    }
+
+    /**
+     * @return the internal name of the class
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the internal name of the superclass
+     */
+    public String getSuperName(){
+        return superName;
+    }
+
+    /**
+     * @return all fields in declaration order
+     */
+    public List<FieldModel> getFields(){
+        return fields;
+    }
+
+    /**
+     * @return all methods in declaration order
+     */
+    public List<MethodModel> getMethods(){
+        return methods;
+    }
+
+    /**
+     * @param field the field to add
+     */
+    public void addField(FieldModel field){
+        fields.add(field);
+    }
+
+    /**
+     * @param method the method to add
+     */
+    public void addMethod(MethodModel method){
+        methods.add(method);
+    }
+
+    /**
+     * Looks up a method by name and descriptor.
+     * @param signature name and descriptor f.e. {@code foo(I)V}
+     * @return the method or null if not existing
+     */
+    public MethodModel getMethod(String signature){
+        for (MethodModel m : methods) {
+            if(m.getSignature().equals(signature)){
+                return m;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,189 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the code of a method into basic blocks and connects them by their jumps.<br>
+ * A block starts at the first instruction, at every label and after every jump
+ * or return. It ends before the next start. The blocks refer to index ranges of
+ * the analyzed code, so the graph is only valid until the code is changed.
+ *
+ * @author Leslie Marxen
+ */
+public class ControlFlowGraph{
+
+    /**
+     * A sequence of instructions that is always executed from its first to its last instruction.
+     */
+    public static final class BasicBlock{
+        private final int index;
+        private final int start;
+        private int end;
+        private final List<BasicBlock> successors;
+        private final List<BasicBlock> predecessors;
+
+        private BasicBlock(int index, int start){
+            this.index = index;
+            this.start = start;
+            this.successors = new ArrayList<>(2);
+            this.predecessors = new ArrayList<>(2);
+        }
+
+        /**
+         * @return the position of the block within {@link ControlFlowGraph#getBlocks()}
+         */
+        public int getIndex(){
+            return index;
+        }
+
+        /**
+         * @return the index of the first instruction
+         */
+        public int getStart(){
+            return start;
+        }
+
+        /**
+         * @return the index after the last instruction
+         */
+        public int getEnd(){
+            return end;
+        }
+
+        /**
+         * @return the blocks control may continue with, the fall through block first
+         */
+        public List<BasicBlock> getSuccessors(){
+            return successors;
+        }
+
+        /**
+         * @return the blocks that may continue with this block
+         */
+        public List<BasicBlock> getPredecessors(){
+            return predecessors;
+        }
+
+        @Override
+        public String toString(){
+            return "B" + index + "[" + start + ", " + end + ")";
+        }
+    }
+
+    private final List<Instruction> code;
+    private final List<BasicBlock> blocks;
+    private final BasicBlock[] blockOf;
+
+    /**
+     * Builds the graph.
+     * @param code The instructions of a method.
+     * @throws IllegalStateException if a jump targets an undefined label.
+     */
+    public ControlFlowGraph(List<Instruction> code){
+        this.code = code;
+        this.blocks = new ArrayList<>();
+        this.blockOf = new BasicBlock[code.size()];
+
+        Map<Label, BasicBlock> labels = new IdentityHashMap<>();
+        BasicBlock current = null;
+        boolean hasCode = false;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction insn = code.get(i);
+            Opcode op = insn.getOpcode();
+
+            // Consecutive labels share a block
+            if(current == null || (op == Opcode.LABEL && hasCode)){
+                current = newBlock(i);
+                hasCode = false;
+            }
+            blockOf[i] = current;
+            current.end = i + 1;
+
+            if(op == Opcode.LABEL){
+                labels.put(insn.getLabel(), current);
+            } else {
+                hasCode = true;
+            }
+            if(op.isJump() || op.isUnconditionalTransfer()){
+                current = null;
+            }
+        }
+
+        for (BasicBlock b : blocks) {
+            Instruction last = code.get(b.end - 1);
+            if(!last.getOpcode().isUnconditionalTransfer() && b.end < code.size()){
+                connect(b, blockOf[b.end]);
+            }
+            if(last.getOpcode().isJump()){
+                BasicBlock target = labels.get(last.getLabel());
+                if(target == null){
+                    throw new IllegalStateException("Undefined label " + last.getLabel());
+                }
+                connect(b, target);
+            }
+        }
+    }
+
+    private BasicBlock newBlock(int start){
+        BasicBlock b = new BasicBlock(blocks.size(), start);
+        blocks.add(b);
+        return b;
+    }
+
+    private static void connect(BasicBlock from, BasicBlock to){
+        if(!from.successors.contains(to)){
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+
+    /**
+     * @return the analyzed code
+     */
+    public List<Instruction> getCode(){
+        return code;
+    }
+
+    /**
+     * @return all blocks in the order of the code, the entry block first
+     */
+    public List<BasicBlock> getBlocks(){
+        return blocks;
+    }
+
+    /**
+     * @param index The index of an instruction.
+     * @return The block containing the instruction.
+     */
+    public BasicBlock getBlock(int index){
+        return blockOf[index];
+    }
+
+    /**
+     * Determines which blocks can be reached from the entry block.
+     * @return Indexed by {@link BasicBlock#getIndex()}, true if reachable.
+     */
+    public boolean[] reachableBlocks(){
+        boolean[] reachable = new boolean[blocks.size()];
+        if(blocks.isEmpty()){
+            return reachable;
+        }
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        reachable[0] = true;
+        worklist.push(blocks.get(0));
+        while(!worklist.isEmpty()){
+            for (BasicBlock s : worklist.pop().successors) {
+                if(!reachable[s.index]){
+                    reachable[s.index] = true;
+                    worklist.push(s);
+                }
+            }
+        }
+        return reachable;
+    }
+}
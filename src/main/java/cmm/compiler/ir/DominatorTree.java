@@ -0,0 +1,207 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+
+/**
+ * Determines which blocks dominate each other, a block dominates another one if
+ * every path from the entry to the other block passes through it.<br>
+ * The immediate dominators are computed iteratively over the reverse postorder,
+ * see Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm". Blocks
+ * not reachable from the entry are not part of the tree.
+ *
+ * @author Leslie Marxen
+ */
+public class DominatorTree{
+
+    private final ControlFlowGraph cfg;
+    private final List<BasicBlock> reversePostOrder;
+    private final int[] order;
+    private final BasicBlock[] idom;
+    private final List<List<BasicBlock>> children;
+    private final BitSet[] frontier;
+
+    /**
+     * Analyzes a method.
+     * @param cfg The control flow graph of the method.
+     */
+    public DominatorTree(ControlFlowGraph cfg){
+        this.cfg = cfg;
+        int n = cfg.getBlocks().size();
+        reversePostOrder = computeReversePostOrder();
+        order = new int[n];
+        idom = new BasicBlock[n];
+        children = new ArrayList<>();
+        frontier = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = -1;
+            children.add(new ArrayList<>());
+            frontier[i] = new BitSet();
+        }
+        if(reversePostOrder.isEmpty()){
+            return;
+        }
+        for (int i = 0; i < reversePostOrder.size(); i++) {
+            order[reversePostOrder.get(i).getIndex()] = i;
+        }
+
+        BasicBlock entry = reversePostOrder.get(0);
+        idom[entry.getIndex()] = entry;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for (BasicBlock b : reversePostOrder.subList(1, reversePostOrder.size())) {
+                BasicBlock dom = null;
+                for (BasicBlock p : b.getPredecessors()) {
+                    if(idom[p.getIndex()] != null){
+                        dom = (dom == null) ? p : intersect(p, dom);
+                    }
+                }
+                if(idom[b.getIndex()] != dom){
+                    idom[b.getIndex()] = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        // The entry has no immediate dominator, so a walk up the tree ends above it
+        idom[entry.getIndex()] = null;
+        for (BasicBlock b : reversePostOrder.subList(1, reversePostOrder.size())) {
+            children.get(idom[b.getIndex()].getIndex()).add(b);
+        }
+
+        // A join point is in the frontier of every block between its predecessors and its immediate dominator
+        for (BasicBlock b : reversePostOrder) {
+            List<BasicBlock> preds = reachable(b.getPredecessors());
+            if(preds.size() < 2 && !(b == entry && !preds.isEmpty())){
+                continue;
+            }
+            for (BasicBlock p : preds) {
+                for (BasicBlock runner = p; runner != idom[b.getIndex()]; runner = idom[runner.getIndex()]) {
+                    frontier[runner.getIndex()].set(b.getIndex());
+                    if(runner == entry){
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private List<BasicBlock> computeReversePostOrder(){
+        List<BasicBlock> postOrder = new ArrayList<>();
+        if(cfg.getBlocks().isEmpty()){
+            return postOrder;
+        }
+        boolean[] visited = new boolean[cfg.getBlocks().size()];
+        Deque<BasicBlock> blocks = new ArrayDeque<>();
+        Deque<Integer> next = new ArrayDeque<>();
+        BasicBlock entry = cfg.getBlocks().get(0);
+        visited[entry.getIndex()] = true;
+        blocks.push(entry);
+        next.push(0);
+        while(!blocks.isEmpty()){
+            BasicBlock b = blocks.peek();
+            int i = next.pop();
+            if(i < b.getSuccessors().size()){
+                next.push(i + 1);
+                BasicBlock s = b.getSuccessors().get(i);
+                if(!visited[s.getIndex()]){
+                    visited[s.getIndex()] = true;
+                    blocks.push(s);
+                    next.push(0);
+                }
+            } else {
+                postOrder.add(blocks.pop());
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b){
+        while(a != b){
+            while(order[a.getIndex()] > order[b.getIndex()]){
+                a = idom[a.getIndex()];
+            }
+            while(order[b.getIndex()] > order[a.getIndex()]){
+                b = idom[b.getIndex()];
+            }
+        }
+        return a;
+    }
+
+    private List<BasicBlock> reachable(List<BasicBlock> blocks){
+        List<BasicBlock> result = new ArrayList<>();
+        for (BasicBlock b : blocks) {
+            if(isReachable(b)){
+                result.add(b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the analyzed control flow graph
+     */
+    public ControlFlowGraph getControlFlowGraph(){
+        return cfg;
+    }
+
+    /**
+     * @return the blocks reachable from the entry in reverse postorder, every block after its dominators
+     */
+    public List<BasicBlock> getReversePostOrder(){
+        return reversePostOrder;
+    }
+
+    /**
+     * @return true if the block can be reached from the entry
+     */
+    public boolean isReachable(BasicBlock b){
+        return order[b.getIndex()] >= 0;
+    }
+
+    /**
+     * @return the closest strict dominator of a block, null for the entry and unreachable blocks
+     */
+    public BasicBlock getImmediateDominator(BasicBlock b){
+        return idom[b.getIndex()];
+    }
+
+    /**
+     * @return the blocks immediately dominated by a block
+     */
+    public List<BasicBlock> getChildren(BasicBlock b){
+        return children.get(b.getIndex());
+    }
+
+    /**
+     * @return true if every path from the entry to b passes through a, a block dominates itself
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b){
+        if(!isReachable(a) || !isReachable(b)){
+            return false;
+        }
+        for (BasicBlock runner = b; runner != null; runner = idom[runner.getIndex()]) {
+            if(runner == a){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The dominance frontier of a block contains the blocks where its dominance ends,
+     * the blocks with a predecessor dominated by it that are not strictly dominated themselves.
+     * @return the indices of the blocks within the dominance frontier
+     */
+    public BitSet getFrontier(BasicBlock b){
+        return frontier[b.getIndex()];
+    }
+}
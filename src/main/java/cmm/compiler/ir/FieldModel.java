@@ -0,0 +1,45 @@
+package cmm.compiler.ir;
+
+/**
+ * A field of a compiled class.
+ *
+ * @author Leslie Marxen
+ */
+public class FieldModel{
+    private final int access;
+    private final String name;
+    private final String descriptor;
+
+    /**
+     * Constructor
+     * @param access Access flags.
+     * @param name Name of the field.
+     * @param descriptor Type descriptor f.e. {@code I}.
+     */
+    public FieldModel(int access, String name, String descriptor){
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * @return the access flags
+     */
+    public int getAccess(){
+        return access;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the descriptor
+     */
+    public String getDescriptor(){
+        return descriptor;
+    }
+}
@@ -0,0 +1,292 @@
+package cmm.compiler.ir;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import cmm.compiler.ir.Opcode.Kind;
+
+/**
+ * A single immutable instruction of the intermediate representation.
+ * Depending on the {@link Opcode.Kind} of its opcode an instruction carries
+ * an integer operand, a label, or a member reference.<br>
+ * Instructions without operands are shared, creating them allocates nothing.
+ *
+ * @author Leslie Marxen
+ */
+public final class Instruction{
+
+    private static final Map<Opcode, Instruction> SIMPLE = new EnumMap<>(Opcode.class);
+
+    static {
+        for (Opcode op : Opcode.values()) {
+            if(op.getKind() == Kind.NONE){
+                SIMPLE.put(op, new Instruction(op, 0, 0, null, null, null, null));
+            }
+        }
+    }
+
+    /** Jasmin names of the primitive array types, indexed by their type code minus 4. */
+    private static final String[] ARRAY_TYPES = {
+        "boolean", "char", "float", "double", "byte", "short", "int", "long"
+    };
+
+    private static final Opcode[] ICONSTS = {
+        Opcode.ICONST_M1, Opcode.ICONST_0, Opcode.ICONST_1, Opcode.ICONST_2,
+        Opcode.ICONST_3, Opcode.ICONST_4, Opcode.ICONST_5
+    };
+
+    private final Opcode opcode;
+    private final int operand;
+    private final int increment;
+    private final Label label;
+    private final String owner;
+    private final String name;
+    private final String descriptor;
+
+    private Instruction(Opcode opcode, int operand, int increment, Label label, String owner, String name, String descriptor){
+        this.opcode = opcode;
+        this.operand = operand;
+        this.increment = increment;
+        this.label = label;
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Returns an instruction without operands.
+     * @param opcode An opcode of kind {@code NONE}.
+     * @return The shared instruction.
+     */
+    public static Instruction of(Opcode opcode){
+        Instruction insn = SIMPLE.get(opcode);
+        if(insn == null){
+            throw new IllegalArgumentException(opcode + " requires operands");
+        }
+        return insn;
+    }
+
+    /**
+     * Creates an instruction with an integer constant ({@code bipush, sipush, ldc}).
+     * @param opcode An opcode of kind {@code INT}.
+     * @param value The constant.
+     * @return The instruction.
+     */
+    public static Instruction constant(Opcode opcode, int value){
+        check(opcode, Kind.INT);
+        return new Instruction(opcode, value, 0, null, null, null, null);
+    }
+
+    /**
+     * Creates the shortest instruction loading an integer constant.
+     * Uses {@code iconst_m1..iconst_5}, {@code bipush} and {@code sipush} 
+     * and only falls back to {@code ldc} for values outside of 16 bit.
+     * @param value The constant.
+     * @return The instruction.
+     */
+    public static Instruction push(int value){
+        if(value >= -1 && value <= 5){
+            return of(ICONSTS[value + 1]);
+        }
+        if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+            return constant(Opcode.BIPUSH, value);
+        }
+        if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+            return constant(Opcode.SIPUSH, value);
+        }
+        return constant(Opcode.LDC, value);
+    }
+
+    /**
+     * Determines the value loaded by a constant instruction.
+     * @return The value or null if the instruction does not load an integer constant.
+     */
+    public Integer getConstantValue(){
+        switch(opcode){
+            case ICONST_M1: return -1;
+            case ICONST_0: return 0;
+            case ICONST_1: return 1;
+            case ICONST_2: return 2;
+            case ICONST_3: return 3;
+            case ICONST_4: return 4;
+            case ICONST_5: return 5;
+            case BIPUSH: case SIPUSH: case LDC:
+                return operand;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates an instruction allocating an array of a primitive type.
+     * @param type The type code f.e. {@link cmm.compiler.backend.Opcodes#T_BYTE}.
+     * @return The instruction.
+     */
+    public static Instruction newArray(int type){
+        return new Instruction(Opcode.NEWARRAY, type, 0, null, null, null, null);
+    }
+
+    /**
+     * Creates an instruction accessing a local variable.
+     * @param opcode An opcode of kind {@code LOCAL}.
+     * @param index The local variable index.
+     * @return The instruction.
+     */
+    public static Instruction local(Opcode opcode, int index){
+        check(opcode, Kind.LOCAL);
+        return new Instruction(opcode, index, 0, null, null, null, null);
+    }
+
+    /**
+     * Creates an {@code iinc} instruction.
+     * @param index The local variable index.
+     * @param increment The signed increment.
+     * @return The instruction.
+     */
+    public static Instruction iinc(int index, int increment){
+        return new Instruction(Opcode.IINC, index, increment, null, null, null, null);
+    }
+
+    /**
+     * Creates a jump to a label.
+     * @param opcode An opcode of kind {@code JUMP}.
+     * @param target The jump target.
+     * @return The instruction.
+     */
+    public static Instruction jump(Opcode opcode, Label target){
+        check(opcode, Kind.JUMP);
+        return new Instruction(opcode, 0, 0, target, null, null, null);
+    }
+
+    /**
+     * Creates the pseudo instruction placing a label.
+     * @param label The label.
+     * @return The instruction.
+     */
+    public static Instruction label(Label label){
+        return new Instruction(Opcode.LABEL, 0, 0, label, null, null, null);
+    }
+
+    /**
+     * Creates a field access.
+     * @param opcode An opcode of kind {@code FIELD}.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the field.
+     * @param descriptor Type descriptor of the field.
+     * @return The instruction.
+     */
+    public static Instruction field(Opcode opcode, String owner, String name, String descriptor){
+        check(opcode, Kind.FIELD);
+        return new Instruction(opcode, 0, 0, null, owner, name, descriptor);
+    }
+
+    /**
+     * Creates a method invocation.
+     * @param opcode An opcode of kind {@code METHOD}.
+     * @param owner Internal name of the declaring class.
+     * @param name Name of the method.
+     * @param descriptor Method descriptor.
+     * @return The instruction.
+     */
+    public static Instruction invoke(Opcode opcode, String owner, String name, String descriptor){
+        check(opcode, Kind.METHOD);
+        return new Instruction(opcode, 0, 0, null, owner, name, descriptor);
+    }
+
+    /**
+     * Creates an instruction referencing a class.
+     * @param opcode An opcode of kind {@code TYPE}.
+     * @param internalName Internal name of the class.
+     * @return The instruction.
+     */
+    public static Instruction type(Opcode opcode, String internalName){
+        check(opcode, Kind.TYPE);
+        return new Instruction(opcode, 0, 0, null, internalName, null, null);
+    }
+
+    private static void check(Opcode opcode, Kind kind){
+        if(opcode.getKind() != kind){
+            throw new IllegalArgumentException(opcode + " is not of kind " + kind);
+        }
+    }
+
+    /**
+     * @return the opcode
+     */
+    public Opcode getOpcode(){
+        return opcode;
+    }
+
+    /**
+     * @return the integer constant or local variable index
+     */
+    public int getOperand(){
+        return operand;
+    }
+
+    /**
+     * @return the increment of an {@code iinc}
+     */
+    public int getIncrement(){
+        return increment;
+    }
+
+    /**
+     * @return the jump target or placed label
+     */
+    public Label getLabel(){
+        return label;
+    }
+
+    /**
+     * @return the internal name of the referenced class
+     */
+    public String getOwner(){
+        return owner;
+    }
+
+    /**
+     * @return the name of the referenced member
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the descriptor of the referenced member
+     */
+    public String getDescriptor(){
+        return descriptor;
+    }
+
+    /**
+     * Returns the instruction in Jasmin syntax.
+     */
+    @Override
+    public String toString(){
+        String mnemonic = opcode.getMnemonic();
+        switch(opcode.getKind()){
+            case INT:
+                if(opcode == Opcode.NEWARRAY){
+                    return mnemonic + " " + ARRAY_TYPES[operand - 4];
+                }
+                return mnemonic + " " + operand;
+            case LOCAL:
+                return mnemonic + " " + operand;
+            case IINC:
+                return mnemonic + " " + operand + " " + increment;
+            case JUMP:
+                return mnemonic + " " + label.getName();
+            case LABEL:
+                return label.getName() + ":";
+            case FIELD:
+                return mnemonic + " " + owner + "/" + name + " " + descriptor;
+            case METHOD:
+                return mnemonic + " " + owner + "/" + name + descriptor;
+            case TYPE:
+                return mnemonic + " " + owner;
+            default:
+                return mnemonic;
+        }
+    }
+}
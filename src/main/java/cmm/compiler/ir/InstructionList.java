@@ -0,0 +1,129 @@
+package cmm.compiler.ir;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An append-only, array backed buffer for the instructions of one method.<br>
+ * Code generation appends into a single instance per method, so emitting a
+ * method costs amortized constant time per instruction and never copies
+ * partial results.
+ *
+ * @author Leslie Marxen
+ */
+public class InstructionList extends AbstractList<Instruction> implements RandomAccess{
+
+    private Instruction[] elements;
+    private int size;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public InstructionList(){
+        elements = new Instruction[32];
+        size = 0;
+    }
+
+    @Override
+    public Instruction get(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[index];
+    }
+
+    @Override
+    public Instruction set(int index, Instruction element){
+        Instruction old = get(index);
+        elements[index] = element;
+        return old;
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public boolean add(Instruction insn){
+        if(size == elements.length){
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = insn;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Instruction insn){
+        if(index < 0 || index > size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if(size == elements.length){
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = insn;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Instruction remove(int index){
+        Instruction old = get(index);
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear(){
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Appends an instruction without operands.
+     * @param opcode The opcode.
+     */
+    public void add(Opcode opcode){
+        add(Instruction.of(opcode));
+    }
+
+    /**
+     * Appends an instruction accessing a local variable.
+     * @param opcode The opcode.
+     * @param index The local variable index.
+     */
+    public void addLocal(Opcode opcode, int index){
+        add(Instruction.local(opcode, index));
+    }
+
+    /**
+     * Appends the shortest instruction loading an integer constant, see {@link Instruction#push(int)}.
+     * @param value The constant.
+     */
+    public void addConstant(int value){
+        add(Instruction.push(value));
+    }
+
+    /**
+     * Appends a jump.
+     * @param opcode The opcode.
+     * @param target The jump target.
+     */
+    public void addJump(Opcode opcode, Label target){
+        add(Instruction.jump(opcode, target));
+    }
+
+    /**
+     * Places a label at the current end of the buffer.
+     * @param label The label.
+     */
+    public void addLabel(Label label){
+        add(Instruction.label(label));
+    }
+}
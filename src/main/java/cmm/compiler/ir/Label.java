@@ -0,0 +1,31 @@
+package cmm.compiler.ir;
+
+/**
+ * A jump target within a method. Labels are compared by identity,
+ * the name is only used when the code is printed as Jasmin assembly.
+ *
+ * @author Leslie Marxen
+ */
+public final class Label{
+    private final String name;
+
+    /**
+     * Creates a label.
+     * @param name A name unique within the method.
+     */
+    public Label(String name){
+        this.name = name;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName(){
+        return name;
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
@@ -0,0 +1,136 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+
+/**
+ * Determines which local variables are live, meaning their current value may
+ * still be read before it is overwritten.<br>
+ * The analysis runs backwards over the basic blocks of a method until the live
+ * sets do not change anymore. Sets of local variables are bitsets indexed by slot.
+ *
+ * @author Leslie Marxen
+ */
+public class LivenessAnalyzer{
+
+    private final ControlFlowGraph cfg;
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    /**
+     * Analyzes a method.
+     * @param cfg The control flow graph of the method.
+     */
+    public LivenessAnalyzer(ControlFlowGraph cfg){
+        this.cfg = cfg;
+        List<BasicBlock> blocks = cfg.getBlocks();
+        liveIn = new BitSet[blocks.size()];
+        liveOut = new BitSet[blocks.size()];
+
+        // Reads before any write (gen) and writes (kill) of every block
+        BitSet[] gen = new BitSet[blocks.size()];
+        BitSet[] kill = new BitSet[blocks.size()];
+        for (BasicBlock b : blocks) {
+            BitSet g = new BitSet(), k = new BitSet();
+            for (int i = b.getEnd() - 1; i >= b.getStart(); i--) {
+                Instruction insn = cfg.getCode().get(i);
+                if(isStore(insn)){
+                    g.clear(insn.getOperand());
+                    k.set(insn.getOperand());
+                } else if(isLoad(insn)){
+                    g.set(insn.getOperand());
+                }
+            }
+            gen[b.getIndex()] = g;
+            kill[b.getIndex()] = k;
+            liveIn[b.getIndex()] = new BitSet();
+            liveOut[b.getIndex()] = new BitSet();
+        }
+
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        boolean[] queued = new boolean[blocks.size()];
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            worklist.add(blocks.get(i));
+            queued[i] = true;
+        }
+
+        while(!worklist.isEmpty()){
+            BasicBlock b = worklist.poll();
+            queued[b.getIndex()] = false;
+
+            BitSet out = liveOut[b.getIndex()];
+            for (BasicBlock s : b.getSuccessors()) {
+                out.or(liveIn[s.getIndex()]);
+            }
+
+            BitSet in = (BitSet) out.clone();
+            in.andNot(kill[b.getIndex()]);
+            in.or(gen[b.getIndex()]);
+
+            if(!in.equals(liveIn[b.getIndex()])){
+                liveIn[b.getIndex()] = in;
+                for (BasicBlock p : b.getPredecessors()) {
+                    if(!queued[p.getIndex()]){
+                        queued[p.getIndex()] = true;
+                        worklist.add(p);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the analyzed control flow graph
+     */
+    public ControlFlowGraph getControlFlowGraph(){
+        return cfg;
+    }
+
+    /**
+     * @param b A block.
+     * @return The variables live at the start of the block, must not be modified.
+     */
+    public BitSet getLiveIn(BasicBlock b){
+        return liveIn[b.getIndex()];
+    }
+
+    /**
+     * @param b A block.
+     * @return The variables live at the end of the block, must not be modified.
+     */
+    public BitSet getLiveOut(BasicBlock b){
+        return liveOut[b.getIndex()];
+    }
+
+    /**
+     * Moves a live set backwards over an instruction.
+     * @param insn The instruction.
+     * @param live The variables live after the instruction, afterwards the ones live before it.
+     */
+    public static void stepBackward(Instruction insn, BitSet live){
+        if(isStore(insn)){
+            live.clear(insn.getOperand());
+        } else if(isLoad(insn)){
+            live.set(insn.getOperand());
+        }
+    }
+
+    /**
+     * @return true if the instruction overwrites a local variable.
+     */
+    public static boolean isStore(Instruction insn){
+        return insn.getOpcode() == Opcode.ISTORE || insn.getOpcode() == Opcode.ASTORE;
+    }
+
+    /**
+     * @return true if the instruction reads a local variable, {@code iinc} included.
+     */
+    public static boolean isLoad(Instruction insn){
+        Opcode op = insn.getOpcode();
+        return op == Opcode.ILOAD || op == Opcode.ALOAD || op == Opcode.IINC;
+    }
+}
@@ -0,0 +1,122 @@
+package cmm.compiler.ir;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A method of a compiled class together with its code.
+ *
+ * @author Leslie Marxen
+ */
+public class MethodModel{
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private List<Instruction> code;
+    private List<Instruction> exitHandler;
+    private int maxStack;
+    private int maxLocals;
+
+    /**
+     * Constructor
+     * @param access Access flags.
+     * @param name Name of the method.
+     * @param descriptor Method descriptor f.e. {@code (I)V}.
+     * @param code The instructions of the method body.
+     */
+    public MethodModel(int access, String name, String descriptor, List<Instruction> code){
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.code = code;
+        this.exitHandler = Collections.emptyList();
+    }
+
+    /**
+     * @return the access flags
+     */
+    public int getAccess(){
+        return access;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the descriptor
+     */
+    public String getDescriptor(){
+        return descriptor;
+    }
+
+    /**
+     * @return name and descriptor f.e. {@code foo(I)V}
+     */
+    public String getSignature(){
+        return name + descriptor;
+    }
+
+    /**
+     * @return the code
+     */
+    public List<Instruction> getCode(){
+        return code;
+    }
+
+    /**
+     * @param code the code to set
+     */
+    public void setCode(List<Instruction> code){
+        this.code = code;
+    }
+
+    /**
+     * @return the exit handler, empty if the method has none
+     */
+    public List<Instruction> getExitHandler(){
+        return exitHandler;
+    }
+
+    /**
+     * Sets code that runs whenever an exception leaves the code of the method.
+     * It starts with the exception on the operand stack and has to end with {@code athrow}.
+     * The handler is appended behind the code by the backend and is no part of the code
+     * seen by the optimizer, so it may not jump into the code or use its locals.
+     * @param exitHandler the exit handler, empty for none
+     */
+    public void setExitHandler(List<Instruction> exitHandler){
+        this.exitHandler = exitHandler;
+    }
+
+    /**
+     * @return the maximum operand stack depth
+     */
+    public int getMaxStack(){
+        return maxStack;
+    }
+
+    /**
+     * @param maxStack the maximum operand stack depth
+     */
+    public void setMaxStack(int maxStack){
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * @return the size of the local variable array
+     */
+    public int getMaxLocals(){
+        return maxLocals;
+    }
+
+    /**
+     * @param maxLocals the size of the local variable array
+     */
+    public void setMaxLocals(int maxLocals){
+        this.maxLocals = maxLocals;
+    }
+}
@@ -0,0 +1,183 @@
+package cmm.compiler.ir;
+
+import cmm.compiler.backend.Opcodes;
+
+/**
+ * Every instruction the compiler is able to emit.
+ * The mnemonic of an instruction is its lowercase name.
+ *
+ * @author Leslie Marxen
+ */
+public enum Opcode{
+    /** Pseudo instruction marking the position of a {@link Label}. */
+    LABEL(-1, Kind.LABEL),
+
+    NOP(Opcodes.NOP, Kind.NONE),
+    ICONST_M1(Opcodes.ICONST_M1, Kind.NONE),
+    ICONST_0(Opcodes.ICONST_0, Kind.NONE),
+    ICONST_1(Opcodes.ICONST_1, Kind.NONE),
+    ICONST_2(Opcodes.ICONST_2, Kind.NONE),
+    ICONST_3(Opcodes.ICONST_3, Kind.NONE),
+    ICONST_4(Opcodes.ICONST_4, Kind.NONE),
+    ICONST_5(Opcodes.ICONST_5, Kind.NONE),
+    BIPUSH(Opcodes.BIPUSH, Kind.INT),
+    SIPUSH(Opcodes.SIPUSH, Kind.INT),
+    LDC(Opcodes.LDC, Kind.INT),
+
+    ILOAD(Opcodes.ILOAD, Kind.LOCAL),
+    ALOAD(Opcodes.ALOAD, Kind.LOCAL),
+    ISTORE(Opcodes.ISTORE, Kind.LOCAL),
+    ASTORE(Opcodes.ASTORE, Kind.LOCAL),
+    IINC(Opcodes.IINC, Kind.IINC),
+
+    POP(Opcodes.POP, Kind.NONE),
+    DUP(Opcodes.DUP, Kind.NONE),
+    SWAP(Opcodes.SWAP, Kind.NONE),
+
+    BALOAD(Opcodes.BALOAD, Kind.NONE),
+    BASTORE(Opcodes.BASTORE, Kind.NONE),
+    ARRAYLENGTH(Opcodes.ARRAYLENGTH, Kind.NONE),
+
+    IADD(Opcodes.IADD, Kind.NONE),
+    ISUB(Opcodes.ISUB, Kind.NONE),
+    IMUL(Opcodes.IMUL, Kind.NONE),
+    IDIV(Opcodes.IDIV, Kind.NONE),
+    IREM(Opcodes.IREM, Kind.NONE),
+    INEG(Opcodes.INEG, Kind.NONE),
+    IAND(Opcodes.IAND, Kind.NONE),
+    IOR(Opcodes.IOR, Kind.NONE),
+    IXOR(Opcodes.IXOR, Kind.NONE),
+    ISHL(Opcodes.ISHL, Kind.NONE),
+    ISHR(Opcodes.ISHR, Kind.NONE),
+    IUSHR(Opcodes.IUSHR, Kind.NONE),
+    I2L(Opcodes.I2L, Kind.NONE),
+    L2I(Opcodes.L2I, Kind.NONE),
+    LMUL(Opcodes.LMUL, Kind.NONE),
+    LSHR(Opcodes.LSHR, Kind.NONE),
+
+    IFEQ(Opcodes.IFEQ, Kind.JUMP),
+    IFNE(Opcodes.IFNE, Kind.JUMP),
+    IFLT(Opcodes.IFLT, Kind.JUMP),
+    IFGE(Opcodes.IFGE, Kind.JUMP),
+    IFGT(Opcodes.IFGT, Kind.JUMP),
+    IFLE(Opcodes.IFLE, Kind.JUMP),
+    IF_ICMPEQ(Opcodes.IF_ICMPEQ, Kind.JUMP),
+    IF_ICMPNE(Opcodes.IF_ICMPNE, Kind.JUMP),
+    IF_ICMPLT(Opcodes.IF_ICMPLT, Kind.JUMP),
+    IF_ICMPGE(Opcodes.IF_ICMPGE, Kind.JUMP),
+    IF_ICMPGT(Opcodes.IF_ICMPGT, Kind.JUMP),
+    IF_ICMPLE(Opcodes.IF_ICMPLE, Kind.JUMP),
+    GOTO(Opcodes.GOTO, Kind.JUMP),
+    IFNULL(Opcodes.IFNULL, Kind.JUMP),
+    IFNONNULL(Opcodes.IFNONNULL, Kind.JUMP),
+
+    IRETURN(Opcodes.IRETURN, Kind.NONE),
+    RETURN(Opcodes.RETURN, Kind.NONE),
+    ATHROW(Opcodes.ATHROW, Kind.NONE),
+
+    GETSTATIC(Opcodes.GETSTATIC, Kind.FIELD),
+    PUTSTATIC(Opcodes.PUTSTATIC, Kind.FIELD),
+    GETFIELD(Opcodes.GETFIELD, Kind.FIELD),
+    PUTFIELD(Opcodes.PUTFIELD, Kind.FIELD),
+    INVOKEVIRTUAL(Opcodes.INVOKEVIRTUAL, Kind.METHOD),
+    INVOKESPECIAL(Opcodes.INVOKESPECIAL, Kind.METHOD),
+    INVOKESTATIC(Opcodes.INVOKESTATIC, Kind.METHOD),
+    NEW(Opcodes.NEW, Kind.TYPE),
+    /** Creates an array of the primitive type given as operand, f.e. {@link Opcodes#T_BYTE}. */
+    NEWARRAY(Opcodes.NEWARRAY, Kind.INT);
+
+    /**
+     * Describes which operands an instruction carries.
+     */
+    public static enum Kind{
+        /** No operand. */
+        NONE,
+        /** An integer constant. */
+        INT,
+        /** A local variable index. */
+        LOCAL,
+        /** A local variable index and an increment. */
+        IINC,
+        /** A jump target. */
+        JUMP,
+        /** A field reference. */
+        FIELD,
+        /** A method reference. */
+        METHOD,
+        /** A class reference. */
+        TYPE,
+        /** A label position. */
+        LABEL;
+    }
+
+    private final int code;
+    private final Kind kind;
+    private final String mnemonic;
+
+    private Opcode(int code, Kind kind){
+        this.code = code;
+        this.kind = kind;
+        this.mnemonic = name().toLowerCase();
+    }
+
+    /**
+     * @return the numeric JVM opcode, -1 for pseudo instructions.
+     */
+    public int getCode(){
+        return code;
+    }
+
+    /**
+     * @return which operands this instruction carries.
+     */
+    public Kind getKind(){
+        return kind;
+    }
+
+    /**
+     * @return the mnemonic used in Jasmin assembly.
+     */
+    public String getMnemonic(){
+        return mnemonic;
+    }
+
+    /**
+     * @return true if the instruction may transfer control to a label.
+     */
+    public boolean isJump(){
+        return kind == Kind.JUMP;
+    }
+
+    /**
+     * Returns the conditional jump testing the opposite condition.
+     * @return f.e. {@code if_icmpge} for {@code if_icmplt}.
+     * @throws IllegalArgumentException if this is not a conditional jump.
+     */
+    public Opcode negate(){
+        switch(this){
+            case IFEQ: return IFNE;
+            case IFNE: return IFEQ;
+            case IFLT: return IFGE;
+            case IFGE: return IFLT;
+            case IFGT: return IFLE;
+            case IFLE: return IFGT;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            case IF_ICMPLE: return IF_ICMPGT;
+            case IFNULL: return IFNONNULL;
+            case IFNONNULL: return IFNULL;
+            default:
+                throw new IllegalArgumentException(this + " is not a conditional jump");
+        }
+    }
+
+    /**
+     * @return true if execution never continues with the following instruction.
+     */
+    public boolean isUnconditionalTransfer(){
+        return this == GOTO || this == IRETURN || this == RETURN || this == ATHROW;
+    }
+}
@@ -0,0 +1,332 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+
+/**
+ * Static single assignment view of the int local variables of a method.<br>
+ * Every store and {@code iinc} defines a new {@link Value}, blocks where different
+ * definitions of a variable meet get a phi value, and every load is resolved to
+ * the single value it reads. Phis are placed at the iterated dominance frontiers
+ * of the definitions where the variable is live, see Cytron et al., "Efficiently
+ * Computing Static Single Assignment Form and the Control Dependence Graph".<br>
+ * The code itself is not changed, the form refers to the instruction indices of the
+ * analyzed code and is only valid until the code is changed. Slots that are also
+ * used for references are not tracked.
+ *
+ * @author Leslie Marxen
+ */
+public class SsaForm{
+
+    /**
+     * A single definition of a local variable.
+     */
+    public static final class Value{
+
+        /**
+         * Describes where a value is defined.
+         */
+        public static enum Kind{
+            /** The content of the variable when the method is entered, f.e. an argument. */
+            ENTRY,
+            /** An {@code istore} or {@code iinc}. */
+            STORE,
+            /** The join of the values reaching the start of a block. */
+            PHI
+        }
+
+        private final int id;
+        private final Kind kind;
+        private final int slot;
+        private final int index;
+        private final BasicBlock block;
+        private final Value[] operands;
+
+        private Value(int id, Kind kind, int slot, int index, BasicBlock block, int operands){
+            this.id = id;
+            this.kind = kind;
+            this.slot = slot;
+            this.index = index;
+            this.block = block;
+            this.operands = new Value[operands];
+        }
+
+        /**
+         * @return a number identifying the value within its method, counting from 0
+         */
+        public int getId(){
+            return id;
+        }
+
+        /**
+         * @return where the value is defined
+         */
+        public Kind getKind(){
+            return kind;
+        }
+
+        /**
+         * @return the local variable slot
+         */
+        public int getSlot(){
+            return slot;
+        }
+
+        /**
+         * @return the index of the defining instruction, -1 for entry and phi values
+         */
+        public int getIndex(){
+            return index;
+        }
+
+        /**
+         * @return the block starting with a phi, null for any other value
+         */
+        public BasicBlock getBlock(){
+            return block;
+        }
+
+        /**
+         * The operands of a phi in the order of the predecessors of its block.
+         * A phi at the entry block has the entry value as additional last operand.
+         * Operands of unreachable predecessors are null.
+         * @return the operands, empty for any other value
+         */
+        public List<Value> getOperands(){
+            return Collections.unmodifiableList(Arrays.asList(operands));
+        }
+
+        @Override
+        public String toString(){
+            switch(kind){
+                case ENTRY:
+                    return "v" + id + " = entry " + slot;
+                case STORE:
+                    return "v" + id + " = store " + slot + " at " + index;
+                default:
+                    StringBuilder sb = new StringBuilder("v" + id + " = phi " + slot + " (");
+                    for (int i = 0; i < operands.length; i++) {
+                        sb.append(i > 0 ? ", " : "").append(operands[i] == null ? "-" : "v" + operands[i].id);
+                    }
+                    return sb.append(")").toString();
+            }
+        }
+    }
+
+    private final List<Instruction> code;
+    private final DominatorTree dominators;
+    private final BitSet tracked;
+    private final List<Value> values;
+    private final Value[] reads;
+    private final Value[] writes;
+    private final List<List<Value>> phis;
+
+    /**
+     * Builds the form for the code of a method.
+     * @param code The code.
+     */
+    public SsaForm(List<Instruction> code){
+        this.code = code;
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        LivenessAnalyzer liveness = new LivenessAnalyzer(cfg);
+        dominators = new DominatorTree(cfg);
+        values = new ArrayList<>();
+        reads = new Value[code.size()];
+        writes = new Value[code.size()];
+        phis = new ArrayList<>();
+        for (int i = 0; i < cfg.getBlocks().size(); i++) {
+            phis.add(new ArrayList<>());
+        }
+
+        // Int slots, the ones also holding references are left out
+        tracked = new BitSet();
+        BitSet references = new BitSet();
+        for (Instruction insn : code) {
+            Opcode op = insn.getOpcode();
+            if(op == Opcode.ILOAD || op == Opcode.ISTORE || op == Opcode.IINC){
+                tracked.set(insn.getOperand());
+            } else if(op == Opcode.ALOAD || op == Opcode.ASTORE){
+                references.set(insn.getOperand());
+            }
+        }
+        tracked.andNot(references);
+        if(dominators.getReversePostOrder().isEmpty()){
+            return;
+        }
+
+        placePhis(cfg, liveness);
+        rename();
+    }
+
+    /**
+     * Places the phis of every variable at the iterated dominance frontier of its definitions.
+     * The entry block defines every variable, so a loop back to the entry needs phis as well.
+     */
+    private void placePhis(ControlFlowGraph cfg, LivenessAnalyzer liveness){
+        BasicBlock entry = dominators.getReversePostOrder().get(0);
+        for (int slot = tracked.nextSetBit(0); slot >= 0; slot = tracked.nextSetBit(slot + 1)) {
+            BitSet definitions = new BitSet();
+            definitions.set(entry.getIndex());
+            for (int i = 0; i < code.size(); i++) {
+                if(defines(code.get(i), slot)){
+                    definitions.set(cfg.getBlock(i).getIndex());
+                }
+            }
+
+            BitSet placed = new BitSet();
+            Deque<Integer> worklist = new ArrayDeque<>();
+            definitions.stream().forEach(worklist::push);
+            while(!worklist.isEmpty()){
+                BasicBlock b = cfg.getBlocks().get(worklist.pop());
+                if(!dominators.isReachable(b)){
+                    continue;
+                }
+                BitSet frontier = dominators.getFrontier(b);
+                for (int f = frontier.nextSetBit(0); f >= 0; f = frontier.nextSetBit(f + 1)) {
+                    BasicBlock join = cfg.getBlocks().get(f);
+                    if(placed.get(f) || !liveness.getLiveIn(join).get(slot)){
+                        continue;
+                    }
+                    placed.set(f);
+                    int operands = join.getPredecessors().size() + ((join == entry) ? 1 : 0);
+                    phis.get(f).add(newValue(Value.Kind.PHI, slot, -1, join, operands));
+                    if(!definitions.get(f)){
+                        worklist.push(f);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves every load to its value, walking the dominator tree with a stack of the current values per slot.
+     */
+    private void rename(){
+        List<Deque<Value>> current = new ArrayList<>();
+        for (int slot = 0; slot < tracked.length(); slot++) {
+            current.add(new ArrayDeque<>());
+            if(tracked.get(slot)){
+                current.get(slot).push(newValue(Value.Kind.ENTRY, slot, -1, null, 0));
+            }
+        }
+
+        BasicBlock entry = dominators.getReversePostOrder().get(0);
+        for (Value phi : phis.get(entry.getIndex())) {
+            phi.operands[phi.operands.length - 1] = current.get(phi.slot).peek();
+        }
+
+        // A block is entered when it is on top of the stack for the first time and left the second time
+        Deque<BasicBlock> blocks = new ArrayDeque<>();
+        Deque<List<Value>> defined = new ArrayDeque<>();
+        boolean[] entered = new boolean[phis.size()];
+        blocks.push(entry);
+        while(!blocks.isEmpty()){
+            BasicBlock b = blocks.peek();
+            if(entered[b.getIndex()]){
+                blocks.pop();
+                for (Value v : defined.pop()) {
+                    current.get(v.slot).pop();
+                }
+                continue;
+            }
+
+            entered[b.getIndex()] = true;
+            List<Value> definitions = new ArrayList<>();
+            defined.push(definitions);
+            for (Value phi : phis.get(b.getIndex())) {
+                current.get(phi.slot).push(phi);
+                definitions.add(phi);
+            }
+            for (int i = b.getStart(); i < b.getEnd(); i++) {
+                Instruction insn = code.get(i);
+                Opcode.Kind kind = insn.getOpcode().getKind();
+                if((kind != Opcode.Kind.LOCAL && kind != Opcode.Kind.IINC) || !tracked.get(insn.getOperand())){
+                    continue;
+                }
+                int slot = insn.getOperand();
+                if(insn.getOpcode() == Opcode.ILOAD || insn.getOpcode() == Opcode.IINC){
+                    reads[i] = current.get(slot).peek();
+                }
+                if(defines(insn, slot)){
+                    writes[i] = newValue(Value.Kind.STORE, slot, i, null, 0);
+                    current.get(slot).push(writes[i]);
+                    definitions.add(writes[i]);
+                }
+            }
+            for (BasicBlock s : b.getSuccessors()) {
+                int operand = s.getPredecessors().indexOf(b);
+                for (Value phi : phis.get(s.getIndex())) {
+                    phi.operands[operand] = current.get(phi.slot).peek();
+                }
+            }
+
+            // Leaving the children restores the values of this block
+            List<BasicBlock> children = dominators.getChildren(b);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                blocks.push(children.get(i));
+            }
+        }
+    }
+
+    private static boolean defines(Instruction insn, int slot){
+        Opcode op = insn.getOpcode();
+        return (op == Opcode.ISTORE || op == Opcode.IINC) && insn.getOperand() == slot;
+    }
+
+    private Value newValue(Value.Kind kind, int slot, int index, BasicBlock block, int operands){
+        Value v = new Value(values.size(), kind, slot, index, block, operands);
+        values.add(v);
+        return v;
+    }
+
+    /**
+     * @return the dominator tree of the analyzed code, which also holds its control flow graph
+     */
+    public DominatorTree getDominatorTree(){
+        return dominators;
+    }
+
+    /**
+     * @return true if the slot holds an int variable that is part of the form
+     */
+    public boolean isTracked(int slot){
+        return tracked.get(slot);
+    }
+
+    /**
+     * @return every value, indexed by its id
+     */
+    public List<Value> getValues(){
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @param index The index of an {@code iload} or {@code iinc}.
+     * @return The value read by the instruction, null if its slot is not tracked or it is unreachable.
+     */
+    public Value getValueRead(int index){
+        return reads[index];
+    }
+
+    /**
+     * @param index The index of an {@code istore} or {@code iinc}.
+     * @return The value defined by the instruction, null if its slot is not tracked or it is unreachable.
+     */
+    public Value getValueWritten(int index){
+        return writes[index];
+    }
+
+    /**
+     * @return the phis at the start of a block
+     */
+    public List<Value> getPhis(BasicBlock b){
+        return Collections.unmodifiableList(phis.get(b.getIndex()));
+    }
+}
@@ -0,0 +1,222 @@
+package cmm.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the maximum operand stack depth of a method body.<br>
+ * Follows every path through the code starting at the first instruction,
+ * jumps continue at the position of their label. Every instruction has to be
+ * reached with the same stack height on all paths, which the JVM verifier
+ * requires anyways. Unreachable instructions do not contribute.
+ *
+ * @author Leslie Marxen
+ */
+public class StackDepthAnalyzer{
+
+    private final List<Instruction> code;
+    private final int initialHeight;
+    private int[] heights;
+
+    /**
+     * Constructor
+     * @param code The instructions of a method body.
+     */
+    public StackDepthAnalyzer(List<Instruction> code){
+        this(code, 0);
+    }
+
+    /**
+     * Constructor
+     * @param code The instructions of a method body or an exception handler.
+     * @param initialHeight The stack height at the first instruction, 1 for an exception handler.
+     */
+    public StackDepthAnalyzer(List<Instruction> code, int initialHeight){
+        this.code = code;
+        this.initialHeight = initialHeight;
+    }
+
+    /**
+     * Walks all paths through the code.
+     * @return The maximum stack depth reached on any path.
+     * @throws IllegalStateException if the stack underflows, paths join with
+     *          different heights, a label is undefined or execution falls off the end.
+     */
+    public int analyze(){
+        Map<Label, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            Instruction insn = code.get(i);
+            if(insn.getOpcode() == Opcode.LABEL){
+                positions.put(insn.getLabel(), i);
+            }
+        }
+
+        heights = new int[code.size()];
+        Arrays.fill(heights, -1);
+
+        Deque<Integer> worklist = new ArrayDeque<>();
+        int max = initialHeight;
+        if(!code.isEmpty()){
+            heights[0] = initialHeight;
+            worklist.push(0);
+        }
+
+        while(!worklist.isEmpty()){
+            int i = worklist.pop();
+            int height = heights[i];
+
+            // Follow the straight line code until control leaves it
+            while(true){
+                Instruction insn = code.get(i);
+                Opcode op = insn.getOpcode();
+
+                int pops = pops(insn);
+                if(height < pops){
+                    throw new IllegalStateException("Operand stack underflow at " + i + " (" + insn + ")");
+                }
+                height = height - pops + pushes(insn);
+                max = Math.max(max, height);
+
+                if(op.isJump()){
+                    Integer target = positions.get(insn.getLabel());
+                    if(target == null){
+                        throw new IllegalStateException("Undefined label " + insn.getLabel());
+                    }
+                    if(merge(target, height)){
+                        worklist.push(target);
+                    }
+                }
+                if(op.isUnconditionalTransfer()){
+                    break;
+                }
+
+                i++;
+                if(i == code.size()){
+                    throw new IllegalStateException("Execution falls off the end of the code");
+                }
+                if(!merge(i, height)){
+                    break;
+                }
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * @param index The index of an instruction.
+     * @return the stack height the instruction is reached with, -1 if it is unreachable
+     * @throws IllegalStateException if the code was not analyzed yet.
+     */
+    public int getHeight(int index){
+        if(heights == null){
+            throw new IllegalStateException("Code not analyzed yet");
+        }
+        return heights[index];
+    }
+
+    /**
+     * Records the height an instruction is reached with.
+     * @return true if the instruction was not reached before and has to be visited.
+     */
+    private boolean merge(int index, int height){
+        if(heights[index] == -1){
+            heights[index] = height;
+            return true;
+        }
+        if(heights[index] != height){
+            throw new IllegalStateException(String.format(
+                "Inconsistent stack height at %d (%s): %d and %d", index, code.get(index), heights[index], height));
+        }
+        return false;
+    }
+
+    /**
+     * @return how many stack slots an instruction consumes.
+     */
+    public static int pops(Instruction insn){
+        switch(insn.getOpcode()){
+            case ISTORE: case ASTORE: case POP:
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IFNULL: case IFNONNULL: case ATHROW:
+            case INEG: case IRETURN: case DUP: case GETFIELD: case I2L: case NEWARRAY: case ARRAYLENGTH:
+                return 1;
+            case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+            case IAND: case IOR: case IXOR: case SWAP:
+            case ISHL: case ISHR: case IUSHR: case L2I: case BALOAD:
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+                return 2;
+            case LSHR: case BASTORE:
+                return 3;
+            case LMUL:
+                return 4;
+            case PUTSTATIC:
+                return typeSize(insn.getDescriptor(), 0);
+            case PUTFIELD:
+                return 1 + typeSize(insn.getDescriptor(), 0);
+            case INVOKESTATIC:
+                return argumentSize(insn.getDescriptor());
+            case INVOKEVIRTUAL: case INVOKESPECIAL:
+                return 1 + argumentSize(insn.getDescriptor());
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return how many stack slots an instruction produces.
+     */
+    public static int pushes(Instruction insn){
+        switch(insn.getOpcode()){
+            case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5:
+            case BIPUSH: case SIPUSH: case LDC:
+            case ILOAD: case ALOAD: case NEW:
+            case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+            case IAND: case IOR: case IXOR: case INEG:
+            case ISHL: case ISHR: case IUSHR: case L2I: case NEWARRAY: case BALOAD: case ARRAYLENGTH:
+                return 1;
+            case DUP: case SWAP: case I2L: case LMUL: case LSHR:
+                return 2;
+            case GETSTATIC: case GETFIELD:
+                return typeSize(insn.getDescriptor(), 0);
+            case INVOKESTATIC: case INVOKEVIRTUAL: case INVOKESPECIAL:
+                String desc = insn.getDescriptor();
+                return desc.endsWith(")V") ? 0 : typeSize(desc, desc.indexOf(')') + 1);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the stack slots occupied by the arguments of a method descriptor.
+     */
+    private static int argumentSize(String descriptor){
+        int size = 0;
+        int i = 1;
+        while(descriptor.charAt(i) != ')'){
+            size += typeSize(descriptor, i);
+            i = skipType(descriptor, i);
+        }
+        return size;
+    }
+
+    private static int typeSize(String descriptor, int index){
+        char c = descriptor.charAt(index);
+        return (c == 'J' || c == 'D') ? 2 : 1;
+    }
+
+    private static int skipType(String descriptor, int index){
+        while(descriptor.charAt(index) == '['){
+            index++;
+        }
+        if(descriptor.charAt(index) == 'L'){
+            index = descriptor.indexOf(';', index);
+        }
+        return index + 1;
+    }
+}
@@ -0,0 +1,205 @@
+package cmm.compiler.optimizer;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.Opcode;
+
+/**
+ * A doubly linked list of the instructions of one method, used while rewriting code.<br>
+ * Inserting and removing instructions costs constant time. The buffer keeps track
+ * of the position of every label and of how many jumps reference it.
+ *
+ * @author Leslie Marxen
+ */
+public class CodeBuffer{
+
+    /**
+     * A position within the buffer.
+     */
+    public static final class Node{
+        private Instruction insn;
+        private Node prev;
+        private Node next;
+
+        private Node(Instruction insn){
+            this.insn = insn;
+        }
+
+        /**
+         * @return the instruction at this position
+         */
+        public Instruction getInstruction(){
+            return insn;
+        }
+
+        /**
+         * @return the opcode of the instruction at this position
+         */
+        public Opcode getOpcode(){
+            return insn.getOpcode();
+        }
+
+        /**
+         * @return the previous position or null
+         */
+        public Node getPrev(){
+            return prev;
+        }
+
+        /**
+         * @return the next position or null
+         */
+        public Node getNext(){
+            return next;
+        }
+    }
+
+    private Node first;
+    private Node last;
+    private int size;
+
+    private final Map<Label, Node> labels;
+    private final Map<Label, Integer> references;
+
+    /**
+     * Creates a buffer containing the given code.
+     * @param code The instructions of a method.
+     */
+    public CodeBuffer(List<Instruction> code){
+        labels = new IdentityHashMap<>();
+        references = new IdentityHashMap<>();
+        for (Instruction insn : code) {
+            insertBefore(null, insn);
+        }
+    }
+
+    /**
+     * @return the first position or null if the buffer is empty
+     */
+    public Node getFirst(){
+        return first;
+    }
+
+    /**
+     * @return the amount of instructions including labels
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Inserts an instruction.
+     * @param pos The instruction is inserted in front of this position, at the end if null.
+     * @param insn The instruction.
+     * @return The position of the inserted instruction.
+     */
+    public Node insertBefore(Node pos, Instruction insn){
+        Node n = new Node(insn);
+        n.next = pos;
+        n.prev = (pos == null) ? last : pos.prev;
+        if(n.prev == null){
+            first = n;
+        } else {
+            n.prev.next = n;
+        }
+        if(pos == null){
+            last = n;
+        } else {
+            pos.prev = n;
+        }
+        size++;
+        track(insn, 1);
+        if(insn.getOpcode() == Opcode.LABEL){
+            labels.put(insn.getLabel(), n);
+        }
+        return n;
+    }
+
+    /**
+     * Removes an instruction.
+     * @param n The position to remove.
+     * @return The following position or null.
+     */
+    public Node remove(Node n){
+        if(n.prev == null){
+            first = n.next;
+        } else {
+            n.prev.next = n.next;
+        }
+        if(n.next == null){
+            last = n.prev;
+        } else {
+            n.next.prev = n.prev;
+        }
+        size--;
+        track(n.insn, -1);
+        if(n.getOpcode() == Opcode.LABEL){
+            labels.remove(n.insn.getLabel());
+        }
+        return n.next;
+    }
+
+    /**
+     * Replaces the instruction at a position. Labels can not be replaced.
+     * @param n The position.
+     * @param insn The new instruction.
+     */
+    public void replace(Node n, Instruction insn){
+        if(n.getOpcode() == Opcode.LABEL || insn.getOpcode() == Opcode.LABEL){
+            throw new IllegalArgumentException("Labels can only be inserted or removed");
+        }
+        track(n.insn, -1);
+        n.insn = insn;
+        track(insn, 1);
+    }
+
+    private void track(Instruction insn, int delta){
+        if(insn.getOpcode().isJump()){
+            references.merge(insn.getLabel(), delta, Integer::sum);
+        }
+    }
+
+    /**
+     * @param label A label.
+     * @return The position of the label or null if it is not placed.
+     */
+    public Node getPosition(Label label){
+        return labels.get(label);
+    }
+
+    /**
+     * @param label A label.
+     * @return How many jumps target the label.
+     */
+    public int getReferences(Label label){
+        return references.getOrDefault(label, 0);
+    }
+
+    /**
+     * Skips labels.
+     * @param n A position or null.
+     * @return The first position at or after n that is not a label, or null.
+     */
+    public static Node skipLabels(Node n){
+        while(n != null && n.getOpcode() == Opcode.LABEL){
+            n = n.next;
+        }
+        return n;
+    }
+
+    /**
+     * @return the contents of the buffer
+     */
+    public InstructionList toInstructionList(){
+        InstructionList code = new InstructionList();
+        for (Node n = first; n != null; n = n.next) {
+            code.add(n.insn);
+        }
+        return code;
+    }
+}
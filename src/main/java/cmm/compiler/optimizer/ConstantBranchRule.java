@@ -0,0 +1,85 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Decides conditional jumps on constant operands at compile time.
+ * The jump either becomes a {@code goto} or is removed together with its operands.
+ *
+ * @author Leslie Marxen
+ */
+public class ConstantBranchRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "constant branch";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Integer a = n.getInstruction().getConstantValue();
+        Node next = n.getNext();
+        if(a == null || next == null){
+            return false;
+        }
+
+        Node jump;
+        boolean taken;
+        Integer b = next.getInstruction().getConstantValue();
+        if(b != null && next.getNext() != null && isCompare(next.getNext().getOpcode())){
+            jump = next.getNext();
+            taken = isTaken(jump.getOpcode(), a, b);
+            code.remove(next);
+        } else if(isCompareWithZero(next.getOpcode())){
+            jump = next;
+            taken = isTaken(jump.getOpcode(), a, 0);
+        } else {
+            return false;
+        }
+
+        code.remove(n);
+        if(taken){
+            code.replace(jump, Instruction.jump(Opcode.GOTO, jump.getInstruction().getLabel()));
+        } else {
+            code.remove(jump);
+        }
+        return true;
+    }
+
+    private static boolean isCompareWithZero(Opcode op){
+        switch(op){
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isCompare(Opcode op){
+        switch(op){
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the conditional jump is taken for the operands a and b, 
+     *          b is 0 for jumps comparing a single operand.
+     */
+    static boolean isTaken(Opcode op, int a, int b){
+        switch(op){
+            case IFEQ: case IF_ICMPEQ: return a == b;
+            case IFNE: case IF_ICMPNE: return a != b;
+            case IFLT: case IF_ICMPLT: return a < b;
+            case IFGE: case IF_ICMPGE: return a >= b;
+            case IFGT: case IF_ICMPGT: return a > b;
+            case IFLE: case IF_ICMPLE: return a <= b;
+            default:
+                throw new IllegalArgumentException(op + " is not a conditional jump");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Computes arithmetic on constant operands at compile time,
+ * f.e. {@code iconst_2; iconst_3; imul} becomes {@code bipush 6}.
+ * These sequences remain where the {@link ConstantPropagator} replaced loads.
+ * Divisions by zero are left to the runtime.
+ *
+ * @author Leslie Marxen
+ */
+public class ConstantFoldingRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "constant folding";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Integer a = n.getInstruction().getConstantValue();
+        Node next = n.getNext();
+        if(a == null || next == null){
+            return false;
+        }
+
+        int x = a;
+        if(next.getOpcode() == Opcode.INEG){
+            code.remove(next);
+            code.replace(n, Instruction.push(-x));
+            return true;
+        }
+
+        Integer b = next.getInstruction().getConstantValue();
+        Node op = next.getNext();
+        if(b == null || op == null){
+            return false;
+        }
+        int y = b;
+        int result;
+        switch(op.getOpcode()){
+            case IADD: result = x + y; break;
+            case ISUB: result = x - y; break;
+            case IMUL: result = x * y; break;
+            case IAND: result = x & y; break;
+            case IOR: result = x | y; break;
+            case IXOR: result = x ^ y; break;
+            case ISHL: result = x << y; break;
+            case ISHR: result = x >> y; break;
+            case IUSHR: result = x >>> y; break;
+            case IDIV:
+                if(y == 0){
+                    return false;
+                }
+                result = x / y;
+                break;
+            case IREM:
+                if(y == 0){
+                    return false;
+                }
+                result = x % y;
+                break;
+            default:
+                return false;
+        }
+        code.remove(op);
+        code.remove(next);
+        code.replace(n, Instruction.push(result));
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.ir.SsaForm;
+import cmm.compiler.ir.SsaForm.Value;
+import cmm.compiler.ir.StackDepthAnalyzer;
+
+/**
+ * Replaces loads of local variables that always hold the same constant with the constant.<br>
+ * Every value of the {@link SsaForm} of a method starts out undefined and is lowered
+ * to a constant or to varying while the blocks are interpreted on an abstract operand
+ * stack, until no value changes anymore. A phi is constant if all of its defined
+ * operands are the same constant, so a variable that keeps its value around a loop
+ * stays constant. Arguments are varying. The {@link PeepholeOptimizer} folds the
+ * arithmetic and branches on the propagated constants.
+ *
+ * @author Leslie Marxen
+ */
+public class ConstantPropagator{
+
+    /** The value is not known yet. */
+    private static final long UNDEFINED = Long.MIN_VALUE;
+    /** The value may differ between executions. */
+    private static final long VARYING = Long.MAX_VALUE;
+
+    private final Map<String, Integer> report;
+
+    /**
+     * Constructor
+     */
+    public ConstantPropagator(){
+        report = new LinkedHashMap<>();
+        report.put("constant load", 0);
+    }
+
+    /**
+     * Replaces every load of a constant local variable of a method.
+     * @param m The method.
+     * @return true if the code was changed.
+     */
+    public boolean optimize(MethodModel m){
+        List<Instruction> code = m.getCode();
+        SsaForm ssa = new SsaForm(code);
+        long[] state = new long[ssa.getValues().size()];
+        for (Value v : ssa.getValues()) {
+            state[v.getId()] = (v.getKind() == Value.Kind.ENTRY) ? VARYING : UNDEFINED;
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for (BasicBlock b : ssa.getDominatorTree().getReversePostOrder()) {
+                for (Value phi : ssa.getPhis(b)) {
+                    long value = UNDEFINED;
+                    for (Value operand : phi.getOperands()) {
+                        value = (operand == null) ? value : meet(value, state[operand.getId()]);
+                    }
+                    changed |= update(state, phi, value);
+                }
+                changed |= interpret(code, b, ssa, state);
+            }
+        }
+
+        InstructionList result = new InstructionList();
+        int replaced = 0;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction insn = code.get(i);
+            Value v = (insn.getOpcode() == Opcode.ILOAD) ? ssa.getValueRead(i) : null;
+            long value = (v == null) ? VARYING : state[v.getId()];
+            if(value != UNDEFINED && value != VARYING){
+                insn = Instruction.push((int) value);
+                replaced++;
+            }
+            result.add(insn);
+        }
+        if(replaced == 0){
+            return false;
+        }
+        m.setCode(result);
+        report.merge("constant load", replaced, Integer::sum);
+        return true;
+    }
+
+    /**
+     * Interprets a block with an operand stack of constants, starting out empty.
+     * Operands from preceding blocks are varying.
+     * @return true if a value defined within the block changed.
+     */
+    private static boolean interpret(List<Instruction> code, BasicBlock b, SsaForm ssa, long[] state){
+        List<Long> stack = new ArrayList<>();
+        boolean changed = false;
+        for (int i = b.getStart(); i < b.getEnd(); i++) {
+            Instruction insn = code.get(i);
+            Integer constant = insn.getConstantValue();
+            if(constant != null){
+                stack.add((long) constant);
+                continue;
+            }
+
+            Value read = ssa.getValueRead(i);
+            Value written = ssa.getValueWritten(i);
+            long a, c;
+            switch(insn.getOpcode()){
+                case ILOAD:
+                    stack.add((read == null) ? VARYING : state[read.getId()]);
+                    break;
+                case ISTORE:
+                    a = pop(stack);
+                    if(written != null){
+                        changed |= update(state, written, a);
+                    }
+                    break;
+                case IINC:
+                    if(written != null){
+                        a = state[read.getId()];
+                        c = (a == UNDEFINED || a == VARYING) ? a : (int) a + insn.getIncrement();
+                        changed |= update(state, written, c);
+                    }
+                    break;
+                case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+                case IAND: case IOR: case IXOR: case ISHL: case ISHR: case IUSHR:
+                    c = pop(stack);
+                    a = pop(stack);
+                    stack.add(evaluate(insn.getOpcode(), a, c));
+                    break;
+                case INEG:
+                    a = pop(stack);
+                    stack.add((a == UNDEFINED || a == VARYING) ? a : -(int) a);
+                    break;
+                case DUP:
+                    a = pop(stack);
+                    stack.add(a);
+                    stack.add(a);
+                    break;
+                case SWAP:
+                    c = pop(stack);
+                    a = pop(stack);
+                    stack.add(c);
+                    stack.add(a);
+                    break;
+                default:
+                    for (int n = StackDepthAnalyzer.pops(insn); n > 0; n--) {
+                        pop(stack);
+                    }
+                    for (int n = StackDepthAnalyzer.pushes(insn); n > 0; n--) {
+                        stack.add(VARYING);
+                    }
+            }
+        }
+        return changed;
+    }
+
+    private static long pop(List<Long> stack){
+        return stack.isEmpty() ? VARYING : stack.remove(stack.size() - 1);
+    }
+
+    private static long evaluate(Opcode op, long a, long b){
+        if(a == VARYING || b == VARYING){
+            return VARYING;
+        }
+        if(a == UNDEFINED || b == UNDEFINED){
+            return UNDEFINED;
+        }
+        int x = (int) a;
+        int y = (int) b;
+        switch(op){
+            case IADD: return x + y;
+            case ISUB: return x - y;
+            case IMUL: return x * y;
+            case IDIV: return (y == 0) ? VARYING : x / y;
+            case IREM: return (y == 0) ? VARYING : x % y;
+            case IAND: return x & y;
+            case IOR: return x | y;
+            case IXOR: return x ^ y;
+            case ISHL: return x << y;
+            case ISHR: return x >> y;
+            default: return x >>> y;
+        }
+    }
+
+    private static long meet(long a, long b){
+        if(a == UNDEFINED){
+            return b;
+        }
+        if(b == UNDEFINED || a == b){
+            return a;
+        }
+        return VARYING;
+    }
+
+    /**
+     * Lowers a value, the values only ever move from undefined over a constant to varying.
+     * @return true if the value changed.
+     */
+    private static boolean update(long[] state, Value v, long value){
+        long lowered = meet(state[v.getId()], value);
+        if(lowered == state[v.getId()]){
+            return false;
+        }
+        state[v.getId()] = lowered;
+        return true;
+    }
+
+    /**
+     * @return how many loads were replaced
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how many loads were replaced.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Constant propagation:");
+        report.forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
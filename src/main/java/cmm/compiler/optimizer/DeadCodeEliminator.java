@@ -0,0 +1,223 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.ControlFlowGraph;
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.LivenessAnalyzer;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.ir.StackDepthAnalyzer;
+
+/**
+ * Removes code that can never be executed or has no effect.<br>
+ * Across the class, methods not reachable from the program entry and globals
+ * that are never read are removed. Within a method, unreachable blocks are
+ * removed and stores to local variables that are never read again are replaced
+ * by a {@code pop}, so the {@link PeepholeOptimizer} can remove the computation
+ * of the stored value if it has no side effects.
+ *
+ * @author Leslie Marxen
+ */
+public class DeadCodeEliminator{
+
+    private final Map<String, Integer> report;
+
+    /**
+     * Constructor
+     */
+    public DeadCodeEliminator(){
+        report = new LinkedHashMap<>();
+        report.put("unused method", 0);
+        report.put("unused global", 0);
+        report.put("unreachable", 0);
+        report.put("dead store", 0);
+    }
+
+    /**
+     * Removes every method that can not be reached from the JVM entry point
+     * {@code main([Ljava/lang/String;)V} or the constructor, and every global that is never read.
+     * @param cls The compiled program.
+     */
+    public void removeUnusedMembers(ClassModel cls){
+        Set<String> reachable = new HashSet<>();
+        Deque<MethodModel> worklist = new ArrayDeque<>();
+        for (MethodModel m : cls.getMethods()) {
+            if(m.getName().equals("<init>") || m.getSignature().equals("main([Ljava/lang/String;)V")){
+                reachable.add(m.getSignature());
+                worklist.push(m);
+            }
+        }
+
+        while(!worklist.isEmpty()){
+            for (Instruction insn : codeAndExitHandler(worklist.pop())) {
+                if(insn.getOpcode().getKind() == Opcode.Kind.METHOD && insn.getOwner().equals(cls.getName())){
+                    MethodModel callee = cls.getMethod(insn.getName() + insn.getDescriptor());
+                    if(callee != null && reachable.add(callee.getSignature())){
+                        worklist.push(callee);
+                    }
+                }
+            }
+        }
+
+        int methods = cls.getMethods().size();
+        cls.getMethods().removeIf(m -> !reachable.contains(m.getSignature()));
+        report.merge("unused method", methods - cls.getMethods().size(), Integer::sum);
+
+        // Globals that are never read, writing them has no effect
+        Set<String> read = new HashSet<>();
+        for (MethodModel m : cls.getMethods()) {
+            for (Instruction insn : codeAndExitHandler(m)) {
+                Opcode op = insn.getOpcode();
+                if((op == Opcode.GETSTATIC || op == Opcode.GETFIELD) && insn.getOwner().equals(cls.getName())){
+                    read.add(insn.getName());
+                }
+            }
+        }
+
+        Set<String> unused = new HashSet<>();
+        for (FieldModel f : cls.getFields()) {
+            if(!read.contains(f.getName())){
+                unused.add(f.getName());
+            }
+        }
+        if(unused.isEmpty()){
+            return;
+        }
+
+        for (MethodModel m : cls.getMethods()) {
+            InstructionList code = new InstructionList();
+            boolean changed = false;
+            for (Instruction insn : m.getCode()) {
+                Opcode op = insn.getOpcode();
+                if((op == Opcode.PUTSTATIC || op == Opcode.PUTFIELD)
+                        && insn.getOwner().equals(cls.getName()) && unused.contains(insn.getName())){
+                    code.add(Opcode.POP);
+                    if(op == Opcode.PUTFIELD){
+                        code.add(Opcode.POP);
+                    }
+                    changed = true;
+                } else {
+                    code.add(insn);
+                }
+            }
+            if(changed){
+                m.setCode(code);
+            }
+        }
+        cls.getFields().removeIf(f -> unused.contains(f.getName()));
+        report.merge("unused global", unused.size(), Integer::sum);
+    }
+
+    /**
+     * @return the code of a method followed by its exit handler
+     */
+    private static List<Instruction> codeAndExitHandler(MethodModel m){
+        List<Instruction> all = new ArrayList<>(m.getCode());
+        all.addAll(m.getExitHandler());
+        return all;
+    }
+
+    /**
+     * Removes unreachable blocks and dead stores of a method.
+     * @param m The method.
+     * @return true if the code was changed.
+     */
+    public boolean optimize(MethodModel m){
+        boolean changed = removeUnreachable(m);
+        changed |= removeDeadStores(m);
+        if(changed){
+            m.setMaxStack(new StackDepthAnalyzer(m.getCode()).analyze());
+        }
+        return changed;
+    }
+
+    private boolean removeUnreachable(MethodModel m){
+        ControlFlowGraph cfg = new ControlFlowGraph(m.getCode());
+        boolean[] reachable = cfg.reachableBlocks();
+
+        InstructionList code = new InstructionList();
+        int removed = 0;
+        for (BasicBlock b : cfg.getBlocks()) {
+            for (int i = b.getStart(); i < b.getEnd(); i++) {
+                Instruction insn = m.getCode().get(i);
+                if(reachable[b.getIndex()]){
+                    code.add(insn);
+                } else if(insn.getOpcode() != Opcode.LABEL){
+                    removed++;
+                }
+            }
+        }
+
+        if(code.size() == m.getCode().size()){
+            return false;
+        }
+        m.setCode(code);
+        report.merge("unreachable", removed, Integer::sum);
+        return true;
+    }
+
+    private boolean removeDeadStores(MethodModel m){
+        List<Instruction> code = m.getCode();
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(code));
+
+        int removed = 0;
+        InstructionList result = new InstructionList();
+        Instruction[] rewritten = code.toArray(new Instruction[0]);
+        for (BasicBlock b : liveness.getControlFlowGraph().getBlocks()) {
+            BitSet live = (BitSet) liveness.getLiveOut(b).clone();
+            for (int i = b.getEnd() - 1; i >= b.getStart(); i--) {
+                Instruction insn = rewritten[i];
+                boolean dead = (LivenessAnalyzer.isStore(insn) || insn.getOpcode() == Opcode.IINC)
+                    && !live.get(insn.getOperand());
+                if(dead){
+                    rewritten[i] = (insn.getOpcode() == Opcode.IINC) ? null : Instruction.of(Opcode.POP);
+                    removed++;
+                } else {
+                    LivenessAnalyzer.stepBackward(insn, live);
+                }
+            }
+        }
+
+        if(removed == 0){
+            return false;
+        }
+        for (Instruction insn : rewritten) {
+            if(insn != null){
+                result.add(insn);
+            }
+        }
+        m.setCode(result);
+        report.merge("dead store", removed, Integer::sum);
+        return true;
+    }
+
+    /**
+     * @return how many members and instructions were removed by which optimization
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how many members and instructions were removed.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Dead code elimination:");
+        report.forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
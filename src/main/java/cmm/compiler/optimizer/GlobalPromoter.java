@@ -0,0 +1,369 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cmm.compiler.backend.Opcodes;
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.ControlFlowGraph;
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.ir.StackDepthAnalyzer;
+
+/**
+ * Keeps global variables in local variables while no called function can access them.<br>
+ * First the globals every method reads or writes are determined, including the ones
+ * accessed by the methods it calls. If no call within a method accesses a global the
+ * method uses, the global is loaded into a new local variable when the method is
+ * entered and written back before every return. Otherwise the same is tried for every
+ * loop of the method: the global is loaded before the loop and written back on every
+ * path leaving it.
+ *
+ * @author Leslie Marxen
+ */
+public class GlobalPromoter{
+
+    private final Map<String, Integer> report;
+
+    private ClassModel cls;
+    private Map<String, Set<String>> effects;
+    private Set<Instruction> generated;
+    private int labelCounter;
+
+    /**
+     * Constructor
+     */
+    public GlobalPromoter(){
+        report = new LinkedHashMap<>();
+        report.put("in function", 0);
+        report.put("in loop", 0);
+    }
+
+    /**
+     * Promotes globals within every method of a class.
+     * @param cls The compiled program.
+     */
+    public void promote(ClassModel cls){
+        this.cls = cls;
+        this.labelCounter = 0;
+        this.generated = Collections.newSetFromMap(new IdentityHashMap<>());
+        computeEffects();
+
+        for (MethodModel m : cls.getMethods()) {
+            boolean changed = false;
+
+            // Whole method
+            for (String global : promotable(m, 0, m.getCode().size())) {
+                promote(m, global, 0, m.getCode().size());
+                report.merge("in function", 1, Integer::sum);
+                changed = true;
+            }
+
+            // Loops, a promoted loop does not access the global anymore
+            while(promoteLoop(m)){
+                changed = true;
+            }
+
+            if(changed){
+                m.setMaxStack(new StackDepthAnalyzer(m.getCode()).analyze());
+            }
+        }
+    }
+
+    /**
+     * Determines the globals every method accesses directly or through the methods it calls.
+     */
+    private void computeEffects(){
+        effects = new HashMap<>();
+        Map<String, Set<String>> callees = new HashMap<>();
+        for (MethodModel m : cls.getMethods()) {
+            Set<String> called = new HashSet<>();
+            for (Instruction insn : m.getCode()) {
+                if(isLocalCall(insn)){
+                    called.add(insn.getName() + insn.getDescriptor());
+                }
+            }
+            callees.put(m.getSignature(), called);
+            effects.put(m.getSignature(), accessedGlobals(m.getCode(), 0, m.getCode().size()));
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for (MethodModel m : cls.getMethods()) {
+                Set<String> effect = effects.get(m.getSignature());
+                for (String callee : callees.get(m.getSignature())) {
+                    changed |= effect.addAll(effects.getOrDefault(callee, new HashSet<>()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Promotes the first global that can be promoted within a loop of a method, outer loops first.
+     * @return true if a global was promoted
+     */
+    private boolean promoteLoop(MethodModel m){
+        List<Instruction> code = m.getCode();
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        List<BasicBlock> blocks = cfg.getBlocks();
+
+        for (BasicBlock header : blocks) {
+            // The last block jumping back to the header closes the loop
+            BasicBlock last = null;
+            for (BasicBlock p : header.getPredecessors()) {
+                if(p.getIndex() >= header.getIndex() && (last == null || p.getIndex() > last.getIndex())){
+                    last = p;
+                }
+            }
+            if(last == null || !isSingleEntry(cfg, header, last)){
+                continue;
+            }
+
+            int start = header.getStart(), end = last.getEnd();
+            for (String global : promotable(m, start, end)) {
+                promote(m, global, start, end);
+                report.merge("in loop", 1, Integer::sum);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the loop can only be entered by falling into its header
+     */
+    private static boolean isSingleEntry(ControlFlowGraph cfg, BasicBlock header, BasicBlock last){
+        for (int i = header.getIndex(); i <= last.getIndex(); i++) {
+            BasicBlock b = cfg.getBlocks().get(i);
+            for (BasicBlock p : b.getPredecessors()) {
+                if(p.getIndex() >= header.getIndex() && p.getIndex() <= last.getIndex()){
+                    continue;
+                }
+                // Only the block before the header may enter, and only by falling through
+                Opcode op = cfg.getCode().get(p.getEnd() - 1).getOpcode();
+                if(b != header || p.getIndex() != header.getIndex() - 1 || op.isJump() || op.isUnconditionalTransfer()){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces every access of a global within a part of a method by an access of a new local variable.
+     * @param m The method.
+     * @param global The name of the global.
+     * @param start The index of the first instruction of the part.
+     * @param end The index after the last instruction of the part.
+     */
+    private void promote(MethodModel m, String global, int start, int end){
+        List<Instruction> code = m.getCode();
+        int slot = m.getMaxLocals();
+        boolean instance = false, written = false;
+        for (int i = start; i < end; i++) {
+            Instruction insn = code.get(i);
+            if(isGlobal(insn, global)){
+                instance |= insn.getOpcode() == Opcode.GETFIELD || insn.getOpcode() == Opcode.PUTFIELD;
+                written |= insn.getOpcode() == Opcode.PUTFIELD || insn.getOpcode() == Opcode.PUTSTATIC;
+            }
+        }
+
+        Map<Label, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if(code.get(i).getOpcode() == Opcode.LABEL){
+                positions.put(code.get(i).getLabel(), i);
+            }
+        }
+
+        InstructionList result = new InstructionList();
+        Map<Label, Label> exits = new LinkedHashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            Instruction insn = code.get(i);
+            if(i == start){
+                load(result, global, slot, instance);
+            }
+            if(i == end && written){
+                writeBack(result, code, global, slot, instance, end, exits);
+            }
+            if(i < start || i >= end){
+                result.add(insn);
+                continue;
+            }
+
+            Opcode op = insn.getOpcode();
+            if(isGlobal(insn, global)){
+                switch(op){
+                    case GETSTATIC: result.addLocal(Opcode.ILOAD, slot); break;
+                    case PUTSTATIC: result.addLocal(Opcode.ISTORE, slot); break;
+                    case GETFIELD:  result.add(Opcode.POP); result.addLocal(Opcode.ILOAD, slot); break;
+                    default:        result.addLocal(Opcode.ISTORE, slot); result.add(Opcode.POP); break;
+                }
+            } else if(written && (op == Opcode.IRETURN || op == Opcode.RETURN)){
+                store(result, global, slot, instance);
+                result.add(insn);
+            } else if(written && op.isJump()){
+                int target = positions.get(insn.getLabel());
+                if(target < start || target >= end){
+                    result.addJump(op, exits.computeIfAbsent(insn.getLabel(), x -> new Label("Promoted" + labelCounter++)));
+                } else {
+                    result.add(insn);
+                }
+            } else {
+                result.add(insn);
+            }
+        }
+        if(end == code.size() && written){
+            writeBack(result, code, global, slot, instance, end, exits);
+        }
+
+        m.setCode(result);
+        m.setMaxLocals(slot + 1);
+    }
+
+    /**
+     * Writes the global back where the promoted part is left, directly behind the part.
+     * Jumps leaving the part are redirected to their own write back followed by a jump to the original target.
+     */
+    private void writeBack(InstructionList result, List<Instruction> code, String global, int slot, boolean instance,
+            int end, Map<Label, Label> exits){
+        boolean fallsThrough = !code.get(end - 1).getOpcode().isUnconditionalTransfer();
+        if(!fallsThrough && exits.isEmpty()){
+            return;
+        }
+        Label next = new Label("Promoted" + labelCounter++);
+        if(fallsThrough){
+            store(result, global, slot, instance);
+            if(!exits.isEmpty()){
+                result.addJump(Opcode.GOTO, next);
+            }
+        }
+        for (Map.Entry<Label, Label> exit : exits.entrySet()) {
+            result.addLabel(exit.getValue());
+            store(result, global, slot, instance);
+            result.addJump(Opcode.GOTO, exit.getKey());
+        }
+        if(fallsThrough && !exits.isEmpty()){
+            result.addLabel(next);
+        }
+    }
+
+    private void load(InstructionList code, String global, int slot, boolean instance){
+        if(instance){
+            code.addLocal(Opcode.ALOAD, 0);
+            code.add(Instruction.field(Opcode.GETFIELD, cls.getName(), global, "I"));
+        } else {
+            code.add(Instruction.field(Opcode.GETSTATIC, cls.getName(), global, "I"));
+        }
+        generated.add(code.get(code.size() - 1));
+        code.addLocal(Opcode.ISTORE, slot);
+    }
+
+    private void store(InstructionList code, String global, int slot, boolean instance){
+        if(instance){
+            code.addLocal(Opcode.ALOAD, 0);
+            code.addLocal(Opcode.ILOAD, slot);
+            code.add(Instruction.field(Opcode.PUTFIELD, cls.getName(), global, "I"));
+        } else {
+            code.addLocal(Opcode.ILOAD, slot);
+            code.add(Instruction.field(Opcode.PUTSTATIC, cls.getName(), global, "I"));
+        }
+        generated.add(code.get(code.size() - 1));
+    }
+
+    /**
+     * Determines the globals accessed within a part of a method that no call within the part may access.
+     * Instance fields are only promoted within instance methods, where {@code this} is the first local variable.
+     * @return the globals in order of their first access
+     */
+    private Set<String> promotable(MethodModel m, int start, int end){
+        List<Instruction> code = m.getCode();
+        Set<String> globals = new LinkedHashSet<>();
+        for (int i = start; i < end; i++) {
+            // Loads and write backs of earlier promotions do not count, promoting them again gains nothing
+            if(!generated.contains(code.get(i))){
+                globals.addAll(accessedGlobals(code, i, i + 1));
+            }
+        }
+        globals.removeAll(touchedByCalls(code, start, end));
+        // The exit handler may run after any instruction, before a promoted global is written back
+        List<Instruction> exitHandler = m.getExitHandler();
+        globals.removeAll(accessedGlobals(exitHandler, 0, exitHandler.size()));
+        globals.removeAll(touchedByCalls(exitHandler, 0, exitHandler.size()));
+        if((m.getAccess() & Opcodes.ACC_STATIC) != 0){
+            for (int i = start; i < end; i++) {
+                Opcode op = code.get(i).getOpcode();
+                if(op == Opcode.GETFIELD || op == Opcode.PUTFIELD){
+                    globals.remove(code.get(i).getName());
+                }
+            }
+        }
+        return globals;
+    }
+
+    /**
+     * @return the globals accessed by the instructions in the given range, in order of their first access
+     */
+    private Set<String> accessedGlobals(List<Instruction> code, int start, int end){
+        Set<String> globals = new LinkedHashSet<>();
+        for (int i = start; i < end; i++) {
+            Instruction insn = code.get(i);
+            if(insn.getOpcode().getKind() == Opcode.Kind.FIELD && insn.getOwner().equals(cls.getName())
+                    && insn.getDescriptor().equals("I")){
+                globals.add(insn.getName());
+            }
+        }
+        return globals;
+    }
+
+    /**
+     * @return the globals the methods called by the instructions in the given range may access
+     */
+    private Set<String> touchedByCalls(List<Instruction> code, int start, int end){
+        Set<String> globals = new HashSet<>();
+        for (int i = start; i < end; i++) {
+            Instruction insn = code.get(i);
+            if(isLocalCall(insn)){
+                globals.addAll(effects.getOrDefault(insn.getName() + insn.getDescriptor(), new HashSet<>()));
+            }
+        }
+        return globals;
+    }
+
+    private boolean isGlobal(Instruction insn, String global){
+        return insn.getOpcode().getKind() == Opcode.Kind.FIELD && insn.getOwner().equals(cls.getName())
+            && insn.getName().equals(global);
+    }
+
+    private boolean isLocalCall(Instruction insn){
+        return insn.getOpcode().getKind() == Opcode.Kind.METHOD && insn.getOwner().equals(cls.getName());
+    }
+
+    /**
+     * @return how many globals were promoted within whole functions and within loops
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how many globals were promoted.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Promoted globals:");
+        report.forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
@@ -0,0 +1,58 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Increments a local variable in place.<br>
+ * {@code iload n; bipush 5; iadd; istore n} becomes {@code iinc n 5}, as do
+ * the subtraction and the sequence with the constant pushed first.
+ * These sequences remain where globals were promoted or functions inlined.
+ *
+ * @author Leslie Marxen
+ */
+public class IncrementRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "increment";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Node second = n.getNext();
+        Node op = (second == null) ? null : second.getNext();
+        Node store = (op == null) ? null : op.getNext();
+        if(store == null || store.getOpcode() != Opcode.ISTORE){
+            return false;
+        }
+
+        // Only the addition may have the constant first
+        boolean loadFirst = n.getOpcode() == Opcode.ILOAD;
+        Node load = loadFirst ? n : second;
+        Integer value = (loadFirst ? second : n).getInstruction().getConstantValue();
+        if(value == null || load.getOpcode() != Opcode.ILOAD
+                || load.getInstruction().getOperand() != store.getInstruction().getOperand()){
+            return false;
+        }
+
+        long increment;
+        if(op.getOpcode() == Opcode.IADD){
+            increment = value;
+        } else if(op.getOpcode() == Opcode.ISUB && loadFirst){
+            increment = -(long) value;
+        } else {
+            return false;
+        }
+        if(increment < Short.MIN_VALUE || increment > Short.MAX_VALUE){
+            return false;
+        }
+
+        code.remove(store);
+        code.remove(op);
+        code.remove(second);
+        code.replace(n, Instruction.iinc(store.getInstruction().getOperand(), (int) increment));
+        return true;
+    }
+}
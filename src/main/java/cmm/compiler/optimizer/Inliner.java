@@ -0,0 +1,251 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.ir.StackDepthAnalyzer;
+import cmm.compiler.utillity.Function;
+
+/**
+ * Replaces calls of small functions by the body of the called function.<br>
+ * A call is inlined if the callee is a C-- function that is not part of a
+ * recursive cycle and either is small or is called only once within the program.
+ * The arguments are stored into local variables behind the ones of the caller,
+ * the locals of the callee are moved there as well and every return jumps to the
+ * end of the inlined body. Callers are processed after their callees, so chains
+ * of small functions collapse completely.
+ *
+ * @author Leslie Marxen
+ */
+public class Inliner{
+
+    /** Callees up to this many instructions are always inlined. */
+    public static final int SMALL_FUNCTION = 24;
+    /** Callees with a single call site up to this many instructions are inlined. */
+    public static final int SINGLE_CALL_FUNCTION = 400;
+    /** Callers are not grown beyond this many instructions. */
+    public static final int MAX_CALLER_SIZE = 8000;
+
+    private final Set<String> candidates;
+    private final Map<String, Integer> report;
+
+    private ClassModel cls;
+    private Map<String, Integer> callSites;
+    private int labelCounter;
+
+    /**
+     * Constructor
+     * @param functions The functions defined within the program, only these are inlined.
+     */
+    public Inliner(List<Function> functions){
+        candidates = new HashSet<>();
+        functions.forEach(x -> candidates.add(x.toSignature()));
+        report = new LinkedHashMap<>();
+        report.put("inlined call", 0);
+    }
+
+    /**
+     * Inlines calls within every method of a class.
+     * Callees that are not called anymore are left for the {@link DeadCodeEliminator}.
+     * @param cls The compiled program.
+     */
+    public void inline(ClassModel cls){
+        this.cls = cls;
+        this.labelCounter = 0;
+
+        // Call graph
+        Map<String, Set<String>> callees = new HashMap<>();
+        callSites = new HashMap<>();
+        for (MethodModel m : cls.getMethods()) {
+            Set<String> called = new HashSet<>();
+            for (Instruction insn : m.getCode()) {
+                if(isLocalCall(insn)){
+                    String signature = insn.getName() + insn.getDescriptor();
+                    called.add(signature);
+                    callSites.merge(signature, 1, Integer::sum);
+                }
+            }
+            callees.put(m.getSignature(), called);
+        }
+
+        // Functions on a cycle are never inlined
+        Set<String> recursive = new HashSet<>();
+        for (String signature : callees.keySet()) {
+            Set<String> reachable = new HashSet<>();
+            collectCallees(signature, callees, reachable);
+            if(reachable.contains(signature)){
+                recursive.add(signature);
+            }
+        }
+
+        // Callees first
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (MethodModel m : cls.getMethods()) {
+            postOrder(m.getSignature(), callees, visited, order);
+        }
+
+        for (String signature : order) {
+            MethodModel m = cls.getMethod(signature);
+            if(m != null){
+                inlineCalls(m, recursive);
+            }
+        }
+    }
+
+    /**
+     * Collects every function that may be called directly or indirectly.
+     */
+    private static void collectCallees(String signature, Map<String, Set<String>> callees, Set<String> reachable){
+        for (String callee : callees.getOrDefault(signature, new HashSet<>())) {
+            if(reachable.add(callee)){
+                collectCallees(callee, callees, reachable);
+            }
+        }
+    }
+
+    /**
+     * Orders the functions so that every function comes after the ones it calls, cycles aside.
+     */
+    private static void postOrder(String signature, Map<String, Set<String>> callees, Set<String> visited, List<String> order){
+        if(!visited.add(signature)){
+            return;
+        }
+        for (String callee : callees.getOrDefault(signature, new HashSet<>())) {
+            postOrder(callee, callees, visited, order);
+        }
+        order.add(signature);
+    }
+
+    private boolean isLocalCall(Instruction insn){
+        return insn.getOpcode().getKind() == Opcode.Kind.METHOD && insn.getOwner().equals(cls.getName());
+    }
+
+    private void inlineCalls(MethodModel caller, Set<String> recursive){
+        InstructionList code = new InstructionList();
+        int base = caller.getMaxLocals();
+        int maxLocals = caller.getMaxLocals();
+        boolean changed = false;
+
+        List<Instruction> original = caller.getCode();
+        for (int i = 0; i < original.size(); i++) {
+            Instruction insn = original.get(i);
+            MethodModel callee = null;
+            if(isLocalCall(insn) && !recursive.contains(insn.getName() + insn.getDescriptor())){
+                callee = cls.getMethod(insn.getName() + insn.getDescriptor());
+            }
+            if(callee == null || callee == caller || !isProfitable(callee, code.size() + original.size() - i)){
+                code.add(insn);
+                continue;
+            }
+
+            // Every inlined body runs to its end before the next one starts, so they share their slots
+            insertBody(code, insn, callee, base);
+            maxLocals = Math.max(maxLocals, base + callee.getMaxLocals());
+            callSites.merge(callee.getSignature(), -1, Integer::sum);
+            report.merge("inlined call", 1, Integer::sum);
+            changed = true;
+        }
+
+        if(changed){
+            caller.setCode(code);
+            caller.setMaxLocals(maxLocals);
+            caller.setMaxStack(new StackDepthAnalyzer(code).analyze());
+        }
+    }
+
+    private boolean isProfitable(MethodModel callee, int callerSize){
+        if(!candidates.contains(callee.getSignature()) || callerSize > MAX_CALLER_SIZE){
+            return false;
+        }
+        int size = 0;
+        for (Instruction insn : callee.getCode()) {
+            if(insn.getOpcode() != Opcode.LABEL){
+                size++;
+            }
+        }
+        return size <= SMALL_FUNCTION || (size <= SINGLE_CALL_FUNCTION && callSites.getOrDefault(callee.getSignature(), 0) == 1);
+    }
+
+    /**
+     * Appends the body of the callee in place of a call.
+     * @param code The code of the caller.
+     * @param call The call instruction.
+     * @param callee The called method.
+     * @param base The first slot of the callee within the locals of the caller.
+     */
+    private void insertBody(InstructionList code, Instruction call, MethodModel callee, int base){
+        // Pop the arguments into their slots, the receiver of an instance call into the first one
+        boolean instance = call.getOpcode() != Opcode.INVOKESTATIC;
+        int params = argumentCount(callee.getDescriptor()) + (instance ? 1 : 0);
+        for (int i = params - 1; i >= 0; i--) {
+            code.addLocal((instance && i == 0) ? Opcode.ASTORE : Opcode.ISTORE, base + i);
+        }
+
+        Label end = new Label("Inline" + labelCounter++);
+        Map<Label, Label> labels = new IdentityHashMap<>();
+        for (Instruction insn : callee.getCode()) {
+            switch(insn.getOpcode().getKind()){
+                case LOCAL:
+                    code.addLocal(insn.getOpcode(), base + insn.getOperand());
+                    break;
+                case IINC:
+                    code.add(Instruction.iinc(base + insn.getOperand(), insn.getIncrement()));
+                    break;
+                case JUMP:
+                    code.addJump(insn.getOpcode(), labels.computeIfAbsent(insn.getLabel(), this::copy));
+                    break;
+                case LABEL:
+                    code.addLabel(labels.computeIfAbsent(insn.getLabel(), this::copy));
+                    break;
+                default:
+                    if(insn.getOpcode() == Opcode.IRETURN || insn.getOpcode() == Opcode.RETURN){
+                        code.addJump(Opcode.GOTO, end);
+                    } else {
+                        code.add(insn);
+                    }
+            }
+        }
+        code.addLabel(end);
+    }
+
+    private Label copy(Label label){
+        return new Label(label.getName() + "_" + labelCounter);
+    }
+
+    /**
+     * @return the amount of arguments of a method descriptor, C-- only knows int arguments.
+     */
+    private static int argumentCount(String descriptor){
+        return descriptor.indexOf(')') - 1;
+    }
+
+    /**
+     * @return how many calls were inlined
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how many calls were inlined.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Inlining:");
+        report.forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
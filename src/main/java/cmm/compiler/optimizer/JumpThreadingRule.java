@@ -0,0 +1,59 @@
+package cmm.compiler.optimizer;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Shortcuts jumps to unconditional transfers.<br>
+ * A jump to a {@code goto M} jumps to {@code M} directly, 
+ * a {@code goto} to a return is replaced by the return.
+ *
+ * @author Leslie Marxen
+ */
+public class JumpThreadingRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "jump threading";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        if(!n.getOpcode().isJump()){
+            return false;
+        }
+        Instruction jump = n.getInstruction();
+        Node target = CodeBuffer.skipLabels(code.getPosition(jump.getLabel()));
+        if(target == null){
+            return false;
+        }
+
+        if(target.getOpcode() == Opcode.GOTO){
+            // Follow the chain of gotos, endless loops are left alone
+            Set<Label> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            seen.add(jump.getLabel());
+            Label last = jump.getLabel();
+            while(target != null && target.getOpcode() == Opcode.GOTO){
+                last = target.getInstruction().getLabel();
+                if(!seen.add(last)){
+                    return false;
+                }
+                target = CodeBuffer.skipLabels(code.getPosition(last));
+            }
+            code.replace(n, Instruction.jump(jump.getOpcode(), last));
+            return true;
+        }
+
+        if(jump.getOpcode() == Opcode.GOTO && (target.getOpcode() == Opcode.RETURN || target.getOpcode() == Opcode.IRETURN)){
+            code.replace(n, target.getInstruction());
+            return true;
+        }
+        return false;
+    }
+}
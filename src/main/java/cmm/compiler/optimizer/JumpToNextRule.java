@@ -0,0 +1,51 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Removes jumps to the immediately following instruction.<br>
+ * {@code goto L; L:} is dropped, conditional jumps are replaced by 
+ * {@code pop}s of their operands.
+ *
+ * @author Leslie Marxen
+ */
+public class JumpToNextRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "jump to next";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        if(!n.getOpcode().isJump()){
+            return false;
+        }
+        Label target = n.getInstruction().getLabel();
+        Node next = n.getNext();
+        while(next != null && next.getOpcode() == Opcode.LABEL && next.getInstruction().getLabel() != target){
+            next = next.getNext();
+        }
+        if(next == null || next.getOpcode() != Opcode.LABEL){
+            return false;
+        }
+
+        switch(n.getOpcode()){
+            case GOTO:
+                code.remove(n);
+                break;
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IFNULL: case IFNONNULL:
+                code.replace(n, Instruction.of(Opcode.POP));
+                break;
+            default:
+                code.replace(n, Instruction.of(Opcode.POP));
+                code.insertBefore(n.getNext(), Instruction.of(Opcode.POP));
+                break;
+        }
+        return true;
+    }
+}
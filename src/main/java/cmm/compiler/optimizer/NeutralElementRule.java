@@ -0,0 +1,46 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Removes arithmetic with a neutral constant operand,
+ * f.e. {@code iconst_0; iadd} or {@code iconst_1; imul}.
+ *
+ * @author Leslie Marxen
+ */
+public class NeutralElementRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "neutral element";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Integer value = n.getInstruction().getConstantValue();
+        Node next = n.getNext();
+        if(value == null || next == null){
+            return false;
+        }
+
+        boolean neutral;
+        switch(next.getOpcode()){
+            case IADD: case ISUB: case IOR: case IXOR:
+            case ISHL: case ISHR: case IUSHR:
+                neutral = value == 0;
+                break;
+            case IMUL: case IDIV:
+                neutral = value == 1;
+                break;
+            default:
+                neutral = false;
+        }
+        if(!neutral){
+            return false;
+        }
+        code.remove(next);
+        code.remove(n);
+        return true;
+    }
+}
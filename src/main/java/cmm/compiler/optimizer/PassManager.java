@@ -0,0 +1,168 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.utillity.Function;
+
+/**
+ * Runs an ordered pipeline of optimizations over a compiled program.<br>
+ * A step either transforms the whole class, f.e. inlining, or is a group of
+ * method passes that are repeated on every method until none of them changes
+ * it anymore. The reports of the passes are printed in the order they were added.
+ *
+ * @author Leslie Marxen
+ */
+public class PassManager{
+
+    /** The optimization level used if none is given. */
+    public static final int DEFAULT_LEVEL = 2;
+    /** The highest optimization level. */
+    public static final int MAX_LEVEL = 2;
+
+    /**
+     * An optimization of a single method.
+     */
+    @FunctionalInterface
+    public interface MethodPass{
+
+        /**
+         * Optimizes a method.
+         * @param m The method.
+         * @return true if the method was changed.
+         */
+        boolean optimize(MethodModel m);
+    }
+
+    private final List<Consumer<ClassModel>> steps;
+    private final List<Consumer<PrintStream>> reports;
+
+    /**
+     * Creates an empty pipeline.
+     */
+    public PassManager(){
+        steps = new ArrayList<>();
+        reports = new ArrayList<>();
+    }
+
+    /**
+     * Creates the pipeline of an optimization level.
+     * <ul>
+     * <li>0: no optimization.</li>
+     * <li>1: dead code elimination, constant propagation and peephole optimization
+     * within every method, and removal of unused methods and globals.</li>
+     * <li>2: additionally inlining, promotion of globals to local variables and
+     * sharing of local variable slots.</li>
+     * </ul>
+     * @param level The optimization level.
+     * @param functions The functions defined within the program.
+     * @return The pipeline.
+     */
+    public static PassManager forLevel(int level, List<Function> functions){
+        if(level < 0 || level > MAX_LEVEL){
+            throw new IllegalArgumentException("Unknown optimization level: " + level);
+        }
+        PassManager passes = new PassManager();
+        if(level == 0){
+            return passes;
+        }
+
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        DeadCodeEliminator dce = new DeadCodeEliminator();
+        ConstantPropagator constants = new ConstantPropagator();
+        MethodPass[] local = {dce::optimize, constants::optimize, peephole::optimize};
+        if(level == 1){
+            passes.addMethodPasses(local);
+            passes.addClassPass(dce::removeUnusedMembers);
+            passes.addMethodPasses(local);
+            passes.addReport(peephole::printReport);
+            passes.addReport(dce::printReport);
+            passes.addReport(constants::printReport);
+            return passes;
+        }
+
+        Inliner inliner = new Inliner(functions);
+        GlobalPromoter promoter = new GlobalPromoter();
+        SlotAllocator slots = new SlotAllocator();
+
+        // Inlining decides on the size of already optimized callees. Removing dead code
+        // within the methods may remove calls, removing globals leaves pops behind
+        passes.addMethodPasses(local);
+        passes.addClassPass(inliner::inline);
+        passes.addMethodPasses(local);
+        passes.addClassPass(dce::removeUnusedMembers);
+        passes.addMethodPasses(local);
+
+        // Promotion after inlining, fewer calls keep fewer globals in their fields
+        passes.addClassPass(promoter::promote);
+        passes.addMethodPasses(local);
+
+        // Dead stores are gone, so the remaining live ranges are as short as they get
+        passes.addClassPass(cls -> cls.getMethods().forEach(slots::optimize));
+
+        passes.addReport(inliner::printReport);
+        passes.addReport(peephole::printReport);
+        passes.addReport(dce::printReport);
+        passes.addReport(constants::printReport);
+        passes.addReport(promoter::printReport);
+        passes.addReport(slots::printReport);
+        return passes;
+    }
+
+    /**
+     * Appends a transformation of the whole class.
+     * @param pass The transformation.
+     */
+    public void addClassPass(Consumer<ClassModel> pass){
+        steps.add(pass);
+    }
+
+    /**
+     * Appends a group of method passes, run in the given order on every method
+     * until none of them changes it anymore.
+     * @param passes The passes.
+     */
+    public void addMethodPasses(MethodPass... passes){
+        List<MethodPass> group = new ArrayList<>(Arrays.asList(passes));
+        steps.add(cls -> {
+            for (MethodModel m : cls.getMethods()) {
+                boolean changed = true;
+                while(changed){
+                    changed = false;
+                    for (MethodPass pass : group) {
+                        changed |= pass.optimize(m);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a report printed by {@link #printReport(PrintStream)}.
+     * @param report Prints the report of a pass.
+     */
+    public void addReport(Consumer<PrintStream> report){
+        reports.add(report);
+    }
+
+    /**
+     * Runs every step in order.
+     * @param cls The compiled program.
+     */
+    public void run(ClassModel cls){
+        steps.forEach(x -> x.accept(cls));
+    }
+
+    /**
+     * Prints the reports of the passes.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        reports.forEach(x -> x.accept(out));
+    }
+}
@@ -0,0 +1,123 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.StackDepthAnalyzer;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Rewrites locally redundant instruction sequences of compiled methods.<br>
+ * Every rule is tried at every position of a method. After a rewrite the window
+ * moves back by one instruction, so rewrites enabling each other are found
+ * within the same sweep. Sweeps are repeated until no rule applies anymore.
+ * The optimizer counts how often every rule was applied.
+ *
+ * @author Leslie Marxen
+ */
+public class PeepholeOptimizer{
+
+    private final List<PeepholeRule> rules;
+    private final Map<String, Integer> report;
+
+    /**
+     * Creates an optimizer with the given rules, tried in the given order.
+     * @param rules The rules.
+     */
+    public PeepholeOptimizer(List<PeepholeRule> rules){
+        this.rules = new ArrayList<>(rules);
+        this.report = new LinkedHashMap<>();
+        rules.forEach(x -> report.put(x.getName(), 0));
+    }
+
+    /**
+     * Creates an optimizer with every rule of this package.
+     */
+    public PeepholeOptimizer(){
+        this(Arrays.asList(
+            new UnusedLabelRule(),
+            new UnreachableCodeRule(),
+            new JumpToNextRule(),
+            new JumpThreadingRule(),
+            new ConstantFoldingRule(),
+            new ConstantBranchRule(),
+            new NeutralElementRule(),
+            new PushPopRule(),
+            new IncrementRule(),
+            new StoreLoadRule()
+        ));
+    }
+
+    /**
+     * Optimizes every method of a class.
+     * @param cls The compiled program.
+     */
+    public void optimize(ClassModel cls){
+        for (MethodModel m : cls.getMethods()) {
+            optimize(m);
+        }
+    }
+
+    /**
+     * Optimizes a method and updates its maximum stack depth.
+     * @param m The method.
+     * @return true if the code was changed.
+     */
+    public boolean optimize(MethodModel m){
+        CodeBuffer code = new CodeBuffer(m.getCode());
+        boolean changed = false;
+
+        boolean sweep = true;
+        while(sweep){
+            sweep = false;
+            Node n = code.getFirst();
+            while(n != null){
+                Node prev = n.getPrev();
+                PeepholeRule applied = null;
+                for (PeepholeRule rule : rules) {
+                    if(rule.apply(code, n)){
+                        applied = rule;
+                        break;
+                    }
+                }
+
+                if(applied == null){
+                    n = n.getNext();
+                } else {
+                    report.merge(applied.getName(), 1, Integer::sum);
+                    sweep = true;
+                    n = (prev == null) ? code.getFirst() : prev;
+                }
+            }
+            changed |= sweep;
+        }
+
+        if(changed){
+            m.setCode(code.toInstructionList());
+            m.setMaxStack(new StackDepthAnalyzer(m.getCode()).analyze());
+        }
+        return changed;
+    }
+
+    /**
+     * @return how often every rule was applied, in the order the rules are tried
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how often every rule was applied.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Peephole optimizations:");
+        report.forEach((rule, count) -> out.println(String.format("  %-16s %d", rule, count)));
+    }
+}
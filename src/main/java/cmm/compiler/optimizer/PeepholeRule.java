@@ -0,0 +1,27 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * A local rewrite of the {@link PeepholeOptimizer}.
+ * A rule looks at a small window of instructions starting at a given position
+ * and replaces it with a cheaper but equivalent sequence.
+ *
+ * @author Leslie Marxen
+ */
+public interface PeepholeRule{
+
+    /**
+     * @return A short name used in the optimization report.
+     */
+    String getName();
+
+    /**
+     * Tries to rewrite the code starting at a position.
+     * Only the instruction at {@code n} and the instructions following it may be changed.
+     * @param code The code of a method.
+     * @param n The first instruction of the window.
+     * @return true if the code was changed.
+     */
+    boolean apply(CodeBuffer code, Node n);
+}
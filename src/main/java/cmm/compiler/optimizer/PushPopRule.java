@@ -0,0 +1,49 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Removes values that are pushed without side effects and popped right away.
+ * Arithmetic that can not throw pops its operands instead, f.e. 
+ * {@code iload 0; iconst_3; imul; pop} vanishes completely.
+ *
+ * @author Leslie Marxen
+ */
+public class PushPopRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "push pop";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Node next = n.getNext();
+        if(next == null || next.getOpcode() != Opcode.POP){
+            return false;
+        }
+        boolean pure = n.getInstruction().getConstantValue() != null
+            || n.getOpcode() == Opcode.ILOAD
+            || n.getOpcode() == Opcode.ALOAD
+            || n.getOpcode() == Opcode.DUP;
+        if(pure){
+            code.remove(next);
+            code.remove(n);
+            return true;
+        }
+
+        switch(n.getOpcode()){
+            case INEG:
+                code.remove(n);
+                return true;
+            case IADD: case ISUB: case IMUL: case IAND: case IOR: case IXOR:
+            case ISHL: case ISHR: case IUSHR:
+                code.replace(n, Instruction.of(Opcode.POP));
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package cmm.compiler.optimizer;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cmm.compiler.backend.Opcodes;
+import cmm.compiler.ir.ControlFlowGraph;
+import cmm.compiler.ir.ControlFlowGraph.BasicBlock;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.LivenessAnalyzer;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+
+/**
+ * Lets local variables share a slot if their values are never needed at the same time.<br>
+ * Two variables interfere if one of them is written while the other one is live.
+ * In the order of their first use, every variable gets the lowest slot that is not
+ * used by an interfering variable. Parameters and variables that may be read before
+ * they are written keep their slots.
+ *
+ * @author Leslie Marxen
+ */
+public class SlotAllocator{
+
+    private final Map<String, Integer> report;
+
+    /**
+     * Constructor
+     */
+    public SlotAllocator(){
+        report = new LinkedHashMap<>();
+        report.put("saved slot", 0);
+    }
+
+    /**
+     * Reassigns the local variable slots of a method and updates its maximum locals.
+     * @param m The method.
+     * @return true if the method was changed.
+     */
+    public boolean optimize(MethodModel m){
+        List<Instruction> code = m.getCode();
+        int slots = m.getMaxLocals();
+        for (Instruction insn : code) {
+            if(usesSlot(insn)){
+                slots = Math.max(slots, insn.getOperand() + 1);
+            }
+        }
+        if(code.isEmpty() || slots == 0){
+            return false;
+        }
+
+        // Interference between slots, collected backwards through every block
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(code));
+        BitSet[] interference = new BitSet[slots];
+        for (int i = 0; i < slots; i++) {
+            interference[i] = new BitSet(slots);
+        }
+        for (BasicBlock b : liveness.getControlFlowGraph().getBlocks()) {
+            BitSet live = (BitSet) liveness.getLiveOut(b).clone();
+            for (int i = b.getEnd() - 1; i >= b.getStart(); i--) {
+                Instruction insn = code.get(i);
+                if(LivenessAnalyzer.isStore(insn)){
+                    int s = insn.getOperand();
+                    for (int t = live.nextSetBit(0); t >= 0; t = live.nextSetBit(t + 1)) {
+                        if(t != s){
+                            interference[s].set(t);
+                            interference[t].set(s);
+                        }
+                    }
+                }
+                LivenessAnalyzer.stepBackward(insn, live);
+            }
+        }
+
+        // Fixed slots: parameters and anything live at the entry
+        int[] color = new int[slots];
+        Arrays.fill(color, -1);
+        BitSet fixed = (BitSet) liveness.getLiveIn(liveness.getControlFlowGraph().getBlocks().get(0)).clone();
+        fixed.set(0, Math.min(parameterSlots(m), slots));
+        for (int s = fixed.nextSetBit(0); s >= 0; s = fixed.nextSetBit(s + 1)) {
+            color[s] = s;
+        }
+
+        int maxLocals = parameterSlots(m);
+        for (Instruction insn : code) {
+            if(!usesSlot(insn)){
+                continue;
+            }
+            int s = insn.getOperand();
+            if(color[s] < 0){
+                BitSet taken = new BitSet();
+                BitSet neighbours = interference[s];
+                for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+                    if(color[t] >= 0){
+                        taken.set(color[t]);
+                    }
+                }
+                color[s] = taken.nextClearBit(0);
+            }
+            maxLocals = Math.max(maxLocals, color[s] + 1);
+        }
+
+        boolean renamed = false;
+        InstructionList result = new InstructionList();
+        for (Instruction insn : code) {
+            if(!usesSlot(insn) || color[insn.getOperand()] == insn.getOperand()){
+                result.add(insn);
+            } else if(insn.getOpcode() == Opcode.IINC){
+                result.add(Instruction.iinc(color[insn.getOperand()], insn.getIncrement()));
+                renamed = true;
+            } else {
+                result.addLocal(insn.getOpcode(), color[insn.getOperand()]);
+                renamed = true;
+            }
+        }
+
+        if(renamed){
+            m.setCode(result);
+        }
+        if(maxLocals < m.getMaxLocals()){
+            report.merge("saved slot", m.getMaxLocals() - maxLocals, Integer::sum);
+            m.setMaxLocals(maxLocals);
+            return true;
+        }
+        return renamed;
+    }
+
+    private static boolean usesSlot(Instruction insn){
+        Opcode.Kind kind = insn.getOpcode().getKind();
+        return kind == Opcode.Kind.LOCAL || kind == Opcode.Kind.IINC;
+    }
+
+    /**
+     * @return the amount of slots holding the receiver and the arguments when the method is entered
+     */
+    private static int parameterSlots(MethodModel m){
+        String descriptor = m.getDescriptor();
+        int count = ((m.getAccess() & Opcodes.ACC_STATIC) == 0) ? 1 : 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            boolean array = c == '[';
+            while(c == '['){
+                c = descriptor.charAt(++i);
+            }
+            if(c == 'L'){
+                i = descriptor.indexOf(';', i);
+            }
+            count += (!array && (c == 'J' || c == 'D')) ? 2 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return how many slots were saved
+     */
+    public Map<String, Integer> getReport(){
+        return report;
+    }
+
+    /**
+     * Prints how many slots were saved.
+     * @param out The stream to print to.
+     */
+    public void printReport(PrintStream out){
+        out.println("Slot allocation:");
+        report.forEach((name, count) -> out.println(String.format("  %-16s %d", name, count)));
+    }
+}
@@ -0,0 +1,33 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Keeps a stored value on the stack instead of loading it again.<br>
+ * {@code istore n; iload n} becomes {@code dup; istore n}.
+ *
+ * @author Leslie Marxen
+ */
+public class StoreLoadRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "store load";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        Node next = n.getNext();
+        if(n.getOpcode() != Opcode.ISTORE || next == null || next.getOpcode() != Opcode.ILOAD){
+            return false;
+        }
+        if(n.getInstruction().getOperand() != next.getInstruction().getOperand()){
+            return false;
+        }
+        code.replace(next, n.getInstruction());
+        code.replace(n, Instruction.of(Opcode.DUP));
+        return true;
+    }
+}
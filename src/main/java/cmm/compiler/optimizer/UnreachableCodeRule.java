@@ -0,0 +1,34 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Removes instructions following a {@code goto}, a return or an {@code athrow}
+ * up to the next label. No path can reach them, and removing jumps among them
+ * may leave labels unused.
+ *
+ * @author Leslie Marxen
+ */
+public class UnreachableCodeRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "unreachable";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        if(!n.getOpcode().isUnconditionalTransfer()){
+            return false;
+        }
+        Node next = n.getNext();
+        if(next == null || next.getOpcode() == Opcode.LABEL){
+            return false;
+        }
+        while(next != null && next.getOpcode() != Opcode.LABEL){
+            next = code.remove(next);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package cmm.compiler.optimizer;
+
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.optimizer.CodeBuffer.Node;
+
+/**
+ * Removes labels no jump refers to. They have no effect on the code but
+ * separate instructions other rules could combine.
+ *
+ * @author Leslie Marxen
+ */
+public class UnusedLabelRule implements PeepholeRule{
+
+    @Override
+    public String getName(){
+        return "unused label";
+    }
+
+    @Override
+    public boolean apply(CodeBuffer code, Node n){
+        if(n.getOpcode() != Opcode.LABEL || code.getReferences(n.getInstruction().getLabel()) > 0){
+            return false;
+        }
+        code.remove(n);
+        return true;
+    }
+}
@@ -105,31 +105,39 @@ public class Function{
      * @return the representaton
      */
     public String toSignature(){
-        StringBuilder signature = new StringBuilder(identifier)
-            .append("(");
+        return identifier + toDescriptor();
+    }
+
+    /**
+     * Returns the JVM method descriptor of this function.
+     * Example (II)V
+     * @return the descriptor
+     */
+    public String toDescriptor(){
+        StringBuilder descriptor = new StringBuilder("(");
 
         if(getParameterCount() != 0){
             for (Pair<String, NativeTypes> x : parameterList) {
                 switch (x.getRight()) {
                     case NUM:
-                        signature.append("I");
+                        descriptor.append("I");
                         break;
                     default:
                         break;
                 }
             }
         }
-        signature.append(")");
+        descriptor.append(")");
         
         switch (returnType) {
             case NUM:
-                signature.append("I");
+                descriptor.append("I");
                 break;
             case VOID:
-                signature.append("V");
+                descriptor.append("V");
                 break;
         }
-        String ret = signature.toString();
+        String ret = descriptor.toString();
 
         return ret;
     }
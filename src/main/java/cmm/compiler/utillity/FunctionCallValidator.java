@@ -4,26 +4,31 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+
 /**
  * functionCallValidator
  * @author Leslie Marxen
- * This class is used to determine if calls to functions are valid inside the program, 
+ * This class is used to determine if calls to functions are valid inside the program,
  * meaning if a function is called it has to be defined somewhere in the program.
  */
 public class FunctionCallValidator {
 
-    private List<String> asm;
+    private ClassModel cls;
     private List<Function> defFunctions;
     private List<String> funSignatures;
 
 
     /**
-     * Constuctor that takes the compiled assembly code and a list of defined functions.
-     * @param asm the compiled assembly code one instruction per list element.
+     * Constuctor that takes the compiled program and a list of defined functions.
+     * @param cls the compiled program.
      * @param defFunctions a List (unsorted) that contains every function that has been defined within the program
      */
-    public FunctionCallValidator(List<String> asm, List<Function> defFunctions){
-        setAsm(asm);
+    public FunctionCallValidator(ClassModel cls, List<Function> defFunctions){
+        setCls(cls);
         setdefFunctions(defFunctions);
         setFunSignatures(defFunctions
             .stream()
@@ -40,99 +45,41 @@ public class FunctionCallValidator {
      */
     public List<String> validate(){
         List<String> errors = new ArrayList<>();
-        
-        for(int i = 0; i < asm.size(); i++){
-            String line = asm.get(i);
-            if(isMethodCall(line)){
-                String signature =  toSignature(line);
-            
-                if(!funSignatures.contains(signature)){
-                    String method = getSurroundingMethodSignature(i);
-                    errors.add(String.format("Undefined call to (%s) in method (%s)", signature, method));
-                }
-            } else {
-                if(isMethodDef(line)){
-                    if(line.contains("println(I)V") || line.contains("get()I")){
-                        i = getMethodEnd(i);
+
+        for (MethodModel m : cls.getMethods()) {
+            for (Instruction insn : m.getCode()) {
+                if(isMethodCall(insn)){
+                    String signature = insn.getName() + insn.getDescriptor();
+
+                    if(!funSignatures.contains(signature)){
+                        errors.add(String.format("Undefined call to (%s) in method (%s)", signature, m.getSignature()));
                     }
                 }
             }
-
         }
 
-
         return errors;
     }
 
-    private int getMethodEnd(int line){
-        for(int i = line; i < asm.size(); i++){
-            if(asm.get(i).contains(".end method")){
-                return i;
-            }
-        }
-        return -1;
-    }
-
     /**
-     * Determines wether a method is defined in this line of assembly code
-     * @param line the given line
-     * @return true if a method is defined, false otherwise
+     * Determines wether an instruction calls a function of the program.
+     * Helpers of the generated runtime are named with a '$', which no C-- identifier contains.
+     * @return true if a function is called, false if otherwise.
      */
-    private boolean isMethodDef(String line){
-        return line.contains(".method");
-    }
-
-    /**
-     * Determines wether an instruction calls a method.
-     * @return true if a method is called, false if otherwise.
-     */
-    private boolean isMethodCall(String instruction){
+    private boolean isMethodCall(Instruction instruction){
+        Opcode op = instruction.getOpcode();
         boolean b = false;
-        b |= instruction.contains("invokevirtual");
-        b |= instruction.contains("invokestatic");
-        return b;
+        b |= op == Opcode.INVOKEVIRTUAL;
+        b |= op == Opcode.INVOKESTATIC;
+        return b && instruction.getOwner().equals(cls.getName()) && instruction.getName().indexOf('$') < 0;
     }
 
-    /**
-     * Extracts the method signature from a methodcall.
-     * @return The signature of the called method.
-     */
-    private String toSignature(String instruction){
-        String[] tmp = instruction.trim().split("/");
-        return tmp[tmp.length-1];
-    }
-
-    /**
-     * Returns the method signature of the current scope.
-     * @param line the line within the generated assembly.
-     * @return the signature or "Global" of the surrounding method
-     */
-    private String getSurroundingMethodSignature(int line){
-        for(int i = line; i >= 0; i--){
-            String tmp = asm.get(i);
-            if (tmp.contains(".method")){
-                return getMethodSignature(tmp);
-            }
-        }
-        return "Global";
-    }
 
     /**
-     * Returns the method signature of a .method definition
-     * @param methodInstruction the .method line
-     * @return The signature of the method definition.
+     * @return the compiled program
      */
-    private String getMethodSignature(String methodInstruction){
-        String[] tmp = methodInstruction.trim().split(" ");
-        return tmp[tmp.length-1];
-    }
-
-
-    /**
-     * @return the asm
-     */
-    public List<String> getAsm() {
-        return asm;
+    public ClassModel getCls() {
+        return cls;
     }
 
     /**
@@ -143,10 +90,10 @@ public class FunctionCallValidator {
     }
 
     /**
-     * @param asm the asm to set
+     * @param cls the compiled program to set
      */
-    public void setAsm(List<String> asm) {
-        this.asm = asm;
+    public void setCls(ClassModel cls) {
+        this.cls = cls;
     }
 
     /**
@@ -169,5 +116,5 @@ public class FunctionCallValidator {
     public void setFunSignatures(List<String> funSignatures) {
         this.funSignatures = funSignatures;
     }
-    
-}
\ No newline at end of file
+
+}
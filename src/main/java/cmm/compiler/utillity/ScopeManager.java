@@ -35,6 +35,9 @@ public class ScopeManager {
     private Map<Function, Map<String, String>> localConstantScopes;
     private Map<Function, Map<String, Integer>> localVariableScopes;
 
+    private Slots currentSlots;    // Acts as pointer
+    private Map<Function, Slots> localSlots;
+
 
 
     /**
@@ -52,6 +55,7 @@ public class ScopeManager {
 
         localVariableScopes = new HashMap<>();
         localConstantScopes = new HashMap<>();
+        localSlots = new HashMap<>();
     }
 
     /**
@@ -126,6 +130,7 @@ public class ScopeManager {
 
         localConstantScopes.putIfAbsent(f, new HashMap<>());
         localVariableScopes.putIfAbsent(f, new HashMap<>());
+        localSlots.putIfAbsent(f, new Slots());
         
         return true;
     }
@@ -146,6 +151,7 @@ public class ScopeManager {
 
         currentConstants = localConstantScopes.get(f);
         currentVariables = localVariableScopes.get(f);
+        currentSlots = localSlots.get(f);
 
         resetTemporary();
 
@@ -159,6 +165,7 @@ public class ScopeManager {
     public void switchToGlobalContext(){
         currentConstants = null;
         currentVariables = null;
+        currentSlots = null;
 
         temporaryConstants = null;
         temporaryVariables = null;
@@ -199,10 +206,14 @@ public class ScopeManager {
     }
 
     /**
-     * Steps out of the deepest temporary scope. Also destroys it
+     * Steps out of the deepest temporary scope. Also destroys it, 
+     * the slots of its variables are free for later variables.
      */
 
     public void leaveTemporaryScope(){
+        if(currentTemporaryScopeDepth() != 0 && currentSlots != null){
+            temporaryVariables.get(temporaryVariables.size() - 1).values().forEach(currentSlots::release);
+        }
         if(currentTemporaryScopeDepth() == 1){
             resetTemporary();
         }
@@ -242,8 +253,8 @@ public class ScopeManager {
     }
 
     /**
-     * Puts a variable in the local scope. Effectively searching for a free spot in the locals 
-     * array and assigning an index to it in the first free spot, making it memory efficient.
+     * Puts a variable in the local scope. Assigns the first free index 
+     * in the locals array to it, making it memory efficient.
      * @param name the name of the variable
      * @return true if successfully created, false if otherwise.
      */
@@ -251,18 +262,13 @@ public class ScopeManager {
         if(currentVariables == null) return false;
         if(get(name) != null) return false;
 
-        for (int i = 0; i < Integer.MAX_VALUE - 1; i++) {
-            if(!currentVariables.containsValue(i)){
-                currentVariables.put(name, i);  
-                return true;
-            }
-        }
-        return false;
+        currentVariables.put(name, currentSlots.allocate());
+        return true;
     }
 
     /**
-     * Puts a variable in the Temporary scope. Effectively searches the whole locals array for a free 
-     * spot and assigning that index to the variable, making it memory efficient.
+     * Puts a variable in the Temporary scope. Assigns the first index of the locals array 
+     * that is neither used by a local nor by a temporary variable, making it memory efficient.
      * @param name the name of the identifier
      * @return true if successfully created, false if not
      */
@@ -270,23 +276,8 @@ public class ScopeManager {
         if(get(name) != null) return false;
         if(temporaryVariables.size() == 0) return false;
 
-        boolean b;
-
-        for (int i = 0; i < Integer.MAX_VALUE - 1; i++) {
-            Map<String, Integer> tmp;
-            b = !currentVariables.containsValue(i);
-            if(b == false) continue;
-            for (Map<String, Integer> x : temporaryVariables) {
-                b &= !x.containsValue(i);
-                if(b == false) break;
-            }
-            if(b == true){
-                tmp = temporaryVariables.get(temporaryVariables.size() - 1);
-                tmp.put(name, i);
-                return true;
-            }
-        }
-        return false;
+        temporaryVariables.get(temporaryVariables.size() - 1).put(name, currentSlots.allocate());
+        return true;
     }
 
     /**
@@ -378,6 +369,16 @@ public class ScopeManager {
         return locals;
     }
 
+    /**
+     * Returns how many slots of the locals array a function needs.
+     * @param f The function
+     * @return The highest index ever assigned to a variable of the function plus one.
+     */
+    public int getSlotCount(Function f){
+        Slots slots = localSlots.get(f);
+        return (slots == null) ? 0 : slots.getCount();
+    }
+
     /**
      * Collects all global Variables and returns them.
      * @return List containing of Identifiers of Global Variables
@@ -394,6 +395,40 @@ public class ScopeManager {
 
 
 
+    /**
+     * The occupied indices of the locals array of a function. 
+     * Free indices are found by a bitset lookup instead of scanning the scopes.
+     */
+    private static class Slots{
+        private final BitSet used = new BitSet();
+        private int count;
+
+        /**
+         * @return the lowest free index, now occupied
+         */
+        int allocate(){
+            int slot = used.nextClearBit(0);
+            used.set(slot);
+            count = Math.max(count, slot + 1);
+            return slot;
+        }
+
+        /**
+         * Frees an index for later variables.
+         * @param slot the index
+         */
+        void release(int slot){
+            used.clear(slot);
+        }
+
+        /**
+         * @return the highest index ever occupied plus one
+         */
+        int getCount(){
+            return count;
+        }
+    }
+
     /**
      * Used as reference to what was returned. And how to interpret the result.<br>
      * {@code VARIABLE} meaning the returned result is to interpret as either an 
@@ -3,6 +3,7 @@ package cmm.compiler;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -15,6 +16,7 @@ import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.stream.Collectors;
 import java.lang.reflect.*;
 import java.io.PrintStream;
 import java.net.*;
@@ -22,7 +24,24 @@ import java.net.*;
 import org.antlr.v4.runtime.*;
 import org.junit.jupiter.api.*;
 
+import cmm.compiler.backend.Opcodes;
+import cmm.compiler.exception.NoReturnException;
 import cmm.compiler.generated.*;
+import cmm.compiler.ir.ClassModel;
+import cmm.compiler.ir.FieldModel;
+import cmm.compiler.ir.Instruction;
+import cmm.compiler.ir.InstructionList;
+import cmm.compiler.ir.Label;
+import cmm.compiler.ir.MethodModel;
+import cmm.compiler.ir.Opcode;
+import cmm.compiler.ir.SsaForm;
+import cmm.compiler.optimizer.ConstantPropagator;
+import cmm.compiler.optimizer.DeadCodeEliminator;
+import cmm.compiler.optimizer.GlobalPromoter;
+import cmm.compiler.optimizer.Inliner;
+import cmm.compiler.optimizer.PassManager;
+import cmm.compiler.optimizer.SlotAllocator;
+import cmm.compiler.optimizer.PeepholeOptimizer;
 import cmm.compiler.utillity.*;
 import cmm.compiler.utillity.ScopeManager.*;
 import jasmin.ClassFile;
@@ -38,6 +57,7 @@ public class CodeTest{
     void clean(){
         Path cmm = Paths.get("TestAsm.cmm");
         Path asm = Paths.get("TestAsm.j");
+        Path cls = Paths.get("TestAsm.class");
 
         try {
             Files.delete(cmm);
@@ -49,6 +69,11 @@ public class CodeTest{
         } catch (Exception e) {
         }
 
+        try {
+            Files.delete(cls);
+        } catch (Exception e) {
+        }
+
     }
 
     /**
@@ -102,6 +127,62 @@ public class CodeTest{
      * @return The output given by the code. or null if the code was not able to run.
      */
     private static String runClassFile(ClassFile cf){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try{
+            cf.write(bytes);
+        } catch (Exception e){
+            return null;
+        }
+
+        // Defined in memory, a class loader of its own per run
+        String className = cf.getClassName();
+        byte[] classFile = bytes.toByteArray();
+        ClassLoader classLoader = new ClassLoader(CodeTest.class.getClassLoader()){
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException{
+                if(!name.equals(className)){
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+        };
+        return runMain(classLoader, className);
+    }
+
+    /**
+     * Loads the given classfile, runs it and deletes it afterwards.
+     * @param classFile The classfile on disk.
+     * @param className The name of the contained class.
+     * @return The output given by the code. or null if the code was not able to run.
+     */
+    private static String runClassFile(Path classFile, String className){
+        String output;
+        try{
+            URLClassLoader classLoader = new URLClassLoader(
+                new URL[]{classFile.toAbsolutePath().getParent().toUri().toURL()}, 
+                Thread.currentThread().getContextClassLoader()
+            );
+            output = runMain(classLoader, className);
+        } catch (Exception e){
+            output = null;
+        }
+
+        //Cleanup
+        try{
+            Files.delete(classFile);
+        } catch(Exception e){
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * Runs the main method of a class and captures System.out.
+     * @param classLoader Loads the class.
+     * @param className The name of the class.
+     * @return The output given by the code. or null if the code was not able to run.
+     */
+    private static String runMain(ClassLoader classLoader, String className){
 
         // Redirect stdout
         PrintStream sysout = System.out;
@@ -109,22 +190,8 @@ public class CodeTest{
         PrintStream capture = new PrintStream(baos);
         System.setOut(capture);
 
-
-        // write classfile to tmp file.
-        String className = cf.getClassName();
-        Path tmpFile = Paths.get(className + ".class");
-        OutputStream os;
         try{
-            os = Files.newOutputStream(tmpFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
-            cf.write(os);
-            os.close();
-
             // invoke main via reflection
-            URLClassLoader classLoader = new URLClassLoader(
-                new URL[]{tmpFile.toAbsolutePath().getParent().toUri().toURL()}, 
-                Thread.currentThread().getContextClassLoader()
-            );
-
             Class<?> cls = Class.forName(className, false, classLoader);
             Method m = cls.getMethod("main", String[].class);
             m.invoke(null, (Object) null);
@@ -132,62 +199,29 @@ public class CodeTest{
         } catch (Exception e){
             return null;
         } finally {
-            //Cleanup
             System.setOut(sysout);
-            try{
-                Files.delete(tmpFile);
-            } catch(Exception e){
-                return null;
-            }
         }
 
         return baos.toString();
     } 
 
     /**
-     * Takes in C-- sourcecode, compiles it to jasmin, assembles it, 
-     * runs it and returns the output of System.out of the given code.
+     * Takes in C-- sourcecode, compiles it in memory to a classfile and to jasmin,
+     * runs both and returns the output of System.out of the given code.
      * @param source C-- source code
-     * @return Everything printed to System.out while the code was running.
+     * @return Everything printed to System.out while the code was running,
+     *          null if the code does not compile or ends with an exception.
      */
     public static String runCmm(String source){
-
-        // ParseTree tree = createParser(source).program();
-        // ProgramVisitor v = new ProgramVisitor("TestAsm");
-        
-        // String asm = String.join(System.lineSeparator(), v.visit(tree));   
-
-        // String output = runJasmin(asm);
-
-        Path srcPath = Paths.get("TestAsm.cmm");
-        try {
-            Files.write(srcPath, source.getBytes(), StandardOpenOption.CREATE_NEW);
-        } catch (IOException e) {
-            return "File not accessible";
-        }
-
-        String output = runCmm(srcPath);
-
-        try {
-            Files.delete(srcPath);
-        } catch(IOException e){
-            
+        CompiledProgram program = new Compiler("TestAsm", source).compileProgram();
+        if(program == null){
+            return null;
         }
+        CompiledProgram.Result result = program.run("");
+        String output = result.isSuccess() ? result.getOutput() : null;
 
-        return output;
-    }
-
-    /**
-     * Takes in C-- sourcecode, compiles it to jasmin, assembles it, 
-     * runs it and returns the output of System.out of the given code.
-     * @param source C-- source code
-     * @return Everything printed to System.out while the code was running.
-     */
-    public static String runCmm(Path source){
-        Compiler cmp = new Compiler(source, true);
-        cmp.compile();
-
-        String output = runJasmin(source);
+        List<String> asm = new Compiler("TestAsm", source).compileToJasmin();
+        assertEquals(output, runJasmin(String.join(System.lineSeparator(), asm)), "Jasmin and classfile backend differ");
 
         return output;
     }
@@ -222,6 +256,25 @@ public class CodeTest{
         return tmpParser;
     }
 
+    /**
+     * Compiles C-- source code into a class model, without running the optimizer.
+     * @param input C-- source code
+     * @return The compiled program.
+     */
+    private static ClassModel compileModel(String input){
+        ProgramVisitor v = new ProgramVisitor("TestAsm");
+        v.visit(createParser(input).program());
+        return v.getClassModel();
+    }
+
+    /**
+     * @param m A compiled method.
+     * @return The instructions of the method as printed in Jasmin assembly.
+     */
+    private static List<String> listing(MethodModel m){
+        return m.getCode().stream().map(Object::toString).collect(Collectors.toList());
+    }
+
 
     @Test
     public void testAsmInput(){
@@ -832,7 +885,653 @@ public class CodeTest{
 		expected = "-2" + System.lineSeparator();
 		assertEquals(expected, runCmm(input));
 	}
-	
+
+    @Test
+    public void testWideJumps() {
+        // The loop body is larger than the 32 KiB a 2 byte branch offset reaches
+        StringBuilder input = new StringBuilder("void main(){num i; i = 0; loop(i < 2){");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 7000; i++) {
+            input.append("println(i + 1);");
+        }
+        input.append("i = i + 1;}}");
+        for (int i = 1; i <= 2; i++) {
+            for (int j = 0; j < 7000; j++) {
+                expected.append(i).append(System.lineSeparator());
+            }
+        }
+
+        for (int level = 0; level <= PassManager.MAX_LEVEL; level++) {
+            Compiler cmp = new Compiler("TestAsm", input.toString());
+            cmp.setOptimizationLevel(level);
+            CompiledProgram.Result result = cmp.compileProgram().run("");
+            assertTrue(result.isSuccess());
+            assertEquals(expected.toString(), result.getOutput());
+        }
+    }
+
+    @Test
+    public void testStackLimit() {
+        String input = "num f(num a){if(a < 3){return a + (a * (a - 1));} return 0;} void main(){println(f(2));}";
+        assertEquals(4, compileModel(input).getMethod("f(I)I").getMaxStack());
+        assertEquals("4" + System.lineSeparator(), runCmm(input));
+
+        Assertions.assertThrows(NoReturnException.class,
+            () -> compileModel("num f(){println(1);} void main(){println(f());}"));
+        Assertions.assertThrows(NoReturnException.class,
+            () -> compileModel("num f(num a){loop(a > 0){return a;}} void main(){println(f(1));}"));
+
+        // Every path returns, the end of the function is unreachable
+        assertEquals("3" + System.lineSeparator(), runCmm("num f(num a){if(a > 0){return 2;} else {return 3;}} void main(){println(f(0));}"));
+    }
+
+    @Test
+    public void testConstantFolding() {
+        final String ls = System.lineSeparator();
+        String input;
+
+        input = "void main(){const num a = 5; println(2 + 2 + 2 + a); println(7 / (3 - 3));}";
+        ClassModel cls = compileModel(input);
+        List<Opcode> ops = cls.getMethod("main()V").getCode().stream()
+            .map(x -> x.getOpcode()).collect(Collectors.toList());
+        assertEquals(Arrays.asList(Opcode.BIPUSH, Opcode.INVOKESTATIC, Opcode.BIPUSH, Opcode.ICONST_0, Opcode.IDIV, Opcode.INVOKESTATIC, Opcode.RETURN), ops);
+
+        input = "void main(){num a; num b; a = 3; b = a * 2; if(get() > 0){a = 4;} println(a + b); println(b - 2147483647 - 2);}";
+        cls = compileModel(input);
+        assertFalse(cls.getMethod("main()V").getCode().stream().anyMatch(x -> x.getOpcode() == Opcode.IMUL));
+
+        input = "void main(){num a; a = 0; loop(a < 3){a = a + 1;} println(a); if(a == 3){a = 7;} else {a = 7;} println(a + 1);}";
+        assertEquals("3" + ls + "8" + ls, runCmm(input));
+
+        input = "void main(){num a; num b; a = 1; b = 2147483647; println(b + a); println((b + a) < 0);}";
+        assertEquals("-2147483648" + ls + "1" + ls, runCmm(input));
+    }
+
+    @Test
+    public void testConstantLoading() {
+        int[] values = {-1, 0, 5, 6, -2, 127, -128, 128, -129, 32767, -32768, 32768, -32769, 2147483647, -2147483647, 32768};
+        Opcode[] expected = {
+            Opcode.ICONST_M1, Opcode.ICONST_0, Opcode.ICONST_5, Opcode.BIPUSH, Opcode.BIPUSH, Opcode.BIPUSH, Opcode.BIPUSH,
+            Opcode.SIPUSH, Opcode.SIPUSH, Opcode.SIPUSH, Opcode.SIPUSH, Opcode.LDC, Opcode.LDC, Opcode.LDC, Opcode.LDC, Opcode.LDC
+        };
+
+        StringBuilder input = new StringBuilder("void main(){");
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(expected[i], Instruction.push(values[i]).getOpcode());
+            assertEquals(values[i], Instruction.push(values[i]).getConstantValue().intValue());
+            input.append("println(" + values[i] + ");");
+            output.append(values[i] + System.lineSeparator());
+        }
+        input.append("}");
+        assertEquals(output.toString(), runCmm(input.toString()));
+    }
+
+    @Test
+    public void testFusedConditions() {
+        final String ls = System.lineSeparator();
+        String input;
+
+        input = "num gt(num a, num b){return a > b;} num le(num a, num b){if(a <= b){return 1;} return 0;}"
+            + "void main(){println(gt(2147483647, 0 - 2)); println(le(2147483647, 0 - 2)); println(!(gt(1, 0) == 1));}";
+        assertEquals("1" + ls + "0" + ls + "0" + ls, runCmm(input));
+
+        input = "void f(num n){num i; i = 0; loop(i < n){i = i + 1;} if(!(i != 0)){println(i);}} void main(){f(3);}";
+        ClassModel cls = compileModel(input);
+        List<Opcode> jumps = cls.getMethod("f(I)V").getCode().stream()
+            .map(x -> x.getOpcode()).filter(Opcode::isJump).collect(Collectors.toList());
+        assertEquals(Arrays.asList(Opcode.IF_ICMPGE, Opcode.GOTO, Opcode.IFNE), jumps);
+    }
+
+    @Test
+    public void testShortCircuit() {
+        final String ls = System.lineSeparator();
+        String input;
+
+        input = "num n; num count(num r){n = n + 1; return r;}"
+            + "void main(){n = 0; println(0 && count(1)); println(3 || count(0)); println(2 && 4); println(n);"
+            + "if(count(0) && count(1)){println(1);} if(count(5) || count(1)){println(2);} println(n);"
+            + "loop(n < 10 && count(1)){} println(n); println(!(count(0) || count(0)));}";
+        assertEquals("0" + ls + "1" + ls + "1" + ls + "0" + ls + "2" + ls + "2" + ls + "10" + ls + "1" + ls, runCmm(input));
+    }
+
+    @Test
+    public void testPeephole() {
+        Label a = new Label("a"), b = new Label("b"), c = new Label("c");
+        InstructionList code = new InstructionList();
+        code.addLocal(Opcode.ILOAD, 0);
+        code.addConstant(0);
+        code.add(Opcode.IADD);       // neutral element
+        code.addLocal(Opcode.ISTORE, 1);
+        code.addLocal(Opcode.ILOAD, 1); // store load
+        code.addJump(Opcode.IFEQ, a);   // threaded to c
+        code.addConstant(1);
+        code.addJump(Opcode.IFNE, b);   // constant branch, becomes a goto threaded to the return
+        code.addLabel(a);
+        code.addJump(Opcode.GOTO, c);
+        code.addLabel(b);
+        code.addJump(Opcode.GOTO, c);
+        code.addLabel(c);
+        code.add(Opcode.RETURN);
+
+        MethodModel m = new MethodModel(Opcodes.ACC_STATIC, "f", "(I)V", code);
+        PeepholeOptimizer opt = new PeepholeOptimizer();
+        assertTrue(opt.optimize(m));
+
+        assertEquals(Arrays.asList("iload 0", "dup", "istore 1", "ifeq c", "return", "c:", "return"), listing(m));
+        assertEquals(2, m.getMaxStack());
+        assertEquals(1, opt.getReport().get("neutral element").intValue());
+        assertEquals(1, opt.getReport().get("store load").intValue());
+        assertEquals(1, opt.getReport().get("constant branch").intValue());
+        assertEquals(2, opt.getReport().get("unused label").intValue());
+        assertEquals(2, opt.getReport().get("unreachable").intValue());
+    }
+
+    @Test
+    public void testDeadCodeElimination() {
+        String input = "num unused; num g; num never(num x){return x * 2;} num sq(num x){num t; t = x * 3; return x * x; println(5);}"
+            + "void main(){num a; a = 5; g = 1; unused = sq(2); if(0){println(never(1));} loop(0){a = a + 1;} a = 7; println(sq(a) + g);}";
+        assertEquals("50" + System.lineSeparator(), runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        cls.addField(new FieldModel(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "unused", "I"));
+        cls.addField(new FieldModel(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "g", "I"));
+
+        DeadCodeEliminator dce = new DeadCodeEliminator();
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        cls.getMethods().forEach(m -> {
+            while(dce.optimize(m) | peephole.optimize(m)){
+            }
+        });
+        dce.removeUnusedMembers(cls);
+
+        assertNull(cls.getMethod("never(I)I"));
+        assertNull(cls.getMethod("get()I"));
+        assertEquals(1, cls.getFields().size());
+        assertEquals(Arrays.asList("iload 0", "iload 0", "imul", "ireturn"),
+            listing(cls.getMethod("sq(I)I")));
+        assertFalse(cls.getMethod("main()V").getCode().stream().anyMatch(x -> x.getOpcode() == Opcode.ISTORE));
+    }
+
+    @Test
+    public void testInlining() {
+        final String ls = System.lineSeparator();
+        String input = "num sq(num x){return x * x;} num abs(num x){if(x < 0){return 0 - x;} return x;}"
+            + "num even(num n){if(n == 0){return 1;} return odd(n - 1);} num odd(num n){if(n == 0){return 0;} return even(n - 1);}"
+            + "num fac(num n){if(n < 2){return 1;} return n * fac(n - 1);}"
+            + "void main(){num i; i = 0 - 3; loop(i < 3){println(sq(abs(i)) + sq(i + 1)); i = i + 1;} println(even(10) + fac(5));}";
+        assertEquals("13" + ls + "5" + ls + "1" + ls + "1" + ls + "5" + ls + "13" + ls + "121" + ls, runCmm(input));
+
+        ProgramVisitor v = new ProgramVisitor("TestAsm");
+        v.visit(createParser(input).program());
+        ClassModel cls = v.getClassModel();
+        Inliner inliner = new Inliner(v.getDefinedFunctions());
+        inliner.inline(cls);
+
+        List<String> calls = cls.getMethod("main()V").getCode().stream()
+            .filter(x -> x.getOpcode() == Opcode.INVOKESTATIC)
+            .map(x -> x.getName()).collect(Collectors.toList());
+        assertEquals(Arrays.asList("even", "fac"), calls);
+        assertEquals(6, inliner.getReport().get("inlined call").intValue());
+    }
+
+    @Test
+    public void testTailCalls() {
+        final String ls = System.lineSeparator();
+        String input = "num gcd(num a, num b){if(b == 0){return a;} return gcd(b, a - a / b * b);}"
+            + "num sum(num n, num acc){if(n == 0){return acc;} return sum(n - 1, acc + n);}"
+            + "num fac(num n){if(n < 2){return 1;} return n * fac(n - 1);}"
+            + "void main(){println(gcd(1071, 462)); println(sum(1000000, 0)); println(fac(5));}";
+        assertEquals("21" + ls + "1784293664" + ls + "120" + ls, runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        assertFalse(cls.getMethod("gcd(II)I").getCode().stream().anyMatch(x -> x.getOpcode().getKind() == Opcode.Kind.METHOD));
+        assertFalse(cls.getMethod("sum(II)I").getCode().stream().anyMatch(x -> x.getOpcode().getKind() == Opcode.Kind.METHOD));
+        assertTrue(cls.getMethod("fac(I)I").getCode().stream().anyMatch(x -> x.getOpcode() == Opcode.INVOKESTATIC));
+    }
+
+    @Test
+    public void testSlotAllocation() {
+        final String ls = System.lineSeparator();
+        String input = "num f(num x){num a; a = x * 2; println(a); num b; b = a + x; println(b); num c; c = x - 1; println(c); return c;}"
+            + "void main(){println(f(5));}";
+        assertEquals("10" + ls + "15" + ls + "4" + ls + "4" + ls, runCmm(input));
+
+        MethodModel m = compileModel(input).getMethod("f(I)I");
+        assertEquals(4, m.getMaxLocals());
+
+        SlotAllocator slots = new SlotAllocator();
+        assertTrue(slots.optimize(m));
+        assertEquals(2, m.getMaxLocals());
+        assertEquals(2, slots.getReport().get("saved slot").intValue());
+        // b reuses the slot of a, c the one of the parameter x after their last use
+        assertEquals(Arrays.asList("iload 0", "istore 1", "iload 1",
+            "iload 1", "iload 0", "istore 1", "iload 1",
+            "iload 0", "istore 0", "iload 0", "iload 0"),
+            m.getCode().stream().filter(x -> x.getOpcode().getKind() == Opcode.Kind.LOCAL)
+                .map(Object::toString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testGlobalPromotion() {
+        final String ls = System.lineSeparator();
+        String input = "num g; num h; num f(num n){h = h + n; return h;}"
+            + "void main(){num i; i = 0; loop(i < 100){g = g + i; i = i + 1;} println(g); println(f(2));"
+            + "i = 0; loop(i < 3){h = h + f(i); i = i + 1;} println(h); i = 0; loop(i < 10){h = h + i; i = i + 1;} println(h);}";
+        assertEquals("4950" + ls + "2" + ls + "20" + ls + "65" + ls, runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        new DeadCodeEliminator().removeUnusedMembers(cls);
+        GlobalPromoter promoter = new GlobalPromoter();
+        promoter.promote(cls);
+
+        // g everywhere in main, h within f and within the last loop of main
+        assertEquals(2, promoter.getReport().get("in function").intValue());
+        assertEquals(1, promoter.getReport().get("in loop").intValue());
+        List<String> fields = cls.getMethod("main()V").getCode().stream()
+            .filter(x -> x.getOpcode() == Opcode.GETSTATIC || x.getOpcode() == Opcode.PUTSTATIC)
+            .filter(x -> x.getOwner().equals("TestAsm"))
+            .map(Object::toString).collect(Collectors.toList());
+        assertEquals(Arrays.asList("getstatic TestAsm/g I", "getstatic TestAsm/h I", "putstatic TestAsm/h I",
+            "getstatic TestAsm/h I", "getstatic TestAsm/h I", "putstatic TestAsm/h I",
+            "getstatic TestAsm/h I", "putstatic TestAsm/g I"), fields);
+    }
+
+    @Test
+    public void testLoopInvariants() {
+        final String ls = System.lineSeparator();
+        String input = "num g; num f(num n){num i; num s; i = 0; s = 0; loop(i < n * n - 1){s = s + (n + 2) * 3 + g / 2 + i * n; i = i + 1;} return s;}"
+            + "num h(num n){num i; i = 0; loop(i < n){g = g + n * 2; i = i + 1;} return g;}"
+            + "void main(){g = 8; println(f(4)); println(h(3)); println(f(2));}";
+        assertEquals("750" + ls + "26" + ls + "81" + ls, runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        List<Instruction> code = cls.getMethod("f(I)I").getCode();
+        int loop = 0;
+        while(code.get(loop).getOpcode() != Opcode.LABEL){
+            loop++;
+        }
+
+        // n * n - 1, (n + 2) * 3 and g / 2 in front of the loop, i * n is advanced along with i
+        List<Opcode> before = code.subList(0, loop).stream().map(Instruction::getOpcode).collect(Collectors.toList());
+        List<Opcode> within = code.subList(loop, code.size()).stream().map(Instruction::getOpcode).collect(Collectors.toList());
+        assertEquals(3, before.stream().filter(x -> x == Opcode.IMUL).count());
+        assertEquals(1, before.stream().filter(x -> x == Opcode.IUSHR).count());
+        assertFalse(within.contains(Opcode.IMUL));
+        assertFalse(within.contains(Opcode.IUSHR));
+        assertFalse(within.contains(Opcode.GETSTATIC));
+
+        // g is assigned within the loop of h, n * 2 is still invariant
+        code = cls.getMethod("h(I)I").getCode();
+        assertEquals(Opcode.ISHL, code.get(4).getOpcode());
+    }
+
+    @Test
+    public void testStrengthReduction() {
+        final String ls = System.lineSeparator();
+        String input = "void d(num x){println(x / 2); println(x / 4); println(x / (0 - 4)); println(x / 3); println(x / 7);"
+            + "println(x / (0 - 9)); println(x / 1000); println(x * 8); println(x * (0 - 2)); println(x * 6);}"
+            + "void main(){num i; num s; d(23); d(0 - 23); d(0 - 2147483647 - 1); i = 0; s = 0; loop(i < 10){s = s + i * 5; i = i + 2;} println(s);}";
+        assertEquals("11" + ls + "5" + ls + "-5" + ls + "7" + ls + "3" + ls + "-2" + ls + "0" + ls + "184" + ls + "-46" + ls + "138" + ls
+            + "-11" + ls + "-5" + ls + "5" + ls + "-7" + ls + "-3" + ls + "2" + ls + "0" + ls + "-184" + ls + "46" + ls + "-138" + ls
+            + "-1073741824" + ls + "-536870912" + ls + "536870912" + ls + "-715827882" + ls + "-306783378" + ls + "238609294" + ls
+            + "-2147483" + ls + "0" + ls + "0" + ls + "0" + ls + "100" + ls, runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        List<Opcode> d = cls.getMethod("d(I)V").getCode().stream().map(Instruction::getOpcode).collect(Collectors.toList());
+        assertFalse(d.contains(Opcode.IDIV));
+        assertEquals(1, d.stream().filter(x -> x == Opcode.IMUL).count());
+
+        // i * 5 is an accumulator advanced by 10 after i = i + 2
+        List<Instruction> main = cls.getMethod("main()V").getCode();
+        assertEquals(1, main.stream().filter(x -> x.getOpcode() == Opcode.IMUL).count());
+        assertTrue(main.stream().anyMatch(x -> x.getOpcode() == Opcode.IINC && x.getIncrement() == 10));
+    }
+
+    @Test
+    public void testIncrement() {
+        final String ls = System.lineSeparator();
+        String input = "const num C = 300; void f(num i){i = i + 1; i = C + i; i = i - 7; i = i + 40000; i = i + i; println(i);} void main(){f(5);}";
+        assertEquals("80598" + ls, runCmm(input));
+
+        ClassModel cls = compileModel(input);
+        List<String> iinc = cls.getMethod("f(I)V").getCode().stream()
+            .filter(x -> x.getOpcode() == Opcode.IINC)
+            .map(Object::toString).collect(Collectors.toList());
+        assertEquals(Arrays.asList("iinc 0 1", "iinc 0 300", "iinc 0 -7"), iinc);
+
+        // Left behind by other passes
+        InstructionList code = new InstructionList();
+        code.addConstant(5);
+        code.addLocal(Opcode.ILOAD, 1);
+        code.add(Opcode.IADD);
+        code.addLocal(Opcode.ISTORE, 1);
+        code.addLocal(Opcode.ILOAD, 1);
+        code.addConstant(32768);
+        code.add(Opcode.ISUB);
+        code.addLocal(Opcode.ISTORE, 1);
+        code.addConstant(5);
+        code.addLocal(Opcode.ILOAD, 1);
+        code.add(Opcode.ISUB);       // 5 - i stays
+        code.addLocal(Opcode.ISTORE, 1);
+        code.add(Opcode.RETURN);
+
+        MethodModel m = new MethodModel(Opcodes.ACC_STATIC, "f", "(II)V", code);
+        PeepholeOptimizer opt = new PeepholeOptimizer();
+        assertTrue(opt.optimize(m));
+        assertEquals(2, opt.getReport().get("increment").intValue());
+        assertEquals("iinc 1 5", m.getCode().get(0).toString());
+        assertEquals("iinc 1 -32768", m.getCode().get(1).toString());
+    }
+
+    @Test
+    public void testCallingConvention() {
+        String input = "num g; num f(num a){g = g + a; if(a == 0){return g;} return f(a - 1);} void main(){g = 0; println(f(4));}";
+        assertEquals("10" + System.lineSeparator(), runCmm(input));
+
+        MethodModel f = compileModel(input).getMethod("f(I)I");
+        assertEquals(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, f.getAccess());
+        assertEquals(1, f.getMaxLocals());
+        assertFalse(f.getCode().stream().anyMatch(x -> x.getOpcode() == Opcode.ALOAD || x.getOpcode() == Opcode.INVOKEVIRTUAL));
+
+        ProgramVisitor v = new ProgramVisitor("TestAsm");
+        v.setStaticCalls(false);
+        v.visit(createParser(input).program());
+        f = v.getClassModel().getMethod("f(I)I");
+        assertEquals(Opcodes.ACC_PUBLIC, f.getAccess());
+        assertEquals(2, f.getMaxLocals());
+    }
+
+    @Test
+    public void testBufferedOutput() throws IOException {
+        String input = "void main(){num i; i = 0 - 3; loop(i < 3){println(i * 1000000000); i = i + 1;} flush(); println(0 - 2147483647 - 1);}";
+        String expected = "1294967296\n-2000000000\n-1000000000\n0\n1000000000\n2000000000\n-2147483648\n"
+            .replace("\n", System.lineSeparator());
+        Compiler buffered = new Compiler("TestAsm", input);
+        buffered.setBufferedOutput(true);
+        assertEquals(expected, buffered.compileProgram().run("").getOutput());
+
+        // flush is predefined with buffered output only
+        assertNull(new Compiler("TestAsm", input).compileProgram());
+
+        Path source = Paths.get("TestAsm.cmm");
+        Files.write(source, input.getBytes(), StandardOpenOption.CREATE_NEW);
+        for (boolean staticCalls : new boolean[]{true, false}) {
+            Compiler cmp = new Compiler(source, true);
+            cmp.setStaticCalls(staticCalls);
+            cmp.setBufferedOutput(true);
+            cmp.compile();
+            assertEquals(expected, runJasmin(source));
+
+            cmp = new Compiler(source, false);
+            cmp.setStaticCalls(staticCalls);
+            cmp.setBufferedOutput(true);
+            cmp.compile();
+            assertEquals(expected, runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+        }
+        Files.delete(source);
+
+        // Every line is formatted without calling into the class library
+        ProgramVisitor v = new ProgramVisitor("TestAsm");
+        v.setBufferedOutput(true);
+        v.visit(createParser(input).program());
+        assertFalse(v.getClassModel().getMethod("println(I)V").getCode().stream()
+            .anyMatch(x -> x.getOpcode() == Opcode.INVOKEVIRTUAL));
+    }
+
+    @Test
+    public void testBufferedOutputOnException() throws Exception {
+        final String ls = System.lineSeparator();
+        String input = "num a; void main(){a = get(); println(1); println(2); println(5 / a); println(3);}";
+        for (int level = 0; level <= PassManager.MAX_LEVEL; level++) {
+            for (boolean staticCalls : new boolean[]{true, false}) {
+                Compiler cmp = new Compiler("TestAsm", input);
+                cmp.setOptimizationLevel(level);
+                cmp.setStaticCalls(staticCalls);
+                cmp.setBufferedOutput(true);
+                CompiledProgram.Result result = cmp.compileProgram().run("0");
+                assertTrue(result.getError() instanceof ArithmeticException);
+                assertEquals("1" + ls + "2" + ls, result.getOutput());
+            }
+        }
+
+        Compiler cmp = new Compiler("TestAsm", input);
+        cmp.setBufferedOutput(true);
+        String asm = String.join(System.lineSeparator(), cmp.compileToJasmin());
+        assertTrue(asm.contains(".catch all from ExitStart to ExitHandler using ExitHandler"));
+        ClassFile cf = new ClassFile();
+        cf.readJasmin(new StringReader(asm), "TestAsm", true);
+        assertEquals(0, cf.errorCount());
+    }
+
+    @Test
+    public void testUserDefinedFlush() {
+        String input = "num n; void flush(){ n = n + 1; } void main(){ flush(); println(n); }";
+        for (int level = 0; level <= PassManager.MAX_LEVEL; level++) {
+            Compiler cmp = new Compiler("TestAsm", input);
+            cmp.setOptimizationLevel(level);
+            CompiledProgram.Result result = cmp.compileProgram().run("");
+            assertTrue(result.isSuccess());
+            assertEquals("1" + System.lineSeparator(), result.getOutput());
+        }
+        assertEquals("1" + System.lineSeparator(), runCmm(input));
+
+        Compiler cmp = new Compiler("TestAsm", input);
+        cmp.setBufferedOutput(true);
+        assertNull(cmp.compileProgram());
+    }
+
+    @Test
+    public void testInputReader() throws IOException {
+        final String ls = System.lineSeparator();
+        Path source = Paths.get("TestAsm.cmm");
+        Files.write(source, "void main(){num n; n = get(); loop(n > 0){println(get()); n = n - 1;}}".getBytes(), StandardOpenOption.CREATE_NEW);
+        new Compiler(source, false).compile();
+        Files.delete(source);
+        byte[] cls = Files.readAllBytes(Paths.get("TestAsm.class"));
+
+        java.io.InputStream stdin = System.in;
+        try {
+            // Every call shares the buffered input
+            System.setIn(new java.io.ByteArrayInputStream("6\n 12 -7\t2147483647\r\n-2147483648 +3 0".getBytes()));
+            assertEquals("12" + ls + "-7" + ls + "2147483647" + ls + "-2147483648" + ls + "3" + ls + "0" + ls,
+                runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+
+            // Malformed and missing input throws like Scanner.nextInt()
+            for (String in : new String[]{"2 5 x", "2 5 2147483648", "2 5 -", "2 5 12a", "2 5"}) {
+                Files.write(Paths.get("TestAsm.class"), cls);
+                System.setIn(new java.io.ByteArrayInputStream(in.getBytes()));
+                assertNull(runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+            }
+        } finally {
+            System.setIn(stdin);
+        }
+    }
+
+    @Test
+    public void testConstantPropagation() throws IOException {
+        final String ls = System.lineSeparator();
+        String input = "void f(num n){num a; num i; a = 4; i = 0; loop(i < n){if(i > 100){a = 4;} i = i + 1;} println(a * 3 + i);} void main(){f(2);}";
+        assertEquals("14" + ls, runCmm(input));
+
+        // a keeps its value around the loop, so the phi at its head is constant
+        MethodModel f = compileModel(input).getMethod("f(I)V");
+        SsaForm ssa = new SsaForm(f.getCode());
+        assertTrue(ssa.getValues().stream().anyMatch(x -> x.getKind() == SsaForm.Value.Kind.PHI));
+        ConstantPropagator constants = new ConstantPropagator();
+        assertTrue(constants.optimize(f));
+        assertEquals(1, constants.getReport().get("constant load").intValue());
+        new PeepholeOptimizer().optimize(f);
+        assertTrue(f.getCode().stream().anyMatch(x -> Integer.valueOf(12).equals(x.getConstantValue())));
+        assertFalse(f.getCode().stream().anyMatch(x -> x.getOpcode() == Opcode.IMUL));
+
+        // Every level compiles the same program
+        Path source = Paths.get("TestAsm.cmm");
+        Files.write(source, input.getBytes(), StandardOpenOption.CREATE_NEW);
+        for (int level = 0; level <= PassManager.MAX_LEVEL; level++) {
+            Compiler cmp = new Compiler(source, false);
+            cmp.setOptimizationLevel(level);
+            cmp.compile();
+            assertEquals("14" + ls, runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+        }
+        Files.delete(source);
+    }
+
+    @Test
+    public void testBatchCompiler() throws IOException {
+        final String ls = System.lineSeparator();
+        List<Compiler> units = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Path source = Paths.get("TestBatch" + i + ".cmm");
+            String body = (i == 5) ? "println(undefined);" : "println(" + i + " * 7);";
+            Files.write(source, ("void main(){" + body + "}").getBytes(), StandardOpenOption.CREATE_NEW);
+            units.add(new Compiler(source, false));
+        }
+
+        List<BatchCompiler.Result> results;
+        try {
+            results = new BatchCompiler(units, 4).compile();
+        } finally {
+            for (Compiler unit : units) {
+                Files.delete(unit.getInfile());
+            }
+        }
+
+        // The failing unit does not stop the others
+        assertEquals(8, results.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(units.get(i), results.get(i).getUnit());
+            assertEquals(i != 5, results.get(i).isSuccess());
+            if(i != 5){
+                assertEquals((i * 7) + ls, runClassFile(Paths.get("TestBatch" + i + ".class"), "TestBatch" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testCompileServer() throws Exception {
+        final String ls = System.lineSeparator();
+        try (CompileServer server = new CompileServer(0)) {
+            server.setRequestTimeout(500);
+            Thread thread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                }
+            });
+            thread.start();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            Path source = Paths.get("TestAsm.cmm");
+            Files.write(source, "void main(){println(6 * 7);}".getBytes(), StandardOpenOption.CREATE_NEW);
+            assertEquals(0, CompileClient.forward(server.getPort(), new String[]{"TestAsm.cmm"}, new PrintStream(out), new PrintStream(err)));
+            assertEquals("42" + ls, runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+
+            // Diagnostics and the status come back to the client
+            Files.write(source, "void main(){println(x);}".getBytes());
+            assertEquals(1, CompileClient.forward(server.getPort(), new String[]{"TestAsm.cmm"}, new PrintStream(out), new PrintStream(err)));
+            assertTrue(err.toString().contains("TestAsm.cmm: Undefined symbol (x)"));
+            assertFalse(Files.exists(Paths.get("TestAsm.class")));
+            Files.delete(source);
+
+            // Only the user of the server can read its token
+            Path token = CompileServer.tokenFile(server.getPort());
+            if(token.getFileSystem().supportedFileAttributeViews().contains("posix")){
+                assertEquals("rw-------", java.nio.file.attribute.PosixFilePermissions.toString(Files.getPosixFilePermissions(token)));
+            }
+
+            // Clients sending nothing, garbage or a wrong token are dropped, the server keeps serving
+            try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 Socket garbage = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 Socket forged = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                garbage.getOutputStream().write(new byte[]{0, 0, -1, -1, -1, -1});
+                java.io.DataOutputStream request = new java.io.DataOutputStream(forged.getOutputStream());
+                request.writeUTF("0000");
+                request.writeUTF(Paths.get("").toAbsolutePath().toString());
+                request.writeInt(1);
+                request.writeUTF("--shutdown");
+                request.flush();
+                assertEquals(0, CompileClient.forward(server.getPort(), new String[]{"--help"}, new PrintStream(out), new PrintStream(err)));
+            }
+
+            assertEquals(0, CompileClient.forward(server.getPort(), new String[]{"--shutdown"}));
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            server.close();
+            assertFalse(Files.exists(token));
+        }
+    }
+
+    @Test
+    public void testBuildCache() throws IOException {
+        final String ls = System.lineSeparator();
+        Path directory = Files.createTempDirectory("cmmcache");
+        Path source = Paths.get("TestAsm.cmm");
+        try {
+            BuildCache cache = new BuildCache(directory, BuildCache.DEFAULT_MAX_SIZE);
+            Files.write(source, "void main(){println(6 * 7);}".getBytes(), StandardOpenOption.CREATE_NEW);
+            for (int i = 0; i < 2; i++) {
+                Compiler cmp = new Compiler(source, false);
+                cmp.setBuildCache(cache);
+                assertTrue(cmp.compile());
+                assertEquals("42" + ls, runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+            }
+
+            // Changed options and sources are compiled again
+            Compiler cmp = new Compiler(source, false);
+            cmp.setBuildCache(cache);
+            cmp.setOptimizationLevel(0);
+            assertTrue(cmp.compile());
+            Files.write(source, "void main(){println(6 * 8);}".getBytes());
+            cmp = new Compiler(source, false);
+            cmp.setBuildCache(cache);
+            assertTrue(cmp.compile());
+            assertEquals("48" + ls, runClassFile(Paths.get("TestAsm.class"), "TestAsm"));
+            assertEquals(1, cache.getReport().get("hit").intValue());
+            assertEquals(3, cache.getReport().get("miss").intValue());
+            assertEquals(3, Files.list(directory).count());
+
+            // Only the entry used last fits
+            List<Path> entries = new ArrayList<>();
+            Files.list(directory).forEach(entries::add);
+            for (int i = 0; i < entries.size(); i++) {
+                Files.setLastModifiedTime(entries.get(i), java.nio.file.attribute.FileTime.fromMillis(1000 * (i + 1)));
+            }
+            cache = new BuildCache(directory, Files.size(entries.get(2)));
+            assertEquals(2, cache.getReport().get("evicted").intValue());
+            assertTrue(Files.exists(entries.get(2)));
+        } finally {
+            Files.walk(directory).sorted(java.util.Comparator.reverseOrder()).forEach(x -> x.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCompiledProgram() {
+        final String ls = System.lineSeparator();
+        String input = "num total; void main(){num n; n = get(); loop(n > 0){total = total + get(); n = n - 1;} println(total);}";
+        for (boolean buffered : new boolean[]{false, true}) {
+            Compiler cmp = new Compiler("TestMemory", input);
+            cmp.setBufferedOutput(buffered);
+            cmp.setStaticCalls(!buffered);
+            CompiledProgram program = cmp.compileProgram();
+
+            // Every run starts with fresh globals and its own streams
+            CompiledProgram.Result first = program.run("3 1 2 3");
+            CompiledProgram.Result second = program.run("2 40 2");
+            assertTrue(first.isSuccess());
+            assertEquals("6" + ls, first.getOutput());
+            assertEquals("42" + ls, second.getOutput());
+            assertFalse(program.run("2 1").isSuccess());
+        }
+        assertFalse(Files.exists(Paths.get("TestMemory.class")));
+
+        byte[] cls = new Compiler("TestMemory", "void main(){println(1);}").compileToClass();
+        assertEquals(0xCAFEBABE, java.nio.ByteBuffer.wrap(cls).getInt());
+        assertTrue(String.join("\n", new Compiler("TestMemory", "void main(){println(1);}").compileToJasmin()).contains(".class public TestMemory"));
+        assertNull(new Compiler("TestMemory", "void main(){println(x);}").compileProgram());
+    }
+
     public static void main(String[] args) {
         App a = new App();
         String[] arg = {"-j", "test.txt"};
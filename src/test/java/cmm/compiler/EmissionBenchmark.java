@@ -0,0 +1,69 @@
+package cmm.compiler;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import cmm.compiler.ir.MethodModel;
+
+/**
+ * Measures how code generation scales with the size of a single function.
+ * Generates functions with up to 100k statements and times only the
+ * {@link ProgramVisitor}, parsing is excluded.<br>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=cmm.compiler.EmissionBenchmark} or from an IDE.
+ *
+ * @author Leslie Marxen
+ */
+public class EmissionBenchmark{
+
+    private static final int[] SIZES = {12_500, 25_000, 50_000, 100_000};
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args){
+        for (int i = 0; i < WARMUP; i++) {
+            measure(SIZES[0]);
+        }
+
+        System.out.println("statements      ms   ns/statement   instructions");
+        for (int size : SIZES) {
+            long best = Long.MAX_VALUE;
+            int instructions = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long[] result = measure(size);
+                best = Math.min(best, result[0]);
+                instructions = (int) result[1];
+            }
+            System.out.println(String.format("%10d %7.1f %14.1f %14d",
+                size, best / 1e6, (double) best / size, instructions));
+        }
+    }
+
+    /**
+     * Compiles a program whose main function contains {@code statements} statements.
+     * @return the elapsed nanoseconds and the amount of emitted instructions.
+     */
+    private static long[] measure(int statements){
+        ParseTree tree = CodeTest.createParser(generate(statements)).program();
+
+        long start = System.nanoTime();
+        ProgramVisitor v = new ProgramVisitor("Bench");
+        v.visit(tree);
+        long elapsed = System.nanoTime() - start;
+
+        MethodModel main = v.getClassModel().getMethod("main()V");
+        return new long[]{elapsed, main.getCode().size()};
+    }
+
+    private static String generate(int statements){
+        StringBuilder sb = new StringBuilder("void main(){num a; num b; a = 0; b = 1;");
+        for (int i = 0; i < statements; i++) {
+            switch (i % 4) {
+                case 0: sb.append("a = a + b * 2;"); break;
+                case 1: sb.append("if(a < 10){b = b + 1;}"); break;
+                case 2: sb.append("println(a - b);"); break;
+                default: sb.append("b = (a + 3) / 2;"); break;
+            }
+        }
+        return sb.append("}").toString();
+    }
+}